@@ -13,6 +13,9 @@ import org.esprit.services.ArtworkService;
 import org.esprit.services.CategoryService;
 import org.esprit.services.StabilityAIService;
 import org.esprit.services.ImgurService;
+import org.esprit.utils.Cursor;
+import org.esprit.utils.Page;
+import org.esprit.utils.Sort;
 
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -95,6 +98,12 @@ public class ArtworkManagementController {
     private CategoryService categoryService;
     private StabilityAIService stabilityAIService;
     private ObservableList<Artwork> userArtworks;
+    
+    // Artworks are loaded a page at a time, newest first
+    private static final int PAGE_SIZE = 50;
+    private static final Sort PAGE_SORT = Sort.desc("id");
+    private Cursor nextPage;
+    private boolean hasMorePages;
     private boolean isFromAdminDashboard = false; // Track if accessed from admin dashboard
     
     // New field for AI-generated image
@@ -176,15 +185,31 @@ public class ArtworkManagementController {
     }
     
     private void loadUserArtworks() {
+        userArtworks.clear();
+        nextPage = null;
+        hasMorePages = true;
+        loadNextPage();
+    }
+    
+    /**
+     * Loads the next page of the user's artworks in the selected category and displays them
+     */
+    private void loadNextPage() {
+        if (currentUser == null || !hasMorePages) {
+            return;
+        }
         try {
-            if (currentUser != null) {
-                List<Artwork> artworks = artworkService.getByCreator(currentUser.getId());
-                userArtworks.setAll(artworks);
-                
-                // Display artworks as cards
-                displayArtworksAsCards(artworks);
-            }
+            Category category = filterCategoryComboBox != null ? filterCategoryComboBox.getValue() : null;
+            Integer categoryId = category != null && category.getId() != -1 ? category.getId() : null;
+            Page<Artwork> page = artworkService.pageByCreator(currentUser.getId(), categoryId, nextPage, PAGE_SIZE, PAGE_SORT);
+            userArtworks.addAll(page.getItems());
+            nextPage = page.getNext();
+            hasMorePages = page.hasNext();
+            
+            // Display artworks as cards
+            displayArtworksAsCards(userArtworks);
         } catch (Exception e) {
+            hasMorePages = false;
             showAlert(AlertType.ERROR, "Load Error", "Failed to load artworks: " + e.getMessage());
             e.printStackTrace();
         }
@@ -869,30 +894,8 @@ public class ArtworkManagementController {
      * Filter artworks by category and display them
      */
     private void filterAndDisplayArtworks(Category category) {
-        try {
-            if (currentUser != null) {
-                List<Artwork> artworks;
-                
-                // Get all user artworks
-                artworks = artworkService.getByCreator(currentUser.getId());
-                
-                // Filter by category if not "All Categories"
-                if (category.getId() != -1) {
-                    artworks = artworks.stream()
-                        .filter(artwork -> artwork.getCategoryId() == category.getId())
-                        .toList();
-                }
-                
-                // Update the observable list (for TableView compatibility)
-                userArtworks.setAll(artworks);
-                
-                // Display as cards
-                displayArtworksAsCards(artworks);
-            }
-        } catch (Exception e) {
-            showAlert(AlertType.ERROR, "Filter Error", "Failed to filter artworks: " + e.getMessage());
-            e.printStackTrace();
-        }
+        // The selected category is read by the query, so paging starts over
+        loadUserArtworks();
     }
     
     /**
@@ -915,6 +918,12 @@ public class ArtworkManagementController {
                 artworksFlowPane.getChildren().add(card);
             }
             
+            if (hasMorePages) {
+                Button loadMoreButton = new Button("Load More");
+                loadMoreButton.setOnAction(event -> loadNextPage());
+                artworksFlowPane.getChildren().add(loadMoreButton);
+            }
+            
             // Show message if no artworks
             if (artworks.isEmpty()) {
                 Label noArtworksLabel = new Label("No artworks found");
@@ -13,9 +13,14 @@ import org.esprit.models.BetSession;
 import org.esprit.models.User;
 import org.esprit.services.BetSessionService;
 import org.esprit.services.UserService;
+import org.esprit.utils.Cursor;
+import org.esprit.utils.Page;
+import org.esprit.utils.Sort;
 
+import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
@@ -34,6 +39,7 @@ import javafx.scene.control.Label;
 import javafx.scene.control.Separator;
 import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableRow;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
 import javafx.scene.image.Image;
@@ -91,6 +97,13 @@ public class BetSessionController implements Initializable {
     private BetSessionService betSessionService;
     private UserService userService;
     
+    // Sessions are loaded a page at a time as the table is scrolled to the end
+    private static final int PAGE_SIZE = 50;
+    private static final Sort PAGE_SORT = Sort.desc("createdAt");
+    private final ObservableList<BetSession> betSessions = FXCollections.observableArrayList();
+    private Cursor nextPage;
+    private boolean hasMorePages;
+    
     // Add field for current user
     private User currentUser;
     
@@ -208,13 +221,39 @@ public class BetSessionController implements Initializable {
             }
         });
         
+        // Fetch the next page once the last loaded row is shown
+        tableView.setRowFactory(tv -> new TableRow<BetSession>() {
+            @Override
+            protected void updateItem(BetSession betSession, boolean empty) {
+                super.updateItem(betSession, empty);
+                if (!empty && hasMorePages && getIndex() == betSessions.size() - 1) {
+                    Platform.runLater(BetSessionController.this::loadNextPage);
+                }
+            }
+        });
+        
         // Load data
         loadBetSessions();
     }
     private void loadBetSessions() {
+        betSessions.clear();
+        nextPage = null;
+        hasMorePages = true;
+        tableView.setItems(betSessions);
+        loadNextPage();
+    }
+    
+    private void loadNextPage() {
+        if (!hasMorePages) {
+            return;
+        }
         try {
-            tableView.setItems(FXCollections.observableArrayList(betSessionService.getAllBetSessions()));
+            Page<BetSession> page = betSessionService.page(nextPage, PAGE_SIZE, PAGE_SORT);
+            betSessions.addAll(page.getItems());
+            nextPage = page.getNext();
+            hasMorePages = page.hasNext();
         } catch (Exception e) {
+            hasMorePages = false;
             System.err.println("Error loading bet sessions: " + e.getMessage());
             e.printStackTrace();
             
@@ -451,9 +490,12 @@ public class BetSessionController implements Initializable {
         
         TextField currentPriceField = new TextField();
         currentPriceField.setStyle("-fx-background-radius: 4;");
+        // Price and status are set by bidding and the session's start and end times
+        currentPriceField.setEditable(false);
         
         ComboBox<String> statusComboBox = new ComboBox<>();
         statusComboBox.setStyle("-fx-background-radius: 4;");
+        statusComboBox.setDisable(true);
         
         // Display author and artwork information (read-only)
         String authorInfo = selectedBetSession.getAuthor() != null ? 
@@ -574,9 +616,6 @@ public class BetSessionController implements Initializable {
                 try {
                     double initialPrice = Double.parseDouble(initialPriceField.getText());
                     selectedBetSession.setInitialPrice(initialPrice);
-                    
-                    double currentPrice = Double.parseDouble(currentPriceField.getText());
-                    selectedBetSession.setCurrentPrice(currentPrice);
                 } catch (NumberFormatException ex) {
                     Alert alert = new Alert(AlertType.ERROR, 
                             "Please enter valid prices.");
@@ -584,8 +623,6 @@ public class BetSessionController implements Initializable {
                     return;
                 }
                 
-                selectedBetSession.setStatus(statusComboBox.getValue());
-                
                 // Save to database
                 betSessionService.updateBetSession(selectedBetSession);
                 
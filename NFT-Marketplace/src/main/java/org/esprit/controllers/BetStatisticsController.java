@@ -68,11 +68,9 @@ public class BetStatisticsController {
     @FXML private TableColumn<ArtworkStatsEntry, Double> popularityScoreColumn;
 
     private final BetSessionService betSessionService;
-    private final Connection connection;
     
     public BetStatisticsController() {
         betSessionService = new BetSessionService();
-        connection = DatabaseConnection.getInstance().getConnection();
     }
 
     /**
@@ -162,14 +160,9 @@ public class BetStatisticsController {
      */
     private void loadRealData() {
         try {
-            // Get all bet sessions
-            List<BetSession> allSessions = betSessionService.getAllBetSessions();
-            
-            // Filter based on selected time range
+            // Only load the sessions of the selected time range
             LocalDateTime cutoffDate = calculateCutoffDate();
-            List<BetSession> filteredSessions = allSessions.stream()
-                .filter(session -> session.getCreatedAt() != null && session.getCreatedAt().isAfter(cutoffDate))
-                .toList();
+            List<BetSession> filteredSessions = betSessionService.getSessionsCreatedAfter(cutoffDate);
                 
             // Update summary statistics
             updateSummaryStatistics(filteredSessions);
@@ -500,7 +493,8 @@ public class BetStatisticsController {
             
             ObservableList<UserStatsEntry> userData = FXCollections.observableArrayList();
             
-            try (PreparedStatement ps = connection.prepareStatement(query);
+            try (Connection connection = DatabaseConnection.getInstance().getConnection();
+                 PreparedStatement ps = connection.prepareStatement(query);
                  ResultSet rs = ps.executeQuery()) {
                 
                 int rank = 1;
@@ -542,7 +536,8 @@ public class BetStatisticsController {
                           "FROM bet_session " +
                           "WHERE author_id = ? AND status = 'completed'";
             
-            try (PreparedStatement ps = connection.prepareStatement(query)) {
+            try (Connection connection = DatabaseConnection.getInstance().getConnection();
+                 PreparedStatement ps = connection.prepareStatement(query)) {
                 ps.setInt(1, userId);
                 
                 try (ResultSet rs = ps.executeQuery()) {
@@ -585,7 +580,8 @@ public class BetStatisticsController {
             
             ObservableList<ArtworkStatsEntry> artworkData = FXCollections.observableArrayList();
             
-            try (PreparedStatement ps = connection.prepareStatement(query);
+            try (Connection connection = DatabaseConnection.getInstance().getConnection();
+                 PreparedStatement ps = connection.prepareStatement(query);
                  ResultSet rs = ps.executeQuery()) {
                 
                 while (rs.next()) {
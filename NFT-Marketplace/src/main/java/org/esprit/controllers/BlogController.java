@@ -11,7 +11,6 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.ResourceBundle;
-import java.util.stream.Collectors;
 
 import javafx.scene.layout.Region;
 import org.esprit.models.Blog;
@@ -370,18 +369,10 @@ public class BlogController implements Initializable {
 
     private void filterBlogs(String searchText) {
         try {
-            List<Blog> allBlogs = blogService.readAll();
             if (searchText == null || searchText.isEmpty()) {
-                updateBlogList(allBlogs);
+                updateBlogList(blogService.readAll());
             } else {
-                String lowerCaseFilter = searchText.toLowerCase();
-                List<Blog> filteredList = allBlogs.stream()
-                        .filter(blog ->
-                                blog.getTitle().toLowerCase().contains(lowerCaseFilter) ||
-                                        blog.getContent().toLowerCase().contains(lowerCaseFilter) ||
-                                        blog.getUser().getName().toLowerCase().contains(lowerCaseFilter))
-                        .collect(Collectors.toList());
-                updateBlogList(filteredList);
+                updateBlogList(blogService.search(searchText));
             }
         } catch (Exception e) {
             showAlert(Alert.AlertType.ERROR, "Error", "Failed to filter blogs: " + e.getMessage());
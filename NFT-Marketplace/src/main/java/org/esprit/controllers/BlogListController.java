@@ -1,5 +1,7 @@
 package org.esprit.controllers;
 
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
@@ -37,6 +39,12 @@ public class BlogListController implements Initializable {
     private BlogService blogService;
     private User currentUser;
     private final String UPLOAD_DIR = "src/main/resources/uploads/";
+    private static final int FEED_PAGE_SIZE = 20;
+    
+    // Keyset pagination state for the unfiltered feed
+    private final ObservableList<Blog> feedItems = FXCollections.observableArrayList();
+    private boolean feedExhausted;
+    private boolean searching;
     
     @Override
     public void initialize(URL url, ResourceBundle rb) {
@@ -65,6 +73,11 @@ public class BlogListController implements Initializable {
                     setText(null);
                     setGraphic(null);
                 } else {
+                    // Reaching the last loaded blog pulls in the next page of the feed
+                    if (!searching && !feedExhausted && getIndex() == feedItems.size() - 1) {
+                        Platform.runLater(BlogListController.this::loadNextFeedPage);
+                    }
+                    
                     VBox container = new VBox(10);
                     container.setPadding(new Insets(15));
                     container.getStyleClass().add("blog-card");
@@ -258,30 +271,40 @@ public class BlogListController implements Initializable {
     }
     
     private void filterBlogs(String searchText) {
+        if (searchText == null || searchText.isEmpty()) {
+            refreshBlogList();
+            return;
+        }
         try {
-            List<Blog> allBlogs = blogService.readAll();
-            if (searchText == null || searchText.isEmpty()) {
-                blogListView.setItems(FXCollections.observableArrayList(allBlogs));
-            } else {
-                String lowerCaseFilter = searchText.toLowerCase();
-                List<Blog> filteredList = allBlogs.stream()
-                    .filter(blog -> 
-                        blog.getTitle().toLowerCase().contains(lowerCaseFilter) ||
-                        blog.getContent().toLowerCase().contains(lowerCaseFilter) ||
-                        blog.getUser().getName().toLowerCase().contains(lowerCaseFilter))
-                    .toList();
-                blogListView.setItems(FXCollections.observableArrayList(filteredList));
-            }
+            searching = true;
+            List<Blog> filteredList = blogService.search(searchText);
+            blogListView.setItems(FXCollections.observableArrayList(filteredList));
         } catch (Exception e) {
             showAlert(Alert.AlertType.ERROR, "Error", "Failed to filter blogs: " + e.getMessage());
         }
     }
     
     private void refreshBlogList() {
+        searching = false;
+        feedExhausted = false;
+        feedItems.clear();
+        blogListView.setItems(feedItems);
+        loadNextFeedPage();
+    }
+    
+    private void loadNextFeedPage() {
+        if (searching || feedExhausted) {
+            return;
+        }
         try {
-            List<Blog> blogs = blogService.readAll();
-            blogListView.setItems(FXCollections.observableArrayList(blogs));
+            Blog last = feedItems.isEmpty() ? null : feedItems.get(feedItems.size() - 1);
+            List<Blog> page = last == null
+                ? blogService.getFeedPage(null, null, FEED_PAGE_SIZE)
+                : blogService.getFeedPage(last.getDate(), last.getId(), FEED_PAGE_SIZE);
+            feedExhausted = page.size() < FEED_PAGE_SIZE;
+            feedItems.addAll(page);
         } catch (Exception e) {
+            feedExhausted = true;
             showAlert(Alert.AlertType.ERROR, "Error", "Failed to load blogs: " + e.getMessage());
         }
     }
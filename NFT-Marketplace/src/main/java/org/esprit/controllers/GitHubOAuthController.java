@@ -202,6 +202,7 @@ public class GitHubOAuthController {
             if (existingUser != null) {
                 // User exists, log them in
                 statusLabel.setText("Welcome back, " + existingUser.getName() + "!");
+                userService.touchLastLogin(existingUser.getId());
                 navigateToDashboard(existingUser);
             } else {
                 // Show account creation option
@@ -233,13 +234,7 @@ public class GitHubOAuthController {
     
     private User findUserByGithubUsername(String githubUsername) {
         try {
-            // Get all users and search for matching GitHub username
-            List<User> users = userService.getAll();
-            for (User user : users) {
-                if (githubUsername.equals(user.getGithubUsername())) {
-                    return user;
-                }
-            }
+            return userService.findByGithubUsername(githubUsername);
         } catch (Exception e) {
             System.err.println("Error searching for GitHub user: " + e.getMessage());
         }
@@ -114,6 +114,7 @@ public class LoginController {
             
             if (user != null && PasswordHasher.verifyPassword(password, user.getPassword())) {
                 // Authentication successful
+                userService.touchLastLogin(user.getId());
                 
                 // Check if user has admin role
                 if (user.getRoles().contains("ROLE_ADMIN")) {
@@ -7,17 +7,20 @@ import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 import org.esprit.models.Artwork;
 import org.esprit.models.BetSession;
-import org.esprit.models.Bid;
 import org.esprit.models.User;
 import org.esprit.services.ArtworkService;
 import org.esprit.services.BetSessionService;
+import org.esprit.services.BidEngine;
 import org.esprit.services.BidService;
+import org.esprit.services.EscrowLedger;
 import org.esprit.utils.CryptoService;
 
+import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.fxml.FXML;
@@ -134,6 +137,7 @@ public class MyBetSessionsController implements Initializable {
     }
     
     private BetSessionService betSessionService;
+    private BidService bidService;
     private User currentUser;
     private ArtworkService artworkService;
     private CryptoService cryptoService;
@@ -160,9 +164,24 @@ public class MyBetSessionsController implements Initializable {
     public void initialize(URL location, ResourceBundle resources) {
         // Initialize services
         betSessionService = new BetSessionService();
+        bidService = new BidService();
         artworkService = new ArtworkService();
         cryptoService = new CryptoService();
         
+        // An acknowledged bid can still lose to one written by another client first
+        if (BidEngine.isRunning()) {
+            BidEngine.getInstance().setLostBidListener(bid -> Platform.runLater(() -> {
+                if (currentUser == null) {
+                    return;
+                }
+                if (currentUser.getId() == bid.getAuthorId()) {
+                    showError("Your bid of " + bid.getValue() + " was not kept: another bid reached the session first, "
+                            + "or your balance no longer covers it.");
+                }
+                loadAllData();
+            }));
+        }
+        
         // Configure TAB 1: Marketplace table columns
         marketplaceArtworkColumn.setCellValueFactory(cellData -> {
             Artwork artwork = cellData.getValue().getArtwork();
@@ -751,24 +770,21 @@ public class MyBetSessionsController implements Initializable {
                     return;
                 }
                 // Check if user has enough balance
-                if (!canUserPlaceBid(currentUser, bidAmount)) {
+                if (!canUserPlaceBid(currentUser, session.getId(), bidAmount)) {
                     return;
                 }
                 try {
-                    // Create a new Bid entity
-                    Bid bid = new Bid(bidAmount, session, currentUser);
-                    BidService bidService = new BidService();
-                    bidService.addBid(bid);
-
-                    // Deduct bid amount from user balance
-                    BigDecimal newBalance = currentUser.getBalance().subtract(BigDecimal.valueOf(bidAmount));
-                    currentUser.setBalance(newBalance);
-                    new org.esprit.services.UserService().update(currentUser);
+                    if (BidEngine.isRunning()) {
+                        // Accepted in memory by the session's book and written behind in a batch
+                        BidEngine.getInstance().submit(session.getId(), currentUser.getId(), bidAmount).get();
+                    } else {
+                        // Other clients may take bids too, so the database decides
+                        bidService.placeBid(session.getId(), currentUser.getId(), bidAmount);
+                    }
 
-                    // Update session with new price
+                    // Mirror what was written; the balance is only held until the session completes
                     session.setCurrentPrice(bidAmount);
-                    BetSessionService service = new BetSessionService();
-                    service.updateBetSession(session);
+                    session.setNumberOfBids(session.getNumberOfBids() + 1);
 
                     // Success message
                     Alert alert = new Alert(Alert.AlertType.INFORMATION);
@@ -782,6 +798,8 @@ public class MyBetSessionsController implements Initializable {
 
                     // Close dialog
                     dialog.close();
+                } catch (ExecutionException ex) {
+                    showError("Failed to place bid: " + ex.getCause().getMessage());
                 } catch (Exception ex) {
                     showError("Failed to place bid: " + ex.getMessage());
                 }
@@ -1095,6 +1113,8 @@ public class MyBetSessionsController implements Initializable {
         DatePicker endDatePicker = new DatePicker();
         TextField initialPriceField = new TextField(String.valueOf(betSession.getInitialPrice()));
         TextField currentPriceField = new TextField(String.valueOf(betSession.getCurrentPrice()));
+        // Set by bidding, shown for reference only
+        currentPriceField.setEditable(false);
         
         // Set values from selected bet session
         if (betSession.getStartTime() != null) {
@@ -1160,9 +1180,6 @@ public class MyBetSessionsController implements Initializable {
                 try {
                     double initialPrice = Double.parseDouble(initialPriceField.getText());
                     betSession.setInitialPrice(initialPrice);
-                    
-                    double currentPrice = Double.parseDouble(currentPriceField.getText());
-                    betSession.setCurrentPrice(currentPrice);
                 } catch (NumberFormatException ex) {
                     showAlert(Alert.AlertType.ERROR, "Invalid Input", 
                               "Please enter valid prices.");
@@ -1324,13 +1341,22 @@ public class MyBetSessionsController implements Initializable {
                 setGraphic(empty ? null : viewButton);
             }
         });
-    }    private boolean canUserPlaceBid(User user, double bidAmount) {
-        if (user == null || user.getBalance() == null) {
+    }    private boolean canUserPlaceBid(User user, int sessionId, double bidAmount) {
+        BigDecimal available = null;
+        if (user != null) {
+            try {
+                // Balance minus what the user holds in other sessions' bids
+                available = EscrowLedger.getInstance().getAvailable(user.getId(), sessionId);
+            } catch (SQLException e) {
+                System.err.println("Failed to read available balance: " + e.getMessage());
+            }
+        }
+        if (available == null) {
             Alert alert = new Alert(AlertType.ERROR, "User or balance not found.");
             alert.showAndWait();
             return false;
         }
-        if (user.getBalance().doubleValue() < bidAmount) {
+        if (available.compareTo(BigDecimal.valueOf(bidAmount)) < 0) {
             Alert alert = new Alert(AlertType.WARNING, "Insufficient balance to place this bid.");
             alert.showAndWait();
             return false;
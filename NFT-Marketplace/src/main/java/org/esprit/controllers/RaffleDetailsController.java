@@ -6,12 +6,14 @@ import java.io.IOException;
 import java.io.File;
 import java.util.Date;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.esprit.models.Artwork;
 import org.esprit.models.Participant;
 import org.esprit.models.Raffle;
 import org.esprit.models.User;
 import org.esprit.services.*;
+import org.esprit.utils.EventBus;
 import org.esprit.utils.PdfGenerator;
 
 import javafx.application.Platform;
@@ -23,6 +25,7 @@ import javafx.scene.control.*;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
 import javafx.scene.layout.VBox;
 import javafx.scene.canvas.Canvas;
 import java.awt.Desktop;
@@ -53,7 +56,9 @@ public class RaffleDetailsController {
     private TwitterService twitterService;
     private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
     private RaffleListController parentController;
-    private javafx.animation.Timeline autoRefreshTimeline;
+    // Refreshes on raffle events instead of polling; cancelled when the window closes
+    private EventBus.Subscription raffleSubscription;
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
     private String currentCaptchaText;
 
     public void initialize() {
@@ -63,14 +68,38 @@ public class RaffleDetailsController {
         userService = new UserService();
         twitterService = new TwitterService();
         
-        // Setup auto-refresh timeline
-        autoRefreshTimeline = new javafx.animation.Timeline(
-            new javafx.animation.KeyFrame(
-                javafx.util.Duration.seconds(2),
-                event -> refreshRaffle()
-            )
-        );
-        autoRefreshTimeline.setCycleCount(javafx.animation.Timeline.INDEFINITE);
+        // Stop listening however the window gets closed
+        titleLabel.sceneProperty().addListener((sceneObs, oldScene, scene) -> {
+            if (scene != null) {
+                scene.windowProperty().addListener((windowObs, oldWindow, window) -> {
+                    if (window != null) {
+                        window.addEventHandler(WindowEvent.WINDOW_HIDDEN, event -> unsubscribe());
+                    }
+                });
+            }
+        });
+    }
+
+    private void subscribe() {
+        unsubscribe();
+        RaffleChangeFeed.getInstance().start();
+        int raffleId = raffle.getId();
+        raffleSubscription = EventBus.getInstance().subscribe(RaffleEvents.RaffleEvent.class, event -> {
+            // Events arrive on service threads; coalesce bursts into one refresh on the FX thread
+            if (event.getRaffleId() == raffleId && refreshPending.compareAndSet(false, true)) {
+                Platform.runLater(() -> {
+                    refreshPending.set(false);
+                    refreshRaffle();
+                });
+            }
+        });
+    }
+
+    private void unsubscribe() {
+        if (raffleSubscription != null) {
+            raffleSubscription.cancel();
+            raffleSubscription = null;
+        }
     }
 
     private void loadRaffleDetails() {
@@ -177,7 +206,6 @@ public class RaffleDetailsController {
             
             if (updatedRaffle == null) {
                 // Raffle was deleted
-                autoRefreshTimeline.stop();
                 handleClose();
                 return;
             }
@@ -186,7 +214,7 @@ public class RaffleDetailsController {
             boolean stateChanged = !updatedRaffle.getStatus().equals(raffle.getStatus()) ||
                 (updatedRaffle.getWinnerId() != null && !updatedRaffle.getWinnerId().equals(raffle.getWinnerId())) ||
                 (updatedRaffle.getWinnerId() == null && raffle.getWinnerId() != null) ||
-                updatedRaffle.getParticipants().size() != raffle.getParticipants().size();
+                updatedRaffle.getParticipantCount() != raffle.getParticipantCount();
             
             if (stateChanged) {
                 // Show notification if raffle just ended
@@ -220,10 +248,10 @@ public class RaffleDetailsController {
             }
         } catch (SQLException e) {
             e.printStackTrace();
-            // Don't stop refresh timeline on transient errors
+            // Keep listening; the next event retries
         } catch (Exception e) {
             e.printStackTrace();
-            autoRefreshTimeline.stop(); // Stop on critical errors
+            unsubscribe(); // Stop on critical errors
         }
     }
 
@@ -470,12 +498,12 @@ public class RaffleDetailsController {
         // Participate only for non-creators and active raffles
         if (isActive && currentUser != null && !isCreator) {
             // Check if user has already participated
-            boolean alreadyParticipated = raffle.getParticipants().stream()
-                .anyMatch(p -> p.getId() == currentUser.getId());
+            boolean alreadyParticipated = raffle.hasParticipant(currentUser.getId());
             
-            participateButton.setVisible(!alreadyParticipated);
-            participateButton.setText(alreadyParticipated ? "Already Joined" : "Participate");
-            participateButton.setDisable(alreadyParticipated);
+            // Participants can buy extra tickets to raise their odds
+            participateButton.setVisible(true);
+            participateButton.setText(alreadyParticipated ? "Buy Tickets" : "Participate");
+            participateButton.setDisable(false);
         } else {
             participateButton.setVisible(false);
         }
@@ -486,6 +514,10 @@ public class RaffleDetailsController {
 
     @FXML
     private void handleParticipate() {
+        if (currentUser != null && raffle.hasParticipant(currentUser.getId())) {
+            handleBuyTickets();
+            return;
+        }
         try {
             // Verify raffle is still active
             Raffle updatedRaffle = raffleService.getOne(raffle.getId());
@@ -580,6 +612,50 @@ public class RaffleDetailsController {
         }
     }
 
+    private void handleBuyTickets() {
+        TextInputDialog dialog = new TextInputDialog("1");
+        dialog.setTitle("Buy Tickets");
+        dialog.setHeaderText("Each extra ticket costs " + participantService.getTicketPrice() +
+                " and adds one chance to win");
+        dialog.setContentText("Number of tickets:");
+
+        Optional<String> result = dialog.showAndWait();
+        if (!result.isPresent()) {
+            return;
+        }
+        int tickets;
+        try {
+            tickets = Integer.parseInt(result.get().trim());
+        } catch (NumberFormatException e) {
+            showError("Please enter a whole number of tickets");
+            return;
+        }
+        if (tickets < 1) {
+            showError("Please buy at least one ticket");
+            return;
+        }
+
+        try {
+            if (!participantService.buyTickets(raffle.getId(), currentUser.getId(), tickets)) {
+                showError("You must join the raffle before buying tickets");
+                return;
+            }
+
+            this.raffle = raffleService.getOne(raffle.getId());
+            loadRaffleDetails();
+
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.setTitle("Success");
+            alert.setHeaderText(null);
+            alert.setContentText("You bought " + tickets + " ticket(s)!");
+            alert.showAndWait();
+        } catch (LedgerService.InsufficientBalanceException e) {
+            showError("Insufficient balance to buy " + tickets + " ticket(s)");
+        } catch (Exception e) {
+            showError("Error buying tickets: " + e.getMessage());
+        }
+    }
+
     @FXML
     private void handleManage() {
         // Check if raffle has a creator - still create one if needed
@@ -657,7 +733,7 @@ public class RaffleDetailsController {
 
     @FXML
     private void handleClose() {
-        autoRefreshTimeline.stop(); // Stop auto-refresh when closing
+        unsubscribe(); // Stop listening when closing
         ((Stage) titleLabel.getScene().getWindow()).close();
     }
     
@@ -688,7 +764,7 @@ public class RaffleDetailsController {
         this.raffle = raffle;
         if (raffle != null) {
             loadRaffleDetails();
-            autoRefreshTimeline.play();
+            subscribe();
         }
     }
 
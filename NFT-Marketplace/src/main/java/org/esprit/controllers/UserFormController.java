@@ -9,6 +9,7 @@ import org.esprit.models.User;
 import org.esprit.services.UserService;
 import org.esprit.utils.IdenticonGenerator;
 import org.esprit.utils.PasswordHasher;
+import org.esprit.utils.TransactionManager;
 
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
@@ -401,10 +402,13 @@ public class UserFormController {
             roles.add("ROLE_ADMIN");
         userToEdit.setRoles(roles);
 
-        // Update balance
+        // Only the administrator's change is booked, so money that moved since the
+        // form was loaded (a sale, a settlement) is kept
+        BigDecimal loadedBalance = userToEdit.getBalance() != null ? userToEdit.getBalance() : BigDecimal.ZERO;
+        BigDecimal balanceDelta = BigDecimal.ZERO;
         String balanceText = balanceField.getText().trim();
         if (!balanceText.isEmpty()) {
-            userToEdit.setBalance(new BigDecimal(balanceText));
+            balanceDelta = new BigDecimal(balanceText).subtract(loadedBalance);
         }
 
         // Update optional fields
@@ -414,8 +418,14 @@ public class UserFormController {
         String githubUsername = githubField.getText().trim();
         userToEdit.setGithubUsername(githubUsername.isEmpty() ? null : githubUsername);
 
-        // Save to database
-        userService.update(userToEdit);
+        // Save to database; the profile and the balance change commit together
+        BigDecimal delta = balanceDelta;
+        TransactionManager.inTransaction(connection -> {
+            userService.update(userToEdit);
+            userService.updateBalanceDelta(userToEdit.getId(), delta);
+            return null;
+        });
+        userToEdit.setBalance(loadedBalance.add(delta));
     }
 
     @FXML
@@ -11,7 +11,11 @@ import java.util.stream.Collectors;
 
 import org.esprit.models.User;
 import org.esprit.services.UserService;
+import org.esprit.utils.Cursor;
+import org.esprit.utils.Page;
+import org.esprit.utils.Sort;
 
+import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -28,6 +32,7 @@ import javafx.scene.control.ButtonType;
 import javafx.scene.control.Label;
 import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableRow;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
 import javafx.scene.control.cell.PropertyValueFactory;
@@ -68,6 +73,12 @@ public class UserManagementController implements Initializable {
     private ObservableList<User> userList = FXCollections.observableArrayList();
     private FilteredList<User> filteredUserList;
     private User currentAdminUser;
+    
+    // Users are loaded a page at a time as the table is scrolled to the end
+    private static final int PAGE_SIZE = 50;
+    private static final Sort PAGE_SORT = Sort.desc("createdAt");
+    private Cursor nextPage;
+    private boolean hasMorePages;
 
     @Override
     public void initialize(URL url, ResourceBundle rb) {
@@ -95,6 +106,7 @@ public class UserManagementController implements Initializable {
         try {
             User user = userService.getByEmail(searchText);
             userList.clear();
+            hasMorePages = false;
             
             if (user != null) {
                 userList.add(user);
@@ -172,6 +184,17 @@ public class UserManagementController implements Initializable {
         });
 
         setupActionsColumn();
+        
+        // Fetch the next page once the last loaded row is shown
+        userTable.setRowFactory(tv -> new TableRow<User>() {
+            @Override
+            protected void updateItem(User user, boolean empty) {
+                super.updateItem(user, empty);
+                if (!empty && hasMorePages && getIndex() == getTableView().getItems().size() - 1) {
+                    Platform.runLater(UserManagementController.this::loadNextPage);
+                }
+            }
+        });
     }
 
     private void setupActionsColumn() {
@@ -208,19 +231,31 @@ public class UserManagementController implements Initializable {
     }
 
     private void loadAllUsers() {
+        userList.clear();
+        nextPage = null;
+        hasMorePages = true;
+        
+        // Create a filtered list wrapping the observable list
+        filteredUserList = new FilteredList<>(userList, p -> true);
+        
+        // Set the filtered list as the table items
+        userTable.setItems(filteredUserList);
+        
+        showStatus("", false);
+        loadNextPage();
+    }
+    
+    private void loadNextPage() {
+        if (!hasMorePages) {
+            return;
+        }
         try {
-            List<User> users = userService.getAll();
-            userList.clear();
-            userList.addAll(users);
-            
-            // Create a filtered list wrapping the observable list
-            filteredUserList = new FilteredList<>(userList, p -> true);
-            
-            // Set the filtered list as the table items
-            userTable.setItems(filteredUserList);
-            
-            showStatus("", false);
+            Page<User> page = userService.page(nextPage, PAGE_SIZE, PAGE_SORT);
+            userList.addAll(page.getItems());
+            nextPage = page.getNext();
+            hasMorePages = page.hasNext();
         } catch (Exception e) {
+            hasMorePages = false;
             showStatus("Error loading users: " + e.getMessage(), true);
             showAlert(Alert.AlertType.ERROR, "Database Error", "Could not load users: " + e.getMessage());
         }
@@ -2,7 +2,6 @@ package org.esprit.controllers;
 
 import java.io.File;
 import java.io.FileWriter;
-import java.io.IOException;
 import java.net.URL;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -126,11 +125,13 @@ public class UserStatisticsController implements Initializable {
         });
         
         lastLoginColumn.setCellValueFactory(cellData -> {
-            // Since the User class doesn't have getLastLogin(), we'll use createdAt as a placeholder
-            // This can be updated when a lastLogin field is added to the User class
-            LocalDateTime createdAt = cellData.getValue().getCreatedAt();
-            if (createdAt != null) {
-                String formattedDate = createdAt.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
+            // Users who have not logged in since last logins were recorded show their sign-up date
+            LocalDateTime lastLogin = cellData.getValue().getLastLogin();
+            if (lastLogin == null) {
+                lastLogin = cellData.getValue().getCreatedAt();
+            }
+            if (lastLogin != null) {
+                String formattedDate = lastLogin.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
                 return new SimpleStringProperty(formattedDate);
             }
             return new SimpleStringProperty("N/A");
@@ -154,42 +155,44 @@ public class UserStatisticsController implements Initializable {
     }
 
     private void applyFilters(String filterOption, String searchText) {
-        filteredUserList.setPredicate(user -> {
-            boolean matchesSearch = true;
-            boolean matchesFilter = true;
-            
-            // Apply search filter
-            if (searchText != null && !searchText.isEmpty()) {
-                matchesSearch = user.getName().toLowerCase().contains(searchText.toLowerCase()) ||
-                        user.getEmail().toLowerCase().contains(searchText.toLowerCase());
-            }
-            
-            // Apply category filter
-            if (filterOption != null) {
-                switch (filterOption) {
-                    case "GitHub Connected":
-                        matchesFilter = user.getGithubUsername() != null && !user.getGithubUsername().isEmpty();
-                        break;
-                    case "Admin Users":
-                        matchesFilter = user.getRoles().contains("ADMIN");
-                        break;
-                    case "Regular Users":
-                        matchesFilter = !user.getRoles().contains("ADMIN");
-                        break;
-                    case "New Users (This Month)":
-                        matchesFilter = user.getCreatedAt() != null && 
-                                user.getCreatedAt().getMonth() == LocalDate.now().getMonth() &&
-                                user.getCreatedAt().getYear() == LocalDate.now().getYear();
-                        break;
-                    case "All Users":
-                    default:
-                        matchesFilter = true;
-                        break;
-                }
+        filteredUserList.setPredicate(user -> matchesFilters(user, filterOption, searchText));
+    }
+
+    private boolean matchesFilters(User user, String filterOption, String searchText) {
+        boolean matchesSearch = true;
+        boolean matchesFilter = true;
+        
+        // Apply search filter
+        if (searchText != null && !searchText.isEmpty()) {
+            matchesSearch = user.getName().toLowerCase().contains(searchText.toLowerCase()) ||
+                    user.getEmail().toLowerCase().contains(searchText.toLowerCase());
+        }
+        
+        // Apply category filter
+        if (filterOption != null) {
+            switch (filterOption) {
+                case "GitHub Connected":
+                    matchesFilter = user.getGithubUsername() != null && !user.getGithubUsername().isEmpty();
+                    break;
+                case "Admin Users":
+                    matchesFilter = user.getRoles().contains("ADMIN");
+                    break;
+                case "Regular Users":
+                    matchesFilter = !user.getRoles().contains("ADMIN");
+                    break;
+                case "New Users (This Month)":
+                    matchesFilter = user.getCreatedAt() != null && 
+                            user.getCreatedAt().getMonth() == LocalDate.now().getMonth() &&
+                            user.getCreatedAt().getYear() == LocalDate.now().getYear();
+                    break;
+                case "All Users":
+                default:
+                    matchesFilter = true;
+                    break;
             }
-            
-            return matchesSearch && matchesFilter;
-        });
+        }
+        
+        return matchesSearch && matchesFilter;
     }
 
     @FXML
@@ -214,23 +217,29 @@ public class UserStatisticsController implements Initializable {
         File file = fileChooser.showSaveDialog(null);
         
         if (file != null) {
+            String filterOption = filterComboBox.getValue();
+            String searchText = searchTextField.getText();
+            
             try (FileWriter writer = new FileWriter(file)) {
                 // Write header
                 writer.append("Name,Email,Roles,GitHub Connected,Joined Date\n");
                 
-                // Write data for filtered users
-                for (User user : filteredUserList) {
+                // Stream users straight from the database so the export does not depend on table size
+                userService.stream(user -> {
+                    if (!matchesFilters(user, filterOption, searchText)) {
+                        return;
+                    }
                     writer.append(user.getName()).append(",");
                     writer.append(user.getEmail()).append(",");
                     writer.append(user.getRoles().stream().collect(Collectors.joining("; "))).append(",");
                     writer.append(user.getGithubUsername() != null && !user.getGithubUsername().isEmpty() ? "Yes" : "No").append(",");
                     writer.append(user.getCreatedAt() != null ? 
                             user.getCreatedAt().format(DateTimeFormatter.ofPattern("yyyy-MM-dd")) : "N/A").append("\n");
-                }
+                });
                 
                 showAlert(Alert.AlertType.INFORMATION, "Export Successful", 
                         "User statistics have been exported to " + file.getName());
-            } catch (IOException e) {
+            } catch (Exception e) {
                 showAlert(Alert.AlertType.ERROR, "Export Error", 
                         "Failed to export user statistics: " + e.getMessage());
             }
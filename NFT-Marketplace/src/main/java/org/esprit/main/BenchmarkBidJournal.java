@@ -0,0 +1,80 @@
+package org.esprit.main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.esprit.utils.BidJournal;
+
+/**
+ * Measures sustained appends per second into the bid journal, with the background
+ * sync running, then replays the journal to check every record comes back.
+ */
+public class BenchmarkBidJournal {
+
+    private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final long SYNC_MILLIS = 10;
+    private static final int WARMUP_RECORDS = 1_000_000;
+    private static final int RECORDS = 10_000_000;
+
+    public static void main(String[] args) {
+        Path directory = null;
+        try {
+            System.out.println("========== BID JOURNAL BENCHMARK ==========");
+            directory = Files.createTempDirectory("bid-journal-bench");
+
+            long sequence = 0;
+            try (BidJournal journal = new BidJournal(directory, SEGMENT_BYTES, SYNC_MILLIS)) {
+                for (int i = 0; i < WARMUP_RECORDS; i++) {
+                    journal.append(entry(++sequence));
+                }
+
+                long start = System.nanoTime();
+                for (int i = 0; i < RECORDS; i++) {
+                    journal.append(entry(++sequence));
+                }
+                journal.sync();
+                long elapsed = System.nanoTime() - start;
+
+                System.out.printf("Appended %,d records (%d bytes each) in %.1f ms%n",
+                        RECORDS, BidJournal.RECORD_SIZE, elapsed / 1_000_000.0);
+                System.out.printf("Throughput: %,.0f appends/s, %.1f MB/s%n",
+                        RECORDS * 1e9 / elapsed, (double) RECORDS * BidJournal.RECORD_SIZE / 1024 / 1024 * 1e9 / elapsed);
+                System.out.println("Segments written: " + journal.getSegmentIndex());
+            }
+
+            AtomicLong replayed = new AtomicLong();
+            long start = System.nanoTime();
+            long highest = BidJournal.replay(directory, 0, entry -> replayed.incrementAndGet());
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("Replayed %,d records up to sequence %,d in %.1f ms%n",
+                    replayed.get(), highest, elapsed / 1_000_000.0);
+            System.out.println("Replay complete: " + (replayed.get() == sequence && highest == sequence));
+
+            System.out.println("\n========== BID JOURNAL BENCHMARK COMPLETED ==========");
+        } catch (Exception e) {
+            System.err.println("Benchmark failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            deleteQuietly(directory);
+        }
+    }
+
+    private static BidJournal.Entry entry(long sequence) {
+        return new BidJournal.Entry(sequence, (int) (sequence % 100), (int) (sequence % 5000), 100 + sequence % 1000, System.currentTimeMillis());
+    }
+
+    private static void deleteQuietly(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Could not delete " + directory + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.esprit.main;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.esprit.utils.AliasTable;
+
+/**
+ * Compares weighted raffle draws: alias table against cumulative-sum sampling,
+ * both with a linear scan and with a binary search over the prefix sums. First
+ * checks that the alias table draws each participant as often as its weight says.
+ */
+public class BenchmarkRaffleDraw {
+
+    private static final int[] PARTICIPANT_COUNTS = { 1_000, 100_000, 1_000_000 };
+    private static final int DRAWS = 1_000_000;
+    private static final int LINEAR_DRAWS = 1_000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int FAIRNESS_PARTICIPANTS = 1_000_000;
+    private static final int[] FAIRNESS_HEAVY_WEIGHTS = { 5_000, 3_000, 100 };
+    private static final int FAIRNESS_DRAWS = 10_000_000;
+
+    // Keeps the JIT from discarding draws whose result is unused
+    private static long sink;
+
+    public static void main(String[] args) {
+        System.out.println("========== RAFFLE DRAW BENCHMARK ==========");
+        Random random = new Random(42);
+
+        if (!checkFairness(random)) {
+            System.err.println("Alias table frequencies do not match the weights");
+        }
+
+        for (int participants : PARTICIPANT_COUNTS) {
+            int[] weights = new int[participants];
+            for (int i = 0; i < participants; i++) {
+                // Most hold one ticket, a few hold many
+                weights[i] = random.nextInt(10) == 0 ? 1 + random.nextInt(100) : 1;
+            }
+
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                runAlias(weights, DRAWS / 10, random);
+                runBinarySearch(weights, DRAWS / 10, random);
+                runLinearScan(weights, LINEAR_DRAWS / 10, random);
+            }
+
+            System.out.println("\nParticipants: " + participants);
+            report("alias table (build + draws)", runAlias(weights, DRAWS, random), DRAWS);
+            report("prefix sums + binary search", runBinarySearch(weights, DRAWS, random), DRAWS);
+            report("cumulative-sum linear scan", runLinearScan(weights, LINEAR_DRAWS, random), LINEAR_DRAWS);
+        }
+
+        System.out.println("\n(checksum " + sink + ")");
+        System.out.println("\n========== RAFFLE DRAW BENCHMARK COMPLETED ==========");
+    }
+
+    /**
+     * Draws many times from a large raffle where a few participants hold many tickets
+     * and checks each of them wins within five standard deviations of its expected share
+     */
+    private static boolean checkFairness(Random random) {
+        int[] weights = new int[FAIRNESS_PARTICIPANTS];
+        Arrays.fill(weights, 1);
+        long total = FAIRNESS_PARTICIPANTS;
+        for (int i = 0; i < FAIRNESS_HEAVY_WEIGHTS.length; i++) {
+            weights[i] = FAIRNESS_HEAVY_WEIGHTS[i];
+            total += FAIRNESS_HEAVY_WEIGHTS[i] - 1;
+        }
+
+        AliasTable table = new AliasTable(weights);
+        long[] wins = new long[FAIRNESS_HEAVY_WEIGHTS.length];
+        for (int i = 0; i < FAIRNESS_DRAWS; i++) {
+            int index = table.sample(random);
+            if (index < wins.length) {
+                wins[index]++;
+            }
+        }
+
+        System.out.println("\nFairness over " + FAIRNESS_PARTICIPANTS + " participants, " + FAIRNESS_DRAWS + " draws:");
+        boolean fair = true;
+        for (int i = 0; i < wins.length; i++) {
+            double expected = (double) weights[i] / total;
+            double observed = (double) wins[i] / FAIRNESS_DRAWS;
+            double tolerance = 5 * Math.sqrt(expected * (1 - expected) / FAIRNESS_DRAWS);
+            boolean ok = Math.abs(observed - expected) <= tolerance;
+            fair &= ok;
+            System.out.printf("  weight %5d: expected %.6f, observed %.6f %s%n",
+                    weights[i], expected, observed, ok ? "OK" : "MISMATCH");
+        }
+        return fair;
+    }
+
+    private static long runAlias(int[] weights, int draws, Random random) {
+        long start = System.nanoTime();
+        AliasTable table = new AliasTable(weights);
+        for (int i = 0; i < draws; i++) {
+            sink += table.sample(random);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runBinarySearch(int[] weights, int draws, Random random) {
+        long start = System.nanoTime();
+        long[] prefix = new long[weights.length];
+        long total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            prefix[i] = total;
+        }
+        for (int i = 0; i < draws; i++) {
+            long ticket = (long) (random.nextDouble() * total);
+            int low = 0;
+            int high = prefix.length - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (prefix[mid] > ticket) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            sink += low;
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runLinearScan(int[] weights, int draws, Random random) {
+        long start = System.nanoTime();
+        long total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        for (int i = 0; i < draws; i++) {
+            long ticket = (long) (random.nextDouble() * total);
+            int index = 0;
+            long cumulative = weights[0];
+            while (cumulative <= ticket) {
+                cumulative += weights[++index];
+            }
+            sink += index;
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, long nanos, int draws) {
+        System.out.printf("  %-30s %10.2f ms total, %10.1f ns/draw%n",
+                name, nanos / 1_000_000.0, (double) nanos / draws);
+    }
+}
@@ -1,5 +1,8 @@
 package org.esprit.main;
 
+import org.esprit.services.BidEngine;
+import org.esprit.services.DeadlineScheduler;
+
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -10,6 +13,15 @@ public class BetSessionApp extends Application {
 
     @Override
     public void start(Stage primaryStage) {
+        DeadlineScheduler.getInstance().start();
+        
+        // Bid books are rebuilt from the database before the first bid is taken
+        try {
+            BidEngine.getInstance().start();
+        } catch (Exception e) {
+            System.err.println("Failed to start the bid engine: " + e.getMessage());
+        }
+        
         try {
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/BetSession.fxml"));
             Parent root = loader.load();
@@ -5,6 +5,8 @@ import java.io.IOException;
 import org.esprit.controllers.RaffleListController;
 import org.esprit.controllers.ResetPasswordController;
 import org.esprit.models.User;
+import org.esprit.services.BidEngine;
+import org.esprit.services.DeadlineScheduler;
 import org.esprit.utils.UrlProtocolHandler;
 
 import javafx.application.Application;
@@ -23,6 +25,16 @@ public class NftMarketplaceApplication extends Application {
     public void start(Stage stage) throws IOException {
         primaryStage = stage;
         
+        // Raffle and bet session start/end transitions run in the background
+        DeadlineScheduler.getInstance().start();
+        
+        // Bid books are rebuilt from the database before the first bid is taken
+        try {
+            BidEngine.getInstance().start();
+        } catch (Exception e) {
+            System.err.println("Failed to start the bid engine: " + e.getMessage());
+        }
+        
         // Set application icon that will appear in the taskbar
         try {
             Image icon = new Image(getClass().getResourceAsStream("/kit/icon_2.png"));
@@ -0,0 +1,31 @@
+package org.esprit.main;
+
+import org.esprit.services.LedgerReconciler;
+
+/**
+ * Runs a balance ledger reconciliation and prints what did not reconcile.
+ * Exits with status 1 if anything is out of balance, so it can be scheduled.
+ */
+public class ReconcileLedger {
+
+    public static void main(String[] args) {
+        System.out.println("========== LEDGER RECONCILIATION ==========");
+        try {
+            LedgerReconciler.Report report = new LedgerReconciler().reconcile();
+            System.out.println(report);
+            for (LedgerReconciler.UserMismatch mismatch : report.getUserMismatches()) {
+                System.out.println("  " + mismatch);
+            }
+            for (Long transferId : report.getUnbalancedTransfers()) {
+                System.out.println("  transfer " + transferId + " does not sum to zero");
+            }
+            if (!report.isBalanced()) {
+                System.exit(1);
+            }
+        } catch (Exception e) {
+            System.err.println("Reconciliation failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+}
@@ -2,15 +2,19 @@ package org.esprit.main;
 
 import org.esprit.utils.DatabaseConnection;
 import java.sql.Connection;
+import java.sql.SQLException;
 
 public class TestConnection {
     public static void main(String[] args) {
-        Connection conn = DatabaseConnection.getInstance().getConnection();
-
-        if (conn != null) {
-            System.out.println("Connected to MySQL successfully!");
-        } else {
-            System.out.println("Connection failed!");
+        try (Connection conn = DatabaseConnection.getInstance().getConnection()) {
+            if (conn.isValid(5)) {
+                System.out.println("Connected to MySQL successfully!");
+            } else {
+                System.out.println("Connection failed! The connection is not valid.");
+            }
+        } catch (SQLException e) {
+            System.out.println("Connection failed! " + e.getMessage());
         }
+        System.out.println(DatabaseConnection.getInstance().getPool());
     }
-}
\ No newline at end of file
+}
@@ -11,6 +11,7 @@ import org.esprit.models.Category;
 import org.esprit.models.User;
 import org.esprit.services.ArtworkService;
 import org.esprit.services.CategoryService;
+import org.esprit.services.LedgerService;
 import org.esprit.services.UserService;
 import org.esprit.utils.PasswordHasher;
 
@@ -117,7 +118,7 @@ public class TestCrudArtwork {
                 // Make sure buyer has enough balance
                 if (buyer.getBalance().doubleValue() < artwork2.getPrice()) {
                     buyer.setBalance(new BigDecimal("1000.00"));
-                    userService.update(buyer);
+                    new LedgerService().adjustTo(buyer.getId(), buyer.getBalance());
                     System.out.println("Updated buyer's balance to ensure sufficient funds.");
                 }
                 
@@ -186,7 +186,7 @@ public class TestCrudCategory {
             } else {
                 System.out.println("No users found. Creating a manager user...");
                 User manager = new User("manager@example.com", "password", "Category Manager");
-                manager.getRoles().add("ROLE_ADMIN");
+                manager.addRole("ROLE_ADMIN");
                 userService.add(manager);
                 System.out.println("Created manager user with ID: " + manager.getId());
                 return manager;
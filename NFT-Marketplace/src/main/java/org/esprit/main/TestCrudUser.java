@@ -49,6 +49,9 @@ public class TestCrudUser {
             
             System.out.println("========== TABLES TRUNCATED ==========");
             
+            // Give the connection back to the pool
+            connection.close();
+            
             // Now proceed with user creation
             UserService userService = new UserService();
 
@@ -60,7 +63,7 @@ public class TestCrudUser {
             String adminPlainPassword = "123456";
             String hashedAdminPassword = PasswordHasher.hashPassword(adminPlainPassword);
             User adminUser = new User(adminEmail, hashedAdminPassword, "Administrator");
-            adminUser.getRoles().add("ROLE_ADMIN"); // Adding ROLE_ADMIN in addition to default ROLE_USER
+            adminUser.addRole("ROLE_ADMIN"); // Adding ROLE_ADMIN in addition to default ROLE_USER
             adminUser.setBalance(new BigDecimal("500.000"));
             adminUser.setWalletAddress("0xadmin123456789");
             userService.add(adminUser);
@@ -100,7 +103,7 @@ public class TestCrudUser {
             String plainPassword2 = "SecurePass456";
             String hashedPassword2 = PasswordHasher.hashPassword(plainPassword2);
             User user2 = new User(email2, hashedPassword2, "Jane Smith");
-            user2.getRoles().add("ROLE_ADMIN"); // Adding ROLE_ADMIN in addition to default ROLE_USER
+            user2.addRole("ROLE_ADMIN"); // Adding ROLE_ADMIN in addition to default ROLE_USER
             user2.setBalance(new BigDecimal("200.000"));
             user2.setWalletAddress("0xabcdef123456789");
             user2.setGithubUsername("janesmith");
@@ -36,6 +36,24 @@ public class Artwork {
         this.updatedAt = updatedAt;
     }
 
+    /**
+     * @return An independent copy
+     */
+    public Artwork copy() {
+        Artwork copy = new Artwork();
+        copy.id = id;
+        copy.creatorId = creatorId;
+        copy.ownerId = ownerId;
+        copy.categoryId = categoryId;
+        copy.title = title;
+        copy.description = description;
+        copy.price = price;
+        copy.imageName = imageName;
+        copy.createdAt = createdAt;
+        copy.updatedAt = updatedAt;
+        return copy;
+    }
+
 
     public int getId() { return id; }
     public void setId(int id) { this.id = id; }
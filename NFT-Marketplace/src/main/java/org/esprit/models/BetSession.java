@@ -44,6 +44,35 @@ public class BetSession {
         return numberOfBids;
     }
 
+    // Highest bid, kept on bet_session as bids are placed; null until the first bid
+    private Integer highestBidId;
+    private Double highestBidValue;
+    private Integer highestBidderId;
+
+    public Integer getHighestBidId() {
+        return highestBidId;
+    }
+
+    public void setHighestBidId(Integer highestBidId) {
+        this.highestBidId = highestBidId;
+    }
+
+    public Double getHighestBidValue() {
+        return highestBidValue;
+    }
+
+    public void setHighestBidValue(Double highestBidValue) {
+        this.highestBidValue = highestBidValue;
+    }
+
+    public Integer getHighestBidderId() {
+        return highestBidderId;
+    }
+
+    public void setHighestBidderId(Integer highestBidderId) {
+        this.highestBidderId = highestBidderId;
+    }
+
     // Constructor
     public BetSession() {
         this.currentPrice.set(this.initialPrice.get());
@@ -36,6 +36,20 @@ public class Category {
         setAllowedMimeTypes(allowedMimeTypes);
     }
 
+    /**
+     * @return An independent copy
+     */
+    public Category copy() {
+        Category copy = new Category();
+        copy.id = id;
+        copy.managerId = managerId;
+        copy.name = name;
+        copy.type = type;
+        copy.description = description;
+        copy.allowedMimeTypes = allowedMimeTypes != null ? new ArrayList<>(allowedMimeTypes) : null;
+        return copy;
+    }
+
     public int getId() { return id; }
     public void setId(int id) { this.id = id; }
 
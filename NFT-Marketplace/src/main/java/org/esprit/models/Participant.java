@@ -8,6 +8,8 @@ public class Participant {
     private User user;
     private String name;
     private LocalDateTime joinedAt;
+    // Number of tickets held; the draw odds are proportional to it
+    private int weight = 1;
 
     // Default constructor
     public Participant() {
@@ -66,6 +68,17 @@ public class Participant {
         this.joinedAt = joinedAt;
     }
 
+    public int getWeight() {
+        return weight;
+    }
+
+    public void setWeight(int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("A participant holds at least one ticket");
+        }
+        this.weight = weight;
+    }
+
     @Override
     public String toString() {
         return name != null ? name : (user != null ? user.getEmail() : "Unknown Participant");
@@ -1,8 +1,11 @@
 package org.esprit.models;
 
 import java.util.Date;
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Arrays;
 
 public class Raffle {
@@ -14,7 +17,10 @@ public class Raffle {
     private User creator;
     private Date createdAt;
     private Integer winnerId;
-    private List<User> participants;
+    // SecureRandom seed the winner was drawn from, kept so the draw can be replayed
+    private Long drawSeed;
+    // Keyed by user ID, in join order, so membership checks are O(1)
+    private Map<Integer, User> participants;
     private String creatorName;
     private String title;
     private String raffleDescription;
@@ -40,7 +46,7 @@ public class Raffle {
     }
 
     public Raffle() {
-        this.participants = new ArrayList<>();
+        this.participants = new LinkedHashMap<>();
         this.createdAt = new Date();
         this.startTime = new Date();
     }
@@ -136,22 +142,39 @@ public class Raffle {
         this.winnerId = winnerId;
     }
 
-    public List<User> getParticipants() {
-        return participants;
+    public Long getDrawSeed() {
+        return drawSeed;
     }
 
-    public void setParticipants(List<User> participants) {
-        this.participants = participants;
+    public void setDrawSeed(Long drawSeed) {
+        this.drawSeed = drawSeed;
     }
 
-    public void addParticipant(User participant) {
-        if (!this.participants.contains(participant)) {
-            this.participants.add(participant);
+    public Collection<User> getParticipants() {
+        return Collections.unmodifiableCollection(participants.values());
+    }
+
+    public void setParticipants(Collection<User> participants) {
+        this.participants = new LinkedHashMap<>();
+        for (User participant : participants) {
+            addParticipant(participant);
         }
     }
 
+    public void addParticipant(User participant) {
+        this.participants.putIfAbsent(participant.getId(), participant);
+    }
+
     public void removeParticipant(User participant) {
-        this.participants.remove(participant);
+        this.participants.remove(participant.getId());
+    }
+
+    public boolean hasParticipant(int userId) {
+        return participants.containsKey(userId);
+    }
+
+    public int getParticipantCount() {
+        return participants.size();
     }
 
     public String getCreatorName() {
@@ -3,9 +3,13 @@ package org.esprit.models;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 public class User {
@@ -21,6 +25,35 @@ public class User {
     private String githubUsername;
     private String passwordResetToken;
     private LocalDateTime passwordResetTokenExpiresAt;
+    private LocalDateTime lastLogin;
+    // Columns changed since the user was loaded or saved, so updates only send those
+    private final Set<Field> dirtyFields = EnumSet.noneOf(Field.class);
+
+    /**
+     * The columns an update can write. The balance only moves through the ledger and
+     * the last login through UserService.touchLastLogin, so neither is tracked.
+     */
+    public enum Field {
+        EMAIL("email"),
+        ROLES("roles"),
+        PASSWORD("password"),
+        NAME("name"),
+        PROFILE_PICTURE("profile_picture"),
+        WALLET_ADDRESS("wallet_address"),
+        GITHUB_USERNAME("github_username"),
+        PASSWORD_RESET_TOKEN("password_reset_token"),
+        PASSWORD_RESET_TOKEN_EXPIRES_AT("password_reset_token_expires_at");
+
+        private final String column;
+
+        Field(String column) {
+            this.column = column;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+    }
 
     // Default constructor
     public User() {
@@ -36,6 +69,7 @@ public class User {
         this.email = email;
         this.password = password;
         this.name = name;
+        dirtyFields.addAll(EnumSet.of(Field.EMAIL, Field.PASSWORD, Field.NAME));
     }
 
     // Full constructor
@@ -44,7 +78,7 @@ public class User {
                 String githubUsername, String passwordResetToken, LocalDateTime passwordResetTokenExpiresAt) {
         this.id = id;
         this.email = email;
-        this.roles = roles;
+        this.roles = roles != null ? new ArrayList<>(roles) : null;
         this.balance = balance;
         this.password = password;
         this.createdAt = createdAt;
@@ -54,6 +88,29 @@ public class User {
         this.githubUsername = githubUsername;
         this.passwordResetToken = passwordResetToken;
         this.passwordResetTokenExpiresAt = passwordResetTokenExpiresAt;
+        dirtyFields.addAll(EnumSet.allOf(Field.class));
+    }
+
+    /**
+     * @return An independent copy, with the same pending changes
+     */
+    public User copy() {
+        User copy = new User();
+        copy.id = id;
+        copy.email = email;
+        copy.roles = roles != null ? new ArrayList<>(roles) : null;
+        copy.balance = balance;
+        copy.password = password;
+        copy.createdAt = createdAt;
+        copy.name = name;
+        copy.profilePicture = profilePicture;
+        copy.walletAddress = walletAddress;
+        copy.githubUsername = githubUsername;
+        copy.passwordResetToken = passwordResetToken;
+        copy.passwordResetTokenExpiresAt = passwordResetTokenExpiresAt;
+        copy.lastLogin = lastLogin;
+        copy.dirtyFields.addAll(dirtyFields);
+        return copy;
     }
 
     // Validation class to store validation results
@@ -198,15 +255,34 @@ public class User {
     }
 
     public void setEmail(String email) {
+        markDirty(Field.EMAIL, this.email, email);
         this.email = email;
     }
 
+    /**
+     * @return A read-only view; change roles with {@link #setRoles} or {@link #addRole},
+     *         so the change is tracked and saved
+     */
     public List<String> getRoles() {
-        return roles;
+        return roles != null ? Collections.unmodifiableList(roles) : null;
     }
 
     public void setRoles(List<String> roles) {
-        this.roles = roles;
+        markDirty(Field.ROLES, this.roles, roles);
+        // Copied, so later changes to the caller's list cannot bypass tracking
+        this.roles = roles != null ? new ArrayList<>(roles) : null;
+    }
+
+    /**
+     * Grants a role the user does not have yet
+     * @param role The role, e.g. ROLE_ADMIN
+     */
+    public void addRole(String role) {
+        List<String> updated = roles != null ? new ArrayList<>(roles) : new ArrayList<>();
+        if (!updated.contains(role)) {
+            updated.add(role);
+            setRoles(updated);
+        }
     }
 
     public BigDecimal getBalance() {
@@ -222,6 +298,7 @@ public class User {
     }
 
     public void setPassword(String password) {
+        markDirty(Field.PASSWORD, this.password, password);
         this.password = password;
     }
 
@@ -238,6 +315,7 @@ public class User {
     }
 
     public void setName(String name) {
+        markDirty(Field.NAME, this.name, name);
         this.name = name;
     }
 
@@ -246,6 +324,7 @@ public class User {
     }
 
     public void setProfilePicture(String profilePicture) {
+        markDirty(Field.PROFILE_PICTURE, this.profilePicture, profilePicture);
         this.profilePicture = profilePicture;
     }
 
@@ -254,6 +333,7 @@ public class User {
     }
 
     public void setWalletAddress(String walletAddress) {
+        markDirty(Field.WALLET_ADDRESS, this.walletAddress, walletAddress);
         this.walletAddress = walletAddress;
     }
 
@@ -262,6 +342,7 @@ public class User {
     }
 
     public void setGithubUsername(String githubUsername) {
+        markDirty(Field.GITHUB_USERNAME, this.githubUsername, githubUsername);
         this.githubUsername = githubUsername;
     }
 
@@ -270,6 +351,7 @@ public class User {
     }
 
     public void setPasswordResetToken(String passwordResetToken) {
+        markDirty(Field.PASSWORD_RESET_TOKEN, this.passwordResetToken, passwordResetToken);
         this.passwordResetToken = passwordResetToken;
     }
 
@@ -278,9 +360,42 @@ public class User {
     }
 
     public void setPasswordResetTokenExpiresAt(LocalDateTime passwordResetTokenExpiresAt) {
+        markDirty(Field.PASSWORD_RESET_TOKEN_EXPIRES_AT, this.passwordResetTokenExpiresAt, passwordResetTokenExpiresAt);
         this.passwordResetTokenExpiresAt = passwordResetTokenExpiresAt;
     }
 
+    public LocalDateTime getLastLogin() {
+        return lastLogin;
+    }
+
+    public void setLastLogin(LocalDateTime lastLogin) {
+        this.lastLogin = lastLogin;
+    }
+
+    /**
+     * @return The columns changed since the user was loaded or last saved
+     */
+    public Set<Field> getDirtyFields() {
+        return Collections.unmodifiableSet(EnumSet.copyOf(dirtyFields));
+    }
+
+    public boolean isDirty() {
+        return !dirtyFields.isEmpty();
+    }
+
+    /**
+     * Forgets the changes, once they are saved or the user has just been loaded
+     */
+    public void markClean() {
+        dirtyFields.clear();
+    }
+
+    private void markDirty(Field field, Object oldValue, Object newValue) {
+        if (!Objects.equals(oldValue, newValue)) {
+            dirtyFields.add(field);
+        }
+    }
+
     @Override
     public String toString() {
         return "User{" +
@@ -1,5 +1,6 @@
 package org.esprit.services;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -8,20 +9,37 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import org.esprit.models.Artwork;
 import org.esprit.models.User;
+import org.esprit.utils.Cursor;
 import org.esprit.utils.DatabaseConnection;
+import org.esprit.utils.EntityCache;
+import org.esprit.utils.KeysetPaginator;
+import org.esprit.utils.Page;
+import org.esprit.utils.Sort;
+import org.esprit.utils.SqlUtils;
+import org.esprit.utils.TransactionManager;
 
 public class ArtworkService implements IService<Artwork> {
-    
-    private Connection connection;
+    private static final KeysetPaginator<Artwork> PAGINATOR = new KeysetPaginator<Artwork>("id", Artwork::getId)
+        .sortable("createdAt", "created_at", Artwork::getCreatedAt)
+        .sortable("title", "title", Artwork::getTitle)
+        .sortable("price", "price", Artwork::getPrice);
+    // Artworks by ID, shared by every ArtworkService
+    private static final EntityCache<Integer, Artwork> CACHE = EntityCache.named("artwork", Artwork::copy);
+
     private UserService userService;
+    private LedgerService ledgerService;
     
     public ArtworkService() {
-        connection = DatabaseConnection.getInstance().getConnection();
         userService = new UserService();
+        ledgerService = new LedgerService();
     }
     
     @Override
@@ -30,7 +48,8 @@ public class ArtworkService implements IService<Artwork> {
                      "price, image_name, created_at, updated_at) " +
                      "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
                      
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setInt(1, artwork.getCreatorId());
             stmt.setInt(2, artwork.getOwnerId());
             stmt.setInt(3, artwork.getCategoryId());
@@ -63,7 +82,8 @@ public class ArtworkService implements IService<Artwork> {
                      "title = ?, description = ?, price = ?, image_name = ?, updated_at = ? " +
                      "WHERE id = ?";
                      
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, artwork.getCreatorId());
             stmt.setInt(2, artwork.getOwnerId());
             stmt.setInt(3, artwork.getCategoryId());
@@ -83,16 +103,19 @@ public class ArtworkService implements IService<Artwork> {
             // Update the updatedAt field in the object
             artwork.setUpdatedAt(now);
         }
+        invalidateCached(artwork.getId());
     }
     
     @Override
     public void delete(Artwork artwork) throws Exception {
         String sql = "DELETE FROM artwork WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, artwork.getId());
             stmt.executeUpdate();
         }
+        invalidateCached(artwork.getId());
     }
     
     @Override
@@ -100,7 +123,8 @@ public class ArtworkService implements IService<Artwork> {
         List<Artwork> artworks = new ArrayList<>();
         String sql = "SELECT * FROM artwork";
         
-        try (Statement stmt = connection.createStatement();
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             
             while (rs.next()) {
@@ -111,15 +135,67 @@ public class ArtworkService implements IService<Artwork> {
         return artworks;
     }
     
+    @Override
+    public Page<Artwork> page(Cursor after, int size, Sort sort) throws Exception {
+        List<Artwork> artworks = new ArrayList<>();
+        String sql = "SELECT * FROM artwork" + PAGINATOR.clause(after, sort, false);
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            PAGINATOR.bind(stmt, 1, after, size);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    artworks.add(mapResultSetToArtwork(rs));
+                }
+            }
+        }
+        
+        return PAGINATOR.toPage(artworks, size, sort);
+    }
+    
     @Override
     public Artwork getOne(int id) throws Exception {
         return getById(id);
     }
     
+    /**
+     * Served from the artwork cache when possible
+     * @param id The artwork ID
+     * @return The artwork, or null if there is none; a copy the caller may change
+     * @throws Exception If a database error occurs
+     */
     public Artwork getById(int id) throws Exception {
+        return CACHE.get(id, this::loadById);
+    }
+    
+    /**
+     * Loads several artworks, querying only those not in the artwork cache, with one
+     * query per {@link SqlUtils#MAX_IN_LIST_SIZE} ids
+     * @param ids The artwork IDs to load; duplicates are ignored
+     * @return The artworks found, keyed by ID
+     * @throws Exception If a database error occurs
+     */
+    public Map<Integer, Artwork> getByIds(Collection<Integer> ids) throws Exception {
+        return CACHE.getAll(new LinkedHashSet<>(ids), this::loadByIds);
+    }
+    
+    /**
+     * Drops an artwork from the cache, now and once the calling thread's transaction
+     * commits. Called by every write to the artwork table, including the ownership
+     * changes made by raffles and auction settlement.
+     * @param artworkId The artwork ID
+     */
+    static void invalidateCached(int artworkId) {
+        CACHE.invalidate(artworkId);
+        TransactionManager.afterCommit(() -> CACHE.invalidate(artworkId));
+    }
+    
+    private Artwork loadById(int id) throws Exception {
         String sql = "SELECT * FROM artwork WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, id);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -132,11 +208,35 @@ public class ArtworkService implements IService<Artwork> {
         return null;
     }
     
+    private Map<Integer, Artwork> loadByIds(Collection<Integer> ids) throws Exception {
+        Map<Integer, Artwork> artworks = new HashMap<>();
+        for (List<Integer> chunk : SqlUtils.chunks(ids)) {
+            String sql = "SELECT * FROM artwork WHERE id IN (" + SqlUtils.placeholders(chunk.size()) + ")";
+            
+            try (Connection connection = DatabaseConnection.getInstance().getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    stmt.setInt(i + 1, chunk.get(i));
+                }
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        Artwork artwork = mapResultSetToArtwork(rs);
+                        artworks.put(artwork.getId(), artwork);
+                    }
+                }
+            }
+        }
+        
+        return artworks;
+    }
+    
     public List<Artwork> getByCreator(int creatorId) throws Exception {
         List<Artwork> artworks = new ArrayList<>();
         String sql = "SELECT * FROM artwork WHERE creator_id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, creatorId);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -149,11 +249,46 @@ public class ArtworkService implements IService<Artwork> {
         return artworks;
     }
     
+    /**
+     * Reads one page of a creator's artworks
+     * @param creatorId The creator's user ID
+     * @param categoryId Only artworks of this category, or null for all
+     * @param after The cursor of the previous page, or null for the first page
+     * @param size The page size
+     * @param sort The sort
+     * @return The page
+     * @throws Exception If a database error occurs
+     */
+    public Page<Artwork> pageByCreator(int creatorId, Integer categoryId, Cursor after, int size, Sort sort) throws Exception {
+        List<Artwork> artworks = new ArrayList<>();
+        String sql = "SELECT * FROM artwork WHERE creator_id = ?" + (categoryId != null ? " AND category_id = ?" : "")
+                + PAGINATOR.clause(after, sort, true);
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int index = 1;
+            stmt.setInt(index++, creatorId);
+            if (categoryId != null) {
+                stmt.setInt(index++, categoryId);
+            }
+            PAGINATOR.bind(stmt, index, after, size);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    artworks.add(mapResultSetToArtwork(rs));
+                }
+            }
+        }
+        
+        return PAGINATOR.toPage(artworks, size, sort);
+    }
+    
     public List<Artwork> getByOwner(int ownerId) throws Exception {
         List<Artwork> artworks = new ArrayList<>();
         String sql = "SELECT * FROM artwork WHERE owner_id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, ownerId);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -170,7 +305,8 @@ public class ArtworkService implements IService<Artwork> {
         List<Artwork> artworks = new ArrayList<>();
         String sql = "SELECT * FROM artwork WHERE category_id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, categoryId);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -187,7 +323,8 @@ public class ArtworkService implements IService<Artwork> {
         List<Artwork> artworks = new ArrayList<>();
         String sql = "SELECT * FROM artwork WHERE title LIKE ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setString(1, "%" + searchTerm + "%");
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -200,56 +337,64 @@ public class ArtworkService implements IService<Artwork> {
         return artworks;
     }
     
+    /**
+     * Sells an artwork to a new owner: ownership and the payment from buyer to seller
+     * are written in one transaction, the payment as a ledger transfer. Ownership only
+     * moves if the artwork still belongs to the seller the caller saw, so of two
+     * concurrent buyers only one pays and gets it.
+     * @param artwork The artwork being sold
+     * @param newOwner The buyer
+     * @param salePrice The price paid to the current owner
+     * @return false if a party is missing, the artwork changed hands in the meantime
+     *         or the buyer cannot cover the price
+     * @throws Exception If a database error occurs
+     */
     public boolean transferOwnership(Artwork artwork, User newOwner, double salePrice) throws Exception {
-        // Get current owner for balance update
-        User currentOwner = userService.getById(artwork.getOwnerId());
-        if (currentOwner == null || newOwner == null) {
+        int sellerId = artwork.getOwnerId();
+        if (newOwner == null || userService.getById(sellerId) == null) {
             return false;
         }
+        BigDecimal price = BigDecimal.valueOf(salePrice);
         
-        // Check if buyer has enough balance
-        if (newOwner.getBalance().doubleValue() < salePrice) {
+        // Ownership and both balances move together or not at all
+        try {
+            boolean transferred = TransactionManager.inTransaction(connection -> {
+                // Update artwork ownership, unless someone else bought it first
+                String updateArtworkSql = "UPDATE artwork SET owner_id = ?, price = ?, updated_at = ? WHERE id = ? AND owner_id = ?";
+                try (PreparedStatement stmt = connection.prepareStatement(updateArtworkSql)) {
+                    stmt.setInt(1, newOwner.getId());
+                    stmt.setDouble(2, salePrice); // Update price to the sale price
+                    stmt.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
+                    stmt.setInt(4, artwork.getId());
+                    stmt.setInt(5, sellerId);
+                    if (stmt.executeUpdate() == 0) {
+                        return false;
+                    }
+                }
+                invalidateCached(artwork.getId());
+                
+                // The buyer's debit checks their balance in the same statement
+                ledgerService.post(LedgerService.SALE, artwork.getId(),
+                        LedgerService.Leg.debit(newOwner.getId(), price),
+                        LedgerService.Leg.credit(sellerId, price));
+                return true;
+            });
+            if (!transferred) {
+                return false;
+            }
+        } catch (LedgerService.InsufficientBalanceException e) {
             return false;
         }
         
-        // Begin transaction
-        connection.setAutoCommit(false);
-        
-        try {
-            // Update artwork ownership
-            String updateArtworkSql = "UPDATE artwork SET owner_id = ?, price = ?, updated_at = ? WHERE id = ?";
-            try (PreparedStatement stmt = connection.prepareStatement(updateArtworkSql)) {
-                stmt.setInt(1, newOwner.getId());
-                stmt.setDouble(2, salePrice); // Update price to the sale price
-                stmt.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
-                stmt.setInt(4, artwork.getId());
-                stmt.executeUpdate();
-            }
-            
-            // Update balances
-            // Deduct from buyer
-            newOwner.setBalance(newOwner.getBalance().subtract(java.math.BigDecimal.valueOf(salePrice)));
-            userService.update(newOwner);
-            
-            // Add to seller
-            currentOwner.setBalance(currentOwner.getBalance().add(java.math.BigDecimal.valueOf(salePrice)));
-            userService.update(currentOwner);
-            
-            // Commit transaction
-            connection.commit();
-            
-            // Update the artwork object
-            artwork.setOwnerId(newOwner.getId());
-            artwork.setPrice(salePrice);
-            artwork.setUpdatedAt(LocalDateTime.now());
-            
-            return true;
-        } catch (Exception e) {
-            connection.rollback();
-            throw e;
-        } finally {
-            connection.setAutoCommit(true);
+        // Update the artwork object
+        artwork.setOwnerId(newOwner.getId());
+        artwork.setPrice(salePrice);
+        artwork.setUpdatedAt(LocalDateTime.now());
+        if (newOwner.getBalance() != null) {
+            newOwner.setBalance(newOwner.getBalance().subtract(price));
         }
+        
+        return true;
     }
     
     private Artwork mapResultSetToArtwork(ResultSet rs) throws SQLException {
@@ -0,0 +1,376 @@
+package org.esprit.services;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.esprit.utils.ConfigManager;
+import org.esprit.utils.DatabaseConnection;
+import org.esprit.utils.SqlUtils;
+import org.esprit.utils.TransactionManager;
+
+/**
+ * Settles completed bet sessions: the artwork goes to the highest bidder, the winning
+ * bid moves from the winner's balance to the seller's as a {@link LedgerService}
+ * transfer, and the holds of the losing bidders are released. A session whose winner
+ * can no longer pay, or whose artwork the seller no longer owns, is settled without a
+ * sale and every hold on it is released. A coordinator thread reads unsettled sessions
+ * in batches and
+ * finds their winners and holds with one query each per batch; the sessions of a
+ * batch are then settled concurrently on a worker pool, each in its own transaction,
+ * so a failure only rolls back and delays that session. Woken by
+ * {@link BetSessionService#completeSession}, and also polls as a safety net.
+ */
+public class AuctionSettlementPool {
+
+    private static AuctionSettlementPool instance;
+
+    private final int workerCount;
+    private final int batchSize;
+    private final long pollMillis;
+    private final long retryDelayMillis;
+    private final Semaphore wakeups = new Semaphore(0);
+    // Sessions whose settlement failed, with the time they may be read again
+    private final Map<Integer, Long> retryAt = new ConcurrentHashMap<>();
+    private final BalanceHoldService holdService = new BalanceHoldService();
+    private final LedgerService ledgerService = new LedgerService();
+    private ExecutorService workers;
+    private Thread coordinator;
+
+    private final LongAdder settled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder totalLagMillis = new LongAdder();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+    private final AtomicLong lastLagMillis = new AtomicLong();
+    private long startedAtMillis;
+
+    private AuctionSettlementPool() {
+        ConfigManager config = ConfigManager.getInstance();
+        workerCount = Integer.parseInt(config.getProperty("auction.settlement.workers", "4"));
+        batchSize = Integer.parseInt(config.getProperty("auction.settlement.batch.size", "100"));
+        pollMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(config.getProperty("auction.settlement.poll.seconds", "30")));
+        retryDelayMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(config.getProperty("auction.settlement.retry.seconds", "60")));
+    }
+
+    public static synchronized AuctionSettlementPool getInstance() {
+        if (instance == null) {
+            instance = new AuctionSettlementPool();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts the coordinator and worker threads. Calling it again has no effect.
+     */
+    public synchronized void start() {
+        if (coordinator != null) {
+            return;
+        }
+        startedAtMillis = System.currentTimeMillis();
+        AtomicInteger workerIndex = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "auction-settlement-" + workerIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        coordinator = new Thread(this::run, "auction-settlement");
+        coordinator.setDaemon(true);
+        coordinator.start();
+    }
+
+    /**
+     * Wakes the coordinator to read sessions that have just completed
+     */
+    public void wake() {
+        wakeups.release();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                // Drain full batches, then sleep until woken or the next poll
+                while (settleBatch() == batchSize) {
+                    // keep reading
+                }
+                wakeups.tryAcquire(pollMillis, TimeUnit.MILLISECONDS);
+                wakeups.drainPermits();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.err.println("Auction settlement error: " + e.getMessage());
+                e.printStackTrace();
+                try {
+                    wakeups.tryAcquire(pollMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one batch of unsettled sessions with their winners and holds, and settles
+     * them concurrently
+     * @return The number of sessions read
+     */
+    private int settleBatch() throws Exception {
+        long now = System.currentTimeMillis();
+        retryAt.values().removeIf(until -> until <= now);
+        List<Integer> excluded = new ArrayList<>(retryAt.keySet());
+
+        Map<Integer, Settlement> batch = new LinkedHashMap<>();
+        String sessionQuery = "SELECT id, author_id, artwork_id, end_time FROM bet_session " +
+                             "WHERE status = 'completed' AND settled_at IS NULL" +
+                             (excluded.isEmpty() ? "" : " AND id NOT IN (" + SqlUtils.placeholders(excluded.size()) + ")") +
+                             " ORDER BY end_time, id LIMIT ?";
+        try (Connection connection = DatabaseConnection.getInstance().getConnection()) {
+            try (PreparedStatement ps = connection.prepareStatement(sessionQuery)) {
+                int index = 1;
+                for (Integer id : excluded) {
+                    ps.setInt(index++, id);
+                }
+                ps.setInt(index, batchSize);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Settlement settlement = new Settlement(rs.getInt("id"), rs.getInt("author_id"),
+                                rs.getInt("artwork_id"), rs.getTimestamp("end_time").getTime());
+                        batch.put(settlement.sessionId, settlement);
+                    }
+                }
+            }
+            if (batch.isEmpty()) {
+                return 0;
+            }
+
+            // The highest bid of every session in the batch, in one pass over the bid index
+            for (List<Integer> chunk : SqlUtils.chunks(batch.keySet())) {
+                String winnerQuery = "SELECT bet_session_id, author_id, bid_value FROM (" +
+                                    "SELECT bet_session_id, author_id, bid_value, " +
+                                    "ROW_NUMBER() OVER (PARTITION BY bet_session_id ORDER BY bid_value DESC, id DESC) AS bid_rank " +
+                                    "FROM bid WHERE bet_session_id IN (" + SqlUtils.placeholders(chunk.size()) + ")) ranked " +
+                                    "WHERE bid_rank = 1";
+                try (PreparedStatement ps = connection.prepareStatement(winnerQuery)) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        ps.setInt(i + 1, chunk.get(i));
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            Settlement settlement = batch.get(rs.getInt("bet_session_id"));
+                            settlement.winnerId = rs.getInt("author_id");
+                            settlement.price = rs.getBigDecimal("bid_value");
+                        }
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Integer, List<BalanceHoldService.Hold>> holds
+                : holdService.getActiveHoldsBySessions(batch.keySet()).entrySet()) {
+            batch.get(holds.getKey()).holds = holds.getValue();
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>(batch.size());
+        for (Settlement settlement : batch.values()) {
+            tasks.add(() -> {
+                settleQuietly(settlement);
+                return null;
+            });
+        }
+        for (Future<Void> done : workers.invokeAll(tasks)) {
+            done.get();
+        }
+        return batch.size();
+    }
+
+    private void settleQuietly(Settlement settlement) {
+        try {
+            if (settle(settlement)) {
+                recordSettled(System.currentTimeMillis() - settlement.endMillis);
+            }
+        } catch (Exception e) {
+            failed.increment();
+            retryAt.put(settlement.sessionId, System.currentTimeMillis() + retryDelayMillis);
+            System.err.println("Failed to settle bet session " + settlement.sessionId + ", retrying later: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Settles one session in its own transaction
+     * @return false if another worker or process settled it first
+     */
+    private boolean settle(Settlement settlement) throws Exception {
+        return TransactionManager.inTransaction(TransactionManager.Propagation.REQUIRES_NEW, connection -> {
+            // Claims the session; a concurrent settler blocks here, then finds it settled
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "UPDATE bet_session SET settled_at = ? WHERE id = ? AND status = 'completed' AND settled_at IS NULL")) {
+                ps.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+                ps.setInt(2, settlement.sessionId);
+                if (ps.executeUpdate() == 0) {
+                    return false;
+                }
+            }
+
+            boolean sold = settlement.winnerId != null && settlement.winnerId != settlement.sellerId;
+            if (sold) {
+                // Locks the winner's row; a bid written without a hold may not be covered any more
+                BigDecimal available = holdService.getAvailableBalanceForUpdate(settlement.winnerId, settlement.sessionId);
+                if (available == null || available.compareTo(settlement.price) < 0) {
+                    System.err.println("Winner " + settlement.winnerId + " of bet session " + settlement.sessionId
+                            + " cannot cover " + settlement.price + ", settling without a sale");
+                    sold = false;
+                }
+            }
+            if (sold) {
+                // Unless the seller sold the artwork some other way during the auction
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "UPDATE artwork SET owner_id = ?, price = ?, updated_at = ? WHERE id = ? AND owner_id = ?")) {
+                    ps.setInt(1, settlement.winnerId);
+                    ps.setBigDecimal(2, settlement.price);
+                    ps.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+                    ps.setInt(4, settlement.artworkId);
+                    ps.setInt(5, settlement.sellerId);
+                    if (ps.executeUpdate() == 0) {
+                        System.err.println("Artwork " + settlement.artworkId + " of bet session " + settlement.sessionId
+                                + " is no longer owned by the seller, settling without a sale");
+                        sold = false;
+                    }
+                }
+            }
+
+            // Without a sale every hold is released, the winner's included
+            boolean captured = holdService.settleSessionHolds(settlement.sessionId, sold ? settlement.winnerId : null);
+            if (sold) {
+                // A captured hold was reserved for this; otherwise the balance was checked above
+                ledgerService.post(LedgerService.AUCTION_SETTLEMENT, settlement.sessionId,
+                        captured ? LedgerService.Leg.debitHeld(settlement.winnerId, settlement.price)
+                                 : LedgerService.Leg.debit(settlement.winnerId, settlement.price),
+                        LedgerService.Leg.credit(settlement.sellerId, settlement.price));
+                ArtworkService.invalidateCached(settlement.artworkId);
+            }
+
+            boolean buyerCaptured = sold && captured;
+            TransactionManager.afterCommit(() -> applyToLedger(settlement, buyerCaptured));
+            return true;
+        });
+    }
+
+    /**
+     * Brings the in-memory balances of everyone involved in line with the committed settlement
+     * @param captured Whether the winner paid from their hold; every other hold was released
+     */
+    private void applyToLedger(Settlement settlement, boolean captured) {
+        EscrowLedger ledger = EscrowLedger.getInstance();
+        for (BalanceHoldService.Hold hold : settlement.holds) {
+            if (!captured || hold.getUserId() != settlement.winnerId) {
+                ledger.release(hold.getUserId(), settlement.sessionId);
+                released.increment();
+            }
+        }
+        if (captured) {
+            ledger.capture(settlement.winnerId, settlement.sessionId);
+        }
+    }
+
+    private void recordSettled(long lagMillis) {
+        settled.increment();
+        totalLagMillis.add(lagMillis);
+        lastLagMillis.set(lagMillis);
+        maxLagMillis.accumulateAndGet(lagMillis, Math::max);
+    }
+
+    /**
+     * @return The number of sessions settled since the pool started
+     */
+    public long getSettledCount() {
+        return settled.sum();
+    }
+
+    /**
+     * @return The number of settlement attempts that rolled back
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * @return The number of losing bidders' holds released by settlements
+     */
+    public long getReleasedHoldCount() {
+        return released.sum();
+    }
+
+    /**
+     * @return Sessions settled per second since the pool started
+     */
+    public double getThroughputPerSecond() {
+        long elapsed = System.currentTimeMillis() - startedAtMillis;
+        return startedAtMillis == 0 || elapsed <= 0 ? 0 : settled.sum() * 1000.0 / elapsed;
+    }
+
+    /**
+     * @return Average time between a session's end time and its settlement, in milliseconds
+     */
+    public double getAverageLagMillis() {
+        long count = settled.sum();
+        return count == 0 ? 0 : (double) totalLagMillis.sum() / count;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    public long getLastLagMillis() {
+        return lastLagMillis.get();
+    }
+
+    /**
+     * @return The number of sessions waiting out a retry delay after a failed settlement
+     */
+    public int getRetryPendingCount() {
+        return retryAt.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("settled=%d failed=%d released=%d throughput=%.2f/s lag(avg=%.0fms, max=%dms, last=%dms) retryPending=%d",
+                getSettledCount(), getFailedCount(), getReleasedHoldCount(), getThroughputPerSecond(),
+                getAverageLagMillis(), getMaxLagMillis(), getLastLagMillis(), getRetryPendingCount());
+    }
+
+    /**
+     * A completed session read by the coordinator, with its winner and active holds
+     */
+    private static final class Settlement {
+        private final int sessionId;
+        private final int sellerId;
+        private final int artworkId;
+        private final long endMillis;
+        private Integer winnerId;
+        private BigDecimal price;
+        private List<BalanceHoldService.Hold> holds = Collections.emptyList();
+
+        private Settlement(int sessionId, int sellerId, int artworkId, long endMillis) {
+            this.sessionId = sessionId;
+            this.sellerId = sellerId;
+            this.artworkId = artworkId;
+            this.endMillis = endMillis;
+        }
+    }
+}
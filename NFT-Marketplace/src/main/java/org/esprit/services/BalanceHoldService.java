@@ -0,0 +1,217 @@
+package org.esprit.services;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.esprit.utils.DatabaseConnection;
+import org.esprit.utils.SqlUtils;
+import org.esprit.utils.TransactionManager;
+
+/**
+ * Stores the funds held for bids in balance_hold.
+ * A bet session has at most one held row, for its highest bidder: placing a higher
+ * bid releases the previous hold and holds the new amount. When the session is
+ * settled, the winner's hold is captured and the rest are released. A user's spendable
+ * balance is their balance minus everything they have held.
+ */
+public class BalanceHoldService {
+
+    private static final String RELEASE_SESSION_SQL =
+            "UPDATE balance_hold SET status = 'released', released_at = ? WHERE bet_session_id = ? AND status = 'held'";
+    private static final String INSERT_HOLD_SQL =
+            "INSERT INTO balance_hold (user_id, bet_session_id, bid_id, amount, status, created_at) VALUES (?, ?, ?, ?, 'held', ?)";
+
+    /**
+     * Makes the given hold the only one on its session
+     * @param hold The new highest bidder's hold
+     * @throws Exception If a database error occurs
+     */
+    public void replaceSessionHold(Hold hold) throws Exception {
+        replaceSessionHolds(Collections.singletonList(hold));
+    }
+
+    /**
+     * Makes each hold the only one on its session, with two JDBC batches
+     * @param holds At most one hold per session
+     * @throws Exception If a database error occurs; nothing is written in that case
+     */
+    public void replaceSessionHolds(Collection<Hold> holds) throws Exception {
+        if (holds.isEmpty()) {
+            return;
+        }
+        TransactionManager.inTransaction(connection -> {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            try (PreparedStatement ps = connection.prepareStatement(RELEASE_SESSION_SQL)) {
+                for (Hold hold : holds) {
+                    ps.setTimestamp(1, now);
+                    ps.setInt(2, hold.sessionId);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = connection.prepareStatement(INSERT_HOLD_SQL)) {
+                for (Hold hold : holds) {
+                    ps.setInt(1, hold.userId);
+                    ps.setInt(2, hold.sessionId);
+                    if (hold.bidId != null) {
+                        ps.setInt(3, hold.bidId);
+                    } else {
+                        ps.setNull(3, java.sql.Types.INTEGER);
+                    }
+                    ps.setBigDecimal(4, hold.amount);
+                    ps.setTimestamp(5, now);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Marks the winner's hold on a settled session as captured and releases every
+     * other hold on it. The caller moves the captured amount between balances.
+     * @param sessionId The bet session being settled
+     * @param winnerId The winning bidder, or null if nobody bid
+     * @return true if the winner had a hold on the session
+     * @throws Exception If a database error occurs
+     */
+    public boolean settleSessionHolds(int sessionId, Integer winnerId) throws Exception {
+        return TransactionManager.inTransaction(connection -> {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            boolean captured = false;
+            if (winnerId != null) {
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "UPDATE balance_hold SET status = 'captured', released_at = ? " +
+                        "WHERE bet_session_id = ? AND user_id = ? AND status = 'held'")) {
+                    ps.setTimestamp(1, now);
+                    ps.setInt(2, sessionId);
+                    ps.setInt(3, winnerId);
+                    captured = ps.executeUpdate() > 0;
+                }
+            }
+            try (PreparedStatement ps = connection.prepareStatement(RELEASE_SESSION_SQL)) {
+                ps.setTimestamp(1, now);
+                ps.setInt(2, sessionId);
+                ps.executeUpdate();
+            }
+            return captured;
+        });
+    }
+    
+    /**
+     * Reads the active holds of many sessions in one query per chunk of IDs
+     * @param sessionIds The bet session IDs
+     * @return The holds by session ID; sessions without holds are absent
+     * @throws SQLException If a database error occurs
+     */
+    public Map<Integer, List<Hold>> getActiveHoldsBySessions(Collection<Integer> sessionIds) throws SQLException {
+        Map<Integer, List<Hold>> holds = new HashMap<>();
+        try (Connection connection = DatabaseConnection.getInstance().getConnection()) {
+            for (List<Integer> chunk : SqlUtils.chunks(sessionIds)) {
+                String query = "SELECT user_id, bet_session_id, bid_id, amount FROM balance_hold " +
+                              "WHERE bet_session_id IN (" + SqlUtils.placeholders(chunk.size()) + ") AND status = 'held'";
+                try (PreparedStatement ps = connection.prepareStatement(query)) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        ps.setInt(i + 1, chunk.get(i));
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            int bidId = rs.getInt("bid_id");
+                            Hold hold = new Hold(rs.getInt("user_id"), rs.getInt("bet_session_id"),
+                                    rs.wasNull() ? null : bidId, rs.getBigDecimal("amount"));
+                            holds.computeIfAbsent(hold.sessionId, id -> new ArrayList<>()).add(hold);
+                        }
+                    }
+                }
+            }
+        }
+        return holds;
+    }
+
+    /**
+     * Reads what a user may still commit, locking their row so concurrent holds
+     * for the same user queue up behind the caller's transaction
+     * @param userId The user ID
+     * @param excludedSessionId A session whose hold is about to be replaced, so it does not count
+     * @return The balance minus the user's other holds, or null if the user does not exist
+     * @throws SQLException If a database error occurs
+     */
+    public BigDecimal getAvailableBalanceForUpdate(int userId, int excludedSessionId) throws SQLException {
+        String query = "SELECT u.balance - COALESCE((SELECT SUM(h.amount) FROM balance_hold h " +
+                      "WHERE h.user_id = u.id AND h.status = 'held' AND h.bet_session_id <> ?), 0) AS available " +
+                      "FROM user u WHERE u.id = ? FOR UPDATE";
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, excludedSessionId);
+            ps.setInt(2, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getBigDecimal("available") : null;
+            }
+        }
+    }
+
+    /**
+     * @param userId The user ID
+     * @return The user's active holds
+     * @throws SQLException If a database error occurs
+     */
+    public List<Hold> getActiveHolds(int userId) throws SQLException {
+        List<Hold> holds = new ArrayList<>();
+        String query = "SELECT bet_session_id, bid_id, amount FROM balance_hold WHERE user_id = ? AND status = 'held'";
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int bidId = rs.getInt("bid_id");
+                    holds.add(new Hold(userId, rs.getInt("bet_session_id"), rs.wasNull() ? null : bidId, rs.getBigDecimal("amount")));
+                }
+            }
+        }
+        return holds;
+    }
+
+    /**
+     * Funds held by one user for one bet session
+     */
+    public static final class Hold {
+        private final int userId;
+        private final int sessionId;
+        private final Integer bidId;
+        private final BigDecimal amount;
+
+        public Hold(int userId, int sessionId, Integer bidId, BigDecimal amount) {
+            this.userId = userId;
+            this.sessionId = sessionId;
+            this.bidId = bidId;
+            this.amount = amount;
+        }
+
+        public int getUserId() {
+            return userId;
+        }
+
+        public int getSessionId() {
+            return sessionId;
+        }
+
+        public Integer getBidId() {
+            return bidId;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+    }
+}
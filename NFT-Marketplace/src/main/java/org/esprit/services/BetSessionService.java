@@ -8,21 +8,35 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.esprit.models.Artwork;
 import org.esprit.models.BetSession;
 import org.esprit.models.User;
+import org.esprit.utils.Cursor;
 import org.esprit.utils.DatabaseConnection;
+import org.esprit.utils.KeysetPaginator;
+import org.esprit.utils.Page;
+import org.esprit.utils.Sort;
+import org.esprit.utils.SqlUtils;
+import org.esprit.utils.TransactionManager;
 
 public class BetSessionService {
+    private static final KeysetPaginator<BetSession> PAGINATOR = new KeysetPaginator<BetSession>("id", BetSession::getId)
+        .sortable("createdAt", "created_at", BetSession::getCreatedAt)
+        .sortable("endTime", "end_time", BetSession::getEndTime)
+        .sortable("currentPrice", "current_price", BetSession::getCurrentPrice);
     
-    private Connection connection;
     private UserService userService;
     private ArtworkService artworkService;
     
     public BetSessionService() {
-        connection = DatabaseConnection.getInstance().getConnection();
         userService = new UserService();
         artworkService = new ArtworkService();
     }
@@ -41,7 +55,8 @@ public class BetSessionService {
         
         String query = "INSERT INTO bet_session (author_id, artwork_id, created_at, start_time, end_time, initial_price, current_price, status, mysterious_mode, generated_description, number_of_bids) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
         
-        try (PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
             ps.setInt(1, betSession.getAuthor().getId());
             ps.setInt(2, betSession.getArtwork().getId());
             ps.setTimestamp(3, Timestamp.valueOf(betSession.getCreatedAt()));
@@ -68,6 +83,8 @@ public class BetSessionService {
                 }
             }
         }
+        
+        DeadlineScheduler.getInstance().scheduleBetSession(betSession);
     }    public void updateBetSession(BetSession betSession) throws SQLException {
         // If mysterious mode is enabled but no description exists, generate one
         if (betSession.isMysteriousMode() && (betSession.getGeneratedDescription() == null || betSession.getGeneratedDescription().isEmpty())) {
@@ -80,22 +97,21 @@ public class BetSessionService {
             }
         }
 
+        // Price, bid count and status belong to bidding and the deadline transitions,
+        // so an edit made while bids come in cannot overwrite them
         String query = "UPDATE bet_session SET author_id = ?, artwork_id = ?, start_time = ?, end_time = ?, " +
-                       "initial_price = ?, current_price = ?, status = ?, number_of_bids = ?, " + 
-                       "mysterious_mode = ?, generated_description = ? WHERE id = ?";
+                       "initial_price = ?, mysterious_mode = ?, generated_description = ? WHERE id = ?";
         
-        try (PreparedStatement ps = connection.prepareStatement(query)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
             ps.setInt(1, betSession.getAuthor().getId());
             ps.setInt(2, betSession.getArtwork().getId());
             ps.setTimestamp(3, Timestamp.valueOf(betSession.getStartTime()));
             ps.setTimestamp(4, Timestamp.valueOf(betSession.getEndTime()));
             ps.setDouble(5, betSession.getInitialPrice());
-            ps.setDouble(6, betSession.getCurrentPrice());
-            ps.setString(7, betSession.getStatus());
-            ps.setInt(8, betSession.getNumberOfBids());
-            ps.setBoolean(9, betSession.isMysteriousMode());
-            ps.setString(10, betSession.getGeneratedDescription());
-            ps.setInt(11, betSession.getId());
+            ps.setBoolean(6, betSession.isMysteriousMode());
+            ps.setString(7, betSession.getGeneratedDescription());
+            ps.setInt(8, betSession.getId());
             
             int affectedRows = ps.executeUpdate();
             
@@ -103,70 +119,146 @@ public class BetSessionService {
                 throw new SQLException("Updating bet session failed, no rows affected.");
             }
         }
+        
+        // Start or end time may have moved
+        DeadlineScheduler.getInstance().scheduleBetSession(betSession);
     }
     
     public void deleteBetSession(int id) throws SQLException {
         String query = "DELETE FROM bet_session WHERE id = ?";
         
-        try (PreparedStatement ps = connection.prepareStatement(query)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
             ps.setInt(1, id);
             ps.executeUpdate();
         }
+        
+        DeadlineScheduler.getInstance().cancelBetSession(id);
     }
     
     public BetSession getOne(int id) throws SQLException, Exception {
-        String query = "SELECT * FROM bet_session WHERE id = ?";
-        
-        try (PreparedStatement ps = connection.prepareStatement(query)) {
-            ps.setInt(1, id);
-            
-            ResultSet rs = ps.executeQuery();
+        List<BetSession> betSessions = queryBetSessions("SELECT * FROM bet_session WHERE id = ?", id);
+        return betSessions.isEmpty() ? null : betSessions.get(0);
+    }
+    
+    /**
+     * Loads several bet sessions with one query per {@link SqlUtils#MAX_IN_LIST_SIZE} ids
+     * @param ids The bet session IDs to load; duplicates are ignored
+     * @return The bet sessions found, keyed by ID
+     * @throws SQLException If a database error occurs
+     */
+    public Map<Integer, BetSession> getByIds(Collection<Integer> ids) throws SQLException, Exception {
+        return getByIds(ids, new HashMap<>());
+    }
+    
+    /**
+     * Loads several bet sessions, reusing users the caller has already loaded as authors
+     * @param ids The bet session IDs to load; duplicates are ignored
+     * @param knownUsers Users already in memory, keyed by ID; newly loaded authors are added to it
+     * @return The bet sessions found, keyed by ID
+     * @throws SQLException If a database error occurs
+     */
+    public Map<Integer, BetSession> getByIds(Collection<Integer> ids, Map<Integer, User> knownUsers) throws SQLException, Exception {
+        List<BetSessionRow> rows = new ArrayList<>();
+        for (List<Integer> chunk : SqlUtils.chunks(new LinkedHashSet<>(ids))) {
+            String query = "SELECT * FROM bet_session WHERE id IN (" + SqlUtils.placeholders(chunk.size()) + ")";
             
-            if (rs.next()) {
-                return extractBetSessionFromResultSet(rs);
+            try (Connection connection = DatabaseConnection.getInstance().getConnection();
+                 PreparedStatement ps = connection.prepareStatement(query)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    ps.setInt(i + 1, chunk.get(i));
+                }
+                
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(extractBetSessionFromResultSet(rs));
+                    }
+                }
             }
         }
         
-        return null;
+        Map<Integer, BetSession> betSessions = new HashMap<>();
+        for (BetSession betSession : hydrate(rows, knownUsers)) {
+            betSessions.put(betSession.getId(), betSession);
+        }
+        return betSessions;
     }
     
     public List<BetSession> getAllBetSessions() throws SQLException, Exception {
-        List<BetSession> betSessions = new ArrayList<>();
+        List<BetSessionRow> rows = new ArrayList<>();
         String query = "SELECT * FROM bet_session ORDER BY created_at DESC";
         
-        try (Statement stmt = connection.createStatement();
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(query)) {
             
             while (rs.next()) {
-                betSessions.add(extractBetSessionFromResultSet(rs));
+                rows.add(extractBetSessionFromResultSet(rs));
             }
 
         }
         
-        return betSessions;
+        return hydrate(rows, new HashMap<>());
     }
     
     /**
-     * Retrieves all bet sessions associated with a specific author (user)
-     * @param authorId The ID of the author/user
-     * @return List of bet sessions created by the specified author
+     * Lists bet sessions one page at a time with keyset pagination
+     * @param after The previous page's cursor, or null for the first page
+     * @param size The maximum number of bet sessions to return
+     * @param sort The order; null sorts by id ascending
+     * @return The page, with authors and artworks hydrated
      * @throws SQLException If a database error occurs
      */
-    public List<BetSession> getSessionsByAuthor(int authorId) throws SQLException, Exception {
-        String query = "SELECT * FROM bet_session WHERE author_id = ?";
-        List<BetSession> betSessions = new ArrayList<>();
+    public Page<BetSession> page(Cursor after, int size, Sort sort) throws SQLException, Exception {
+        List<BetSessionRow> rows = new ArrayList<>();
+        String query = "SELECT * FROM bet_session" + PAGINATOR.clause(after, sort, false);
         
-        try (PreparedStatement ps = connection.prepareStatement(query)) {
-            ps.setInt(1, authorId);
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            PAGINATOR.bind(ps, 1, after, size);
             
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    betSessions.add(extractBetSessionFromResultSet(rs));
+                    rows.add(extractBetSessionFromResultSet(rs));
                 }
             }
         }
         
-        return betSessions;
+        return PAGINATOR.toPage(hydrate(rows, new HashMap<>()), size, sort);
+    }
+    
+    /**
+     * Retrieves the bet sessions created after a given time, newest first
+     * @param cutoff Only sessions created strictly after this time are returned
+     * @return The hydrated bet sessions
+     * @throws SQLException If a database error occurs
+     */
+    public List<BetSession> getSessionsCreatedAfter(LocalDateTime cutoff) throws SQLException, Exception {
+        List<BetSessionRow> rows = new ArrayList<>();
+        String query = "SELECT * FROM bet_session WHERE created_at > ? ORDER BY created_at DESC";
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setTimestamp(1, Timestamp.valueOf(cutoff));
+            
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(extractBetSessionFromResultSet(rs));
+                }
+            }
+        }
+        
+        return hydrate(rows, new HashMap<>());
+    }
+    
+    /**
+     * Retrieves all bet sessions associated with a specific author (user)
+     * @param authorId The ID of the author/user
+     * @return List of bet sessions created by the specified author
+     * @throws SQLException If a database error occurs
+     */
+    public List<BetSession> getSessionsByAuthor(int authorId) throws SQLException, Exception {
+        return queryBetSessions("SELECT * FROM bet_session WHERE author_id = ?", authorId);
     }
     
     /**
@@ -176,35 +268,77 @@ public class BetSessionService {
      * @throws SQLException If a database error occurs
      */
     public List<BetSession> getActiveSessionsNotByAuthor(int authorId) throws SQLException, Exception {
-        String query = "SELECT * FROM bet_session WHERE author_id != ? AND status = 'active'";
-        List<BetSession> betSessions = new ArrayList<>();
+        return queryBetSessions("SELECT * FROM bet_session WHERE author_id != ? AND status = 'active'", authorId);
+    }
+    
+    /**
+     * Runs a bet session query with a single int parameter and hydrates the results
+     * @param query The SELECT on the bet_session table
+     * @param param The value bound to the query's only placeholder
+     * @return The hydrated bet sessions, in query order
+     * @throws SQLException If a database error occurs
+     */
+    private List<BetSession> queryBetSessions(String query, int param) throws SQLException, Exception {
+        List<BetSessionRow> rows = new ArrayList<>();
         
-        try (PreparedStatement ps = connection.prepareStatement(query)) {
-            ps.setInt(1, authorId);
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, param);
             
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    betSessions.add(extractBetSessionFromResultSet(rs));
+                    rows.add(extractBetSessionFromResultSet(rs));
                 }
             }
         }
         
+        return hydrate(rows, new HashMap<>());
+    }
+    
+    /**
+     * Resolves the authors and artworks of freshly read rows with one IN query each.
+     * Sessions sharing an author or artwork share the same instance.
+     * @param rows The rows read from bet_session
+     * @param knownUsers Users already in memory, keyed by ID; only missing authors are queried
+     * @return The hydrated bet sessions, in row order
+     * @throws SQLException If a database error occurs
+     */
+    private List<BetSession> hydrate(List<BetSessionRow> rows, Map<Integer, User> knownUsers) throws SQLException, Exception {
+        List<BetSession> betSessions = new ArrayList<>(rows.size());
+        if (rows.isEmpty()) {
+            return betSessions;
+        }
+        
+        Set<Integer> authorIds = new HashSet<>();
+        Set<Integer> artworkIds = new HashSet<>();
+        for (BetSessionRow row : rows) {
+            if (!knownUsers.containsKey(row.authorId)) {
+                authorIds.add(row.authorId);
+            }
+            artworkIds.add(row.artworkId);
+        }
+        
+        if (!authorIds.isEmpty()) {
+            knownUsers.putAll(userService.getByIds(authorIds));
+        }
+        Map<Integer, Artwork> artworks = artworkService.getByIds(artworkIds);
+        
+        for (BetSessionRow row : rows) {
+            row.betSession.setAuthor(knownUsers.get(row.authorId));
+            row.betSession.setArtwork(artworks.get(row.artworkId));
+            // Bids accepted in memory may not be flushed yet
+            BidEngine.applyLiveState(row.betSession);
+            betSessions.add(row.betSession);
+        }
+        
         return betSessions;
     }
     
-    private BetSession extractBetSessionFromResultSet(ResultSet rs) throws SQLException, Exception {
+    private BetSessionRow extractBetSessionFromResultSet(ResultSet rs) throws SQLException {
         BetSession betSession = new BetSession();
         
         betSession.setId(rs.getInt("id"));
         
-        // Load author from UserService
-        User author = userService.getOne(rs.getInt("author_id"));
-        betSession.setAuthor(author);
-        
-        // Load artwork from ArtworkService
-        Artwork artwork = artworkService.getOne(rs.getInt("artwork_id"));
-        betSession.setArtwork(artwork);
-        
         // Convert Timestamp to LocalDateTime
         Timestamp createdAtTimestamp = rs.getTimestamp("created_at");
         if (createdAtTimestamp != null) {
@@ -235,25 +369,71 @@ public class BetSessionService {
         // Retrieve the number_of_bids field
         betSession.setNumberOfBids(rs.getInt("number_of_bids"));
         
-        return betSession;
+        // Highest bid, denormalized on the row
+        int highestBidId = rs.getInt("highest_bid_id");
+        if (!rs.wasNull()) {
+            betSession.setHighestBidId(highestBidId);
+            betSession.setHighestBidValue(rs.getDouble("highest_bid_value"));
+            betSession.setHighestBidderId(rs.getInt("highest_bidder_id"));
+        }
+        
+        // Author and artwork are resolved in bulk by hydrate()
+        return new BetSessionRow(betSession, rs.getInt("author_id"), rs.getInt("artwork_id"));
     }
     
-    // Method to automatically update the status of bet sessions based on time
-    public void updateSessionStatuses() throws SQLException {
-        LocalDateTime now = LocalDateTime.now();
+    /**
+     * A bet session read from the database whose author and artwork are not loaded yet
+     */
+    private static class BetSessionRow {
+        private final BetSession betSession;
+        private final int authorId;
+        private final int artworkId;
         
-        // Update pending sessions to active if current time is after start time
-        String activateQuery = "UPDATE bet_session SET status = 'active' WHERE status = 'pending' AND start_time <= ?";
-        try (PreparedStatement ps = connection.prepareStatement(activateQuery)) {
-            ps.setTimestamp(1, Timestamp.valueOf(now));
-            ps.executeUpdate();
+        private BetSessionRow(BetSession betSession, int authorId, int artworkId) {
+            this.betSession = betSession;
+            this.authorId = authorId;
+            this.artworkId = artworkId;
         }
-        
-        // Update active sessions to completed if current time is after end time
-        String completeQuery = "UPDATE bet_session SET status = 'completed' WHERE status = 'active' AND end_time <= ?";
-        try (PreparedStatement ps = connection.prepareStatement(completeQuery)) {
-            ps.setTimestamp(1, Timestamp.valueOf(now));
-            ps.executeUpdate();
+    }
+    
+    /**
+     * Moves a pending session to active once its start time has passed
+     * @param id The bet session ID
+     * @return true if the session was activated
+     * @throws SQLException If a database error occurs
+     */
+    public boolean activateSession(int id) throws SQLException {
+        String query = "UPDATE bet_session SET status = 'active' WHERE id = ? AND status = 'pending' AND start_time <= ?";
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, id);
+            ps.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
+            return ps.executeUpdate() > 0;
         }
     }
+    
+    /**
+     * Moves an active session to completed once its end time has passed, and hands it
+     * to the {@link AuctionSettlementPool}. Bids the engine accepted for the session are
+     * written first, so settlement sees the final winner.
+     * @param id The bet session ID
+     * @return true if the session was completed
+     * @throws Exception If the pending bids could not be written or a database error occurs
+     */
+    public boolean completeSession(int id) throws Exception {
+        BidEngine.flushSession(id);
+        
+        return TransactionManager.inTransaction(connection -> {
+            String query = "UPDATE bet_session SET status = 'completed' WHERE id = ? AND status = 'active' AND end_time <= ?";
+            try (PreparedStatement ps = connection.prepareStatement(query)) {
+                ps.setInt(1, id);
+                ps.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
+                if (ps.executeUpdate() == 0) {
+                    return false;
+                }
+            }
+            TransactionManager.afterCommit(() -> AuctionSettlementPool.getInstance().wake());
+            return true;
+        });
+    }
 }
@@ -0,0 +1,628 @@
+package org.esprit.services;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.esprit.models.BetSession;
+import org.esprit.utils.BidJournal;
+import org.esprit.utils.ConfigManager;
+import org.esprit.utils.DatabaseConnection;
+
+/**
+ * Accepts bids in memory, one single-writer book per active bet session.
+ * Each book has a mailbox drained by one task at a time on a shared pool, so its
+ * high bid and ladder are only ever touched by one thread and need no locks.
+ * Accepted bids are appended to a {@link BidJournal} before they are acknowledged,
+ * then written behind in batches: one transaction per session inserts the bids,
+ * raises the session price, holds the highest bidder's funds and advances the
+ * checkpoint kept for this journal's ID. Funds are reserved in the {@link EscrowLedger}
+ * as bids are accepted, and the outbid bidder's reservation is released at the same
+ * time. {@link #start()} replays journaled bids past the checkpoint, then rebuilds
+ * state from the database; replayed bids for a session closed in the meantime are
+ * dropped by the same check as any flush, so they never hold funds.
+ * A book only sees the bids of its own process, so each flush checks its bids again
+ * against the locked session rows: a bid that another client outbid in the meantime
+ * is not written, it is reported to the {@link LostBidListener} and the book re-reads
+ * the session. Because such a bid was already acknowledged, the engine only runs
+ * where bid.engine.enabled is set, which should be the one process taking bids;
+ * everywhere else {@link #isRunning()} is false and bids go through
+ * {@link BidService#placeBid}.
+ */
+public class BidEngine {
+
+    private static final int LADDER_DEPTH = 20;
+    // Commands one book runs before yielding its pool thread to other books
+    private static final int MAILBOX_BURST = 64;
+
+    private static BidEngine instance;
+
+    private final Map<Integer, SessionBook> books = new ConcurrentHashMap<>();
+    private final AtomicInteger unflushedCount = new AtomicInteger();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final ExecutorService actors;
+    private final ScheduledExecutorService flusher;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long flushMillis;
+    private final BidService bidService = new BidService();
+    private final EscrowLedger ledger = EscrowLedger.getInstance();
+    // Sequences of bids accepted but not yet flushed; the journal checkpoint stays below the lowest
+    private final ConcurrentSkipListSet<Long> pendingSequences = new ConcurrentSkipListSet<>();
+    private final Object sequenceLock = new Object();
+    private long lastSequence;
+    private BidJournal journal;
+    private String journalId;
+    private volatile boolean started;
+    private volatile LostBidListener lostBidListener = BidEngine::logLostBid;
+
+    private BidEngine() {
+        ConfigManager config = ConfigManager.getInstance();
+        enabled = Boolean.parseBoolean(config.getProperty("bid.engine.enabled", "false"));
+        batchSize = Integer.parseInt(config.getProperty("bid.engine.batch.size", "200"));
+        flushMillis = Long.parseLong(config.getProperty("bid.engine.flush.ms", "50"));
+        int actorThreads = Integer.parseInt(config.getProperty("bid.engine.threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        AtomicInteger actorIndex = new AtomicInteger();
+        actors = Executors.newFixedThreadPool(actorThreads, runnable -> {
+            Thread thread = new Thread(runnable, "bid-engine-" + actorIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bid-engine-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static synchronized BidEngine getInstance() {
+        if (instance == null) {
+            instance = new BidEngine();
+        }
+        return instance;
+    }
+
+    /**
+     * Replays journaled bids that never reached the database, rebuilds the books of
+     * all active sessions from the database and starts the write-behind flusher.
+     * Does nothing unless bid.engine.enabled is set, and nothing when called again.
+     * @throws Exception If the journal cannot be replayed or the recovery queries fail
+     */
+    public synchronized void start() throws Exception {
+        if (started) {
+            return;
+        }
+        if (!enabled) {
+            System.out.println("Bid engine disabled; bids are written directly");
+            return;
+        }
+        replayJournal();
+        recover();
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly, "bid-engine-shutdown-flush"));
+        started = true;
+    }
+
+    /**
+     * @return true if this process takes bids through the engine; otherwise they must
+     *         be placed with {@link BidService#placeBid}
+     */
+    public static boolean isRunning() {
+        BidEngine engine;
+        synchronized (BidEngine.class) {
+            engine = instance;
+        }
+        return engine != null && engine.started;
+    }
+
+    /**
+     * Replaces the listener told about acknowledged bids that were outbid by another
+     * client before they could be written; it is called on the flusher thread
+     * @param listener The listener, or null to only log them
+     */
+    public void setLostBidListener(LostBidListener listener) {
+        lostBidListener = listener != null ? listener : BidEngine::logLostBid;
+    }
+
+    /**
+     * Submits a bid to its session's book
+     * @param sessionId The bet session ID
+     * @param userId The bidder's user ID
+     * @param amount The bid amount
+     * @return Completes once the bid is accepted in memory, or exceptionally with a
+     *         {@link BidRejectedException} explaining why it was not
+     */
+    public CompletableFuture<Void> submit(int sessionId, int userId, double amount) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (!started) {
+            result.completeExceptionally(new IllegalStateException("Bid engine is not started"));
+            return result;
+        }
+        SessionBook book;
+        try {
+            book = bookFor(sessionId);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        if (book == null) {
+            result.completeExceptionally(new BidRejectedException("This bet session is not open for bids."));
+            return result;
+        }
+        book.tell(() -> book.accept(userId, amount, result));
+        return result;
+    }
+
+    /**
+     * Copies the live price and bid count of a session held by the engine onto a
+     * session read from the database, which may lag by up to one flush
+     * @param betSession The session to update in place
+     */
+    public static void applyLiveState(BetSession betSession) {
+        BidEngine engine;
+        synchronized (BidEngine.class) {
+            engine = instance;
+        }
+        if (engine == null) {
+            return;
+        }
+        SessionBook book = engine.books.get(betSession.getId());
+        if (book != null && book.highBid > betSession.getCurrentPrice()) {
+            betSession.setCurrentPrice(book.highBid);
+            betSession.setNumberOfBids(book.numberOfBids);
+        }
+    }
+
+    /**
+     * Writes the accepted bids of one session now, e.g. before the session is completed.
+     * Does nothing if the engine holds no book for the session.
+     * @param sessionId The bet session ID
+     * @throws Exception If the bids could not be written; they are kept for the next flush
+     */
+    public static void flushSession(int sessionId) throws Exception {
+        BidEngine engine;
+        synchronized (BidEngine.class) {
+            engine = instance;
+        }
+        if (engine != null) {
+            engine.flushBook(sessionId);
+        }
+    }
+
+    private synchronized void flushBook(int sessionId) throws Exception {
+        SessionBook book = books.get(sessionId);
+        if (book != null) {
+            flush(book);
+        }
+    }
+
+    /**
+     * Reads a session's ladder through its mailbox, so it sees every bid accepted before the call
+     * @param sessionId The bet session ID
+     * @return The highest bid amounts, highest first; empty if the engine holds no book for the session
+     */
+    public CompletableFuture<List<Double>> getLadder(int sessionId) {
+        SessionBook book = books.get(sessionId);
+        if (book == null) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        CompletableFuture<List<Double>> result = new CompletableFuture<>();
+        book.tell(() -> {
+            List<Double> amounts = new ArrayList<>(book.ladder.size());
+            for (BidJournal.Entry bid : book.ladder) {
+                amounts.add(bid.getValue());
+            }
+            result.complete(amounts);
+        });
+        return result;
+    }
+
+    /**
+     * @return The number of accepted bids not yet written to the database
+     */
+    public int getUnflushedCount() {
+        return unflushedCount.get();
+    }
+
+    private SessionBook bookFor(int sessionId) throws SQLException {
+        SessionBook book = books.get(sessionId);
+        if (book != null) {
+            return book;
+        }
+        // A session that became active after recovery; load it on first bid
+        Map<Integer, SessionBook> loaded = loadBooks("s.id = ?", sessionId);
+        SessionBook fresh = loaded.get(sessionId);
+        if (fresh == null) {
+            return null;
+        }
+        SessionBook existing = books.putIfAbsent(sessionId, fresh);
+        return existing != null ? existing : fresh;
+    }
+
+    /**
+     * Writes the journaled bids past the database checkpoint, then opens a fresh
+     * journal segment and drops the replayed ones
+     */
+    private void replayJournal() throws Exception {
+        ConfigManager config = ConfigManager.getInstance();
+        Path directory = Paths.get(config.getProperty("bid.journal.dir", "journal"));
+        journalId = BidJournal.journalId(directory);
+        long checkpoint = bidService.getJournalCheckpoint(journalId);
+
+        List<BidJournal.Entry> unflushed = new ArrayList<>();
+        long highest = BidJournal.replay(directory, checkpoint, unflushed::add);
+        if (!unflushed.isEmpty()) {
+            List<BidJournal.Entry> lost = bidService.persistBatch(unflushed, journalId, highest);
+            System.out.println("Bid engine replayed " + unflushed.size() + " journaled bid(s) into the database, "
+                    + lost.size() + " of them lost");
+            for (BidJournal.Entry bid : lost) {
+                lostBidListener.bidLost(bid);
+            }
+        }
+        lastSequence = highest;
+
+        journal = new BidJournal(directory,
+                Long.parseLong(config.getProperty("bid.journal.segment.bytes", "67108864")),
+                Long.parseLong(config.getProperty("bid.journal.sync.ms", "10")));
+        journal.deleteSegmentsBefore(journal.getSegmentIndex());
+    }
+
+    private void recover() throws SQLException {
+        Map<Integer, SessionBook> recovered = loadBooks("s.status = 'active'", null);
+        books.putAll(recovered);
+        System.out.println("Bid engine recovered " + recovered.size() + " active bet session(s)");
+    }
+
+    /**
+     * Loads books for the active sessions matching the condition, with their top bids
+     * as the ladder, in two queries whatever the number of sessions
+     */
+    private Map<Integer, SessionBook> loadBooks(String condition, Integer param) throws SQLException {
+        Map<Integer, SessionBook> loaded = new HashMap<>();
+        String sessionQuery = "SELECT s.id, s.current_price, s.number_of_bids, s.end_time, s.highest_bidder_id FROM bet_session s " +
+                             "WHERE s.status = 'active' AND " + condition;
+        String ladderQuery = "SELECT bet_session_id, author_id, bid_value, bid_time FROM (" +
+                            "SELECT b.*, ROW_NUMBER() OVER (PARTITION BY b.bet_session_id ORDER BY b.bid_value DESC, b.id DESC) AS bid_rank " +
+                            "FROM bid b JOIN bet_session s ON s.id = b.bet_session_id " +
+                            "WHERE s.status = 'active' AND " + condition + ") ranked " +
+                            "WHERE bid_rank <= ? ORDER BY bet_session_id, bid_value DESC";
+
+        try (Connection connection = DatabaseConnection.getInstance().getConnection()) {
+            try (PreparedStatement ps = connection.prepareStatement(sessionQuery)) {
+                if (param != null) {
+                    ps.setInt(1, param);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        SessionBook book = new SessionBook(rs.getInt("id"));
+                        book.highBid = rs.getDouble("current_price");
+                        book.numberOfBids = rs.getInt("number_of_bids");
+                        book.endMillis = rs.getTimestamp("end_time").getTime();
+                        int highBidderId = rs.getInt("highest_bidder_id");
+                        book.highBidderId = rs.wasNull() ? null : highBidderId;
+                        loaded.put(book.sessionId, book);
+                    }
+                }
+            }
+            try (PreparedStatement ps = connection.prepareStatement(ladderQuery)) {
+                int index = 1;
+                if (param != null) {
+                    ps.setInt(index++, param);
+                }
+                ps.setInt(index, LADDER_DEPTH);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        SessionBook book = loaded.get(rs.getInt("bet_session_id"));
+                        if (book != null) {
+                            // Rows come highest first, so appending keeps the ladder ordered
+                            book.ladder.addLast(new BidJournal.Entry(0, book.sessionId, rs.getInt("author_id"),
+                                    rs.getDouble("bid_value"), rs.getTimestamp("bid_time").getTime()));
+                        }
+                    }
+                }
+            }
+        }
+        return loaded;
+    }
+
+    private void requestFlush() {
+        if (flushQueued.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+
+    private synchronized void flushQuietly() {
+        flushQueued.set(false);
+        for (SessionBook book : books.values()) {
+            try {
+                flush(book);
+            } catch (Exception e) {
+                System.err.println("Failed to flush bids of bet session " + book.sessionId + ", retrying: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes a session's accepted bids in one transaction, together with the journal
+     * checkpoint; on failure they are kept for the next flush
+     */
+    private void flush(SessionBook book) throws Exception {
+        List<BidJournal.Entry> batch = new ArrayList<>();
+        BidJournal.Entry pending;
+        while ((pending = book.unflushed.poll()) != null) {
+            batch.add(pending);
+        }
+        if (batch.isEmpty()) {
+            retireIfEnded(book);
+            return;
+        }
+
+        Set<Long> batchSequences = new HashSet<>();
+        for (BidJournal.Entry bid : batch) {
+            batchSequences.add(bid.getSequence());
+        }
+
+        long checkpoint = checkpointAfter(batchSequences);
+        List<BidJournal.Entry> lost;
+        try {
+            lost = bidService.persistBatch(batch, journalId, checkpoint);
+        } catch (Exception e) {
+            book.unflushed.addAll(batch);
+            throw e;
+        }
+
+        pendingSequences.removeAll(batchSequences);
+        unflushedCount.addAndGet(-batch.size());
+        if (!lost.isEmpty()) {
+            resolveLostBids(book, lost);
+        }
+        // The batch is committed; a segment left behind is only replayed against the checkpoint
+        try {
+            journal.truncate(checkpoint);
+        } catch (Exception e) {
+            System.err.println("Failed to truncate the bid journal up to " + checkpoint + ": " + e.getMessage());
+        }
+        retireIfEnded(book);
+    }
+
+    /**
+     * Reports bids the database did not take and brings the book back in line with
+     * the session row, keeping bids accepted since that are not written yet
+     */
+    private void resolveLostBids(SessionBook book, List<BidJournal.Entry> lost) {
+        for (BidJournal.Entry bid : lost) {
+            try {
+                lostBidListener.bidLost(bid);
+            } catch (RuntimeException e) {
+                System.err.println("Lost bid listener failed: " + e.getMessage());
+            }
+        }
+        SessionBook stored;
+        try {
+            stored = loadBooks("s.id = ?", book.sessionId).get(book.sessionId);
+        } catch (SQLException e) {
+            System.err.println("Failed to reload bet session " + book.sessionId + " after lost bids: " + e.getMessage());
+            stored = null;
+        }
+        SessionBook current = stored;
+        book.tell(() -> book.resync(current, lost));
+    }
+
+    private static void logLostBid(BidJournal.Entry bid) {
+        System.err.println("Bid of " + bid.getValue() + " by user " + bid.getAuthorId() + " on bet session "
+                + bid.getSessionId() + " was lost: the session moved past it or the bidder could not cover it");
+    }
+
+    /**
+     * The highest sequence below which every bid is in the database once the batch commits
+     */
+    private long checkpointAfter(Set<Long> batchSequences) {
+        synchronized (sequenceLock) {
+            for (Long sequence : pendingSequences) {
+                if (!batchSequences.contains(sequence)) {
+                    return sequence - 1;
+                }
+            }
+            return lastSequence;
+        }
+    }
+
+    private void retireIfEnded(SessionBook book) {
+        if (book.endMillis <= System.currentTimeMillis() && book.unflushed.isEmpty() && book.mailbox.isEmpty()) {
+            books.remove(book.sessionId, book);
+        }
+    }
+
+    /**
+     * The in-memory state of one bet session. Fields other than the queues are only
+     * written by the book's own mailbox task.
+     */
+    private final class SessionBook {
+        private final int sessionId;
+        private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final Queue<BidJournal.Entry> unflushed = new ConcurrentLinkedQueue<>();
+        // Highest bids first, capped at LADDER_DEPTH
+        private final Deque<BidJournal.Entry> ladder = new ArrayDeque<>();
+        private volatile double highBid;
+        private volatile int numberOfBids;
+        private long endMillis;
+        private Integer highBidderId;
+
+        private SessionBook(int sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        private void tell(Runnable command) {
+            mailbox.add(command);
+            schedule();
+        }
+
+        private void schedule() {
+            if (draining.compareAndSet(false, true)) {
+                actors.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            Runnable command;
+            int ran = 0;
+            while (ran < MAILBOX_BURST && (command = mailbox.poll()) != null) {
+                command.run();
+                ran++;
+            }
+            draining.set(false);
+            // A command may have arrived after the last poll
+            if (!mailbox.isEmpty()) {
+                schedule();
+            }
+        }
+
+        /**
+         * Takes the stored state of the session, unless a bid accepted since still
+         * beats it, and frees the funds reserved for the lost bids
+         * @param stored The session as just read, or null if it is no longer active
+         * @param lost The bids the database did not take
+         */
+        private void resync(SessionBook stored, List<BidJournal.Entry> lost) {
+            if (stored == null) {
+                // Closed elsewhere; refuse further bids and retire once flushed
+                endMillis = 0;
+            } else {
+                BidJournal.Entry top = null;
+                int pending = 0;
+                for (BidJournal.Entry bid : unflushed) {
+                    pending++;
+                    if (top == null || bid.getValue() > top.getValue()) {
+                        top = bid;
+                    }
+                }
+                numberOfBids = stored.numberOfBids + pending;
+                if (top != null && top.getValue() > stored.highBid) {
+                    highBid = top.getValue();
+                    highBidderId = top.getAuthorId();
+                } else {
+                    highBid = stored.highBid;
+                    highBidderId = stored.highBidderId;
+                    if (highBidderId != null) {
+                        // Released in memory when the lost bid outbid it
+                        ledger.restore(highBidderId, sessionId, BigDecimal.valueOf(stored.highBid));
+                    }
+                }
+                List<BidJournal.Entry> merged = new ArrayList<>(stored.ladder);
+                merged.addAll(unflushed);
+                merged.sort((a, b) -> Double.compare(b.getValue(), a.getValue()));
+                ladder.clear();
+                for (BidJournal.Entry bid : merged) {
+                    if (ladder.size() == LADDER_DEPTH) {
+                        break;
+                    }
+                    ladder.addLast(bid);
+                }
+            }
+            for (BidJournal.Entry bid : lost) {
+                if (highBidderId == null || highBidderId != bid.getAuthorId()) {
+                    ledger.release(bid.getAuthorId(), sessionId);
+                }
+            }
+        }
+
+        private void accept(int userId, double amount, CompletableFuture<Void> result) {
+            try {
+                if (endMillis <= System.currentTimeMillis()) {
+                    result.completeExceptionally(new BidRejectedException("This bet session has ended."));
+                    return;
+                }
+                if (amount <= highBid) {
+                    result.completeExceptionally(new BidRejectedException("Bid must be higher than the current price."));
+                    return;
+                }
+                EscrowLedger.Reservation reservation = ledger.reserve(userId, sessionId, BigDecimal.valueOf(amount));
+                if (reservation == null) {
+                    result.completeExceptionally(new BidRejectedException("Insufficient balance to place this bid."));
+                    return;
+                }
+
+                BidJournal.Entry bid;
+                synchronized (sequenceLock) {
+                    bid = new BidJournal.Entry(++lastSequence, sessionId, userId, amount, System.currentTimeMillis());
+                    pendingSequences.add(bid.getSequence());
+                }
+                try {
+                    // Durable before it is acknowledged
+                    journal.append(bid);
+                } catch (IOException e) {
+                    pendingSequences.remove(bid.getSequence());
+                    ledger.cancel(reservation);
+                    throw e;
+                }
+
+                if (highBidderId != null && highBidderId != userId) {
+                    ledger.release(highBidderId, sessionId);
+                }
+                highBidderId = userId;
+                highBid = amount;
+                numberOfBids++;
+                ladder.addFirst(bid);
+                if (ladder.size() > LADDER_DEPTH) {
+                    ladder.removeLast();
+                }
+                unflushed.add(bid);
+                if (unflushedCount.incrementAndGet() >= batchSize) {
+                    requestFlush();
+                }
+                result.complete(null);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Told about a bid that was acknowledged but not written, because another client
+     * raised the session past it or closed the session first, or because the bidder's
+     * stored balance no longer covered it
+     */
+    @FunctionalInterface
+    public interface LostBidListener {
+        void bidLost(BidJournal.Entry bid);
+    }
+
+    /**
+     * A bid the engine refused; the message is meant for the bidder
+     */
+    public static class BidRejectedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public BidRejectedException(String message) {
+            super(message);
+        }
+    }
+}
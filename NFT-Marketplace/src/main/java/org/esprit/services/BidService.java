@@ -1,67 +1,284 @@
 package org.esprit.services;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.esprit.models.BetSession;
 import org.esprit.models.Bid;
 import org.esprit.models.User;
+import org.esprit.utils.BidJournal;
 import org.esprit.utils.DatabaseConnection;
+import org.esprit.utils.ResultStreamer;
+import org.esprit.utils.TransactionManager;
 
 public class BidService {
+    // Rows hydrated together while streaming
+    private static final int STREAM_BATCH_SIZE = 500;
     
-    private Connection connection;
     private UserService userService;
     private BetSessionService betSessionService;
+    private BalanceHoldService holdService;
     
     public BidService() {
-        connection = DatabaseConnection.getInstance().getConnection();
         userService = new UserService();
         betSessionService = new BetSessionService();
+        holdService = new BalanceHoldService();
     }
     
     /**
-     * Adds a new bid to the database
-     * @param bid The bid to add
-     * @throws SQLException If a database error occurs
+     * Places a bid atomically: raises the session price, records the bid and holds the
+     * amount against the bidder's balance in one transaction, releasing the hold of the
+     * bidder it outbids. The price check is part of the UPDATE itself and the bidder's
+     * row is locked while their free balance is checked, so concurrent bidders cannot
+     * both win the same price level or commit the same balance twice. The balance is
+     * only debited when the session completes.
+     * @param sessionId The bet session ID
+     * @param userId The bidder's user ID
+     * @param amount The bid amount, which must exceed the current price
+     * @return The ID of the new bid
+     * @throws Exception If the session is not active, the bid is too low, the balance is
+     *         insufficient, or a database error occurs; nothing is written in that case
      */
-    public void addBid(Bid bid) throws SQLException, Exception {
-        String query = "INSERT INTO bid (bid_value, bid_time, bet_session_id, author_id) VALUES (?, ?, ?, ?)";
+    public int placeBid(int sessionId, int userId, double amount) throws Exception {
+        EscrowLedger ledger = EscrowLedger.getInstance();
+        BigDecimal held = BigDecimal.valueOf(amount);
+        // Fails fast in memory, under the bidder's stripe only
+        EscrowLedger.Reservation reservation = ledger.reserve(userId, sessionId, held);
+        if (reservation == null) {
+            throw new Exception("Insufficient balance to place this bid.");
+        }
         
-        try (PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
-            ps.setDouble(1, bid.getBidValue());
-            ps.setTimestamp(2, Timestamp.valueOf(bid.getBidTime()));
-            ps.setInt(3, bid.getBetSession().getId());
-            ps.setInt(4, bid.getAuthor().getId());
-            
-            int affectedRows = ps.executeUpdate();
-            
-            if (affectedRows == 0) {
-                throw new SQLException("Creating bid failed, no rows affected.");
+        try {
+            return TransactionManager.inTransaction(connection -> {
+                // Locks the session row, so the price and highest bidder cannot move before our write
+                Integer outbidUserId = null;
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "SELECT highest_bidder_id FROM bet_session WHERE id = ? FOR UPDATE")) {
+                    ps.setInt(1, sessionId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            int highestBidderId = rs.getInt("highest_bidder_id");
+                            outbidUserId = rs.wasNull() ? null : highestBidderId;
+                        }
+                    }
+                }
+                
+                int bidId;
+                String insertQuery = "INSERT INTO bid (bid_value, bid_time, bet_session_id, author_id) VALUES (?, ?, ?, ?)";
+                try (PreparedStatement ps = connection.prepareStatement(insertQuery, Statement.RETURN_GENERATED_KEYS)) {
+                    ps.setDouble(1, amount);
+                    ps.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
+                    ps.setInt(3, sessionId);
+                    ps.setInt(4, userId);
+                    ps.executeUpdate();
+                    
+                    try (ResultSet generatedKeys = ps.getGeneratedKeys()) {
+                        if (!generatedKeys.next()) {
+                            throw new SQLException("Creating bid failed, no ID obtained.");
+                        }
+                        bidId = generatedKeys.getInt(1);
+                    }
+                }
+                
+                // The new bid becomes the session's highest in the same write
+                String raiseQuery = "UPDATE bet_session SET current_price = ?, number_of_bids = number_of_bids + 1, " +
+                                   "highest_bid_id = ?, highest_bid_value = ?, highest_bidder_id = ? " +
+                                   "WHERE id = ? AND status = 'active' AND current_price < ?";
+                try (PreparedStatement ps = connection.prepareStatement(raiseQuery)) {
+                    ps.setDouble(1, amount);
+                    ps.setInt(2, bidId);
+                    ps.setDouble(3, amount);
+                    ps.setInt(4, userId);
+                    ps.setInt(5, sessionId);
+                    ps.setDouble(6, amount);
+                    if (ps.executeUpdate() == 0) {
+                        throw new Exception("Bid must be higher than the current price of an active session.");
+                    }
+                }
+                
+                // The ledger may be behind a change made by another process
+                BigDecimal available = holdService.getAvailableBalanceForUpdate(userId, sessionId);
+                if (available == null || available.compareTo(held) < 0) {
+                    throw new Exception("Insufficient balance to place this bid.");
+                }
+                holdService.replaceSessionHold(new BalanceHoldService.Hold(userId, sessionId, bidId, held));
+                
+                if (outbidUserId != null && outbidUserId != userId) {
+                    int outbid = outbidUserId;
+                    TransactionManager.afterCommit(() -> ledger.release(outbid, sessionId));
+                }
+                return bidId;
+            });
+        } catch (Exception e) {
+            ledger.cancel(reservation);
+            throw e;
+        }
+    }
+    
+    /**
+     * Writes bids accepted ahead of the database in one transaction. Each session row
+     * is locked and every bid is checked against it again, in journal order: a bid
+     * only stands if the session is still active and the bid beats its price, which
+     * another client may have raised since the bid was accepted in memory, and the
+     * highest bid only if its bidder's free balance in the database covers it. Bids
+     * that stand are inserted, the session takes the highest one and only then does
+     * that bidder's hold replace the previous one; sessions where nothing stands keep
+     * their leader's hold. The journal checkpoint is advanced in the same
+     * transaction, so a bid is either resolved and checkpointed or replayed again.
+     * @param entries The bids, for any number of sessions
+     * @param journalId The journal the bids were read from, see {@link BidJournal#journalId}
+     * @param checkpoint Every sequence of that journal up to this one is resolved once this commits
+     * @return The bids that were not written, because they no longer beat the session
+     *         or their bidder could not cover them
+     * @throws Exception If a database error occurs; nothing is written in that case
+     */
+    public List<BidJournal.Entry> persistBatch(List<BidJournal.Entry> entries, String journalId, long checkpoint) throws Exception {
+        // Sessions in ID order, so concurrent batches lock them in the same order
+        Map<Integer, List<BidJournal.Entry>> sessions = new TreeMap<>();
+        for (BidJournal.Entry entry : entries) {
+            sessions.computeIfAbsent(entry.getSessionId(), id -> new ArrayList<>()).add(entry);
+        }
+        // In the order the bids were accepted: a batch put back after a failed flush
+        // can follow bids accepted since, which are higher
+        for (List<BidJournal.Entry> sessionEntries : sessions.values()) {
+            sessionEntries.sort(Comparator.comparingLong(BidJournal.Entry::getSequence));
+        }
+        
+        return TransactionManager.inTransaction(connection -> {
+            List<BidJournal.Entry> lost = new ArrayList<>();
+            List<BidJournal.Entry> standing = new ArrayList<>();
+            Map<Integer, Integer> highestIndex = new LinkedHashMap<>();
+            Map<Integer, Integer> standingCounts = new HashMap<>();
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "SELECT status, current_price FROM bet_session WHERE id = ? FOR UPDATE")) {
+                for (Map.Entry<Integer, List<BidJournal.Entry>> session : sessions.entrySet()) {
+                    ps.setInt(1, session.getKey());
+                    boolean open = false;
+                    double price = 0;
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            open = "active".equals(rs.getString("status"));
+                            price = rs.getDouble("current_price");
+                        }
+                    }
+                    List<BidJournal.Entry> sessionStanding = new ArrayList<>();
+                    for (BidJournal.Entry entry : session.getValue()) {
+                        if (open && entry.getValue() > price) {
+                            price = entry.getValue();
+                            sessionStanding.add(entry);
+                        } else {
+                            lost.add(entry);
+                        }
+                    }
+                    // Only the highest bid is held, so only its bidder must cover it; the
+                    // ledger may be behind a change made by another process, as in placeBid
+                    while (!sessionStanding.isEmpty()) {
+                        BidJournal.Entry highest = sessionStanding.get(sessionStanding.size() - 1);
+                        BigDecimal available = holdService.getAvailableBalanceForUpdate(highest.getAuthorId(), session.getKey());
+                        if (available != null && available.compareTo(BigDecimal.valueOf(highest.getValue())) >= 0) {
+                            break;
+                        }
+                        lost.add(sessionStanding.remove(sessionStanding.size() - 1));
+                    }
+                    if (!sessionStanding.isEmpty()) {
+                        standing.addAll(sessionStanding);
+                        highestIndex.put(session.getKey(), standing.size() - 1);
+                        standingCounts.put(session.getKey(), sessionStanding.size());
+                    }
+                }
             }
             
-            try (ResultSet generatedKeys = ps.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    bid.setId(generatedKeys.getInt(1));
-                } else {
-                    throw new SQLException("Creating bid failed, no ID obtained.");
+            int[] bidIds = new int[standing.size()];
+            if (!standing.isEmpty()) {
+                String insertQuery = "INSERT INTO bid (bid_value, bid_time, bet_session_id, author_id) VALUES (?, ?, ?, ?)";
+                try (PreparedStatement ps = connection.prepareStatement(insertQuery, Statement.RETURN_GENERATED_KEYS)) {
+                    for (BidJournal.Entry entry : standing) {
+                        ps.setDouble(1, entry.getValue());
+                        ps.setTimestamp(2, new Timestamp(entry.getTimeMillis()));
+                        ps.setInt(3, entry.getSessionId());
+                        ps.setInt(4, entry.getAuthorId());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                    
+                    // Keys come back in batch order
+                    try (ResultSet generatedKeys = ps.getGeneratedKeys()) {
+                        for (int i = 0; i < bidIds.length; i++) {
+                            if (!generatedKeys.next()) {
+                                throw new SQLException("Creating bids failed, not every ID was obtained.");
+                            }
+                            bidIds[i] = generatedKeys.getInt(1);
+                        }
+                    }
+                }
+                
+                // The rows are locked and each highest bid beat them, so this cannot lower anything
+                String raiseQuery = "UPDATE bet_session SET current_price = ?, highest_bid_id = ?, highest_bid_value = ?, " +
+                                   "highest_bidder_id = ?, number_of_bids = number_of_bids + ? WHERE id = ?";
+                try (PreparedStatement ps = connection.prepareStatement(raiseQuery)) {
+                    for (Map.Entry<Integer, Integer> session : highestIndex.entrySet()) {
+                        BidJournal.Entry highest = standing.get(session.getValue());
+                        ps.setDouble(1, highest.getValue());
+                        ps.setInt(2, bidIds[session.getValue()]);
+                        ps.setDouble(3, highest.getValue());
+                        ps.setInt(4, highest.getAuthorId());
+                        ps.setInt(5, standingCounts.get(session.getKey()));
+                        ps.setInt(6, session.getKey());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+                
+                List<BalanceHoldService.Hold> holds = new ArrayList<>(highestIndex.size());
+                for (Map.Entry<Integer, Integer> session : highestIndex.entrySet()) {
+                    BidJournal.Entry highest = standing.get(session.getValue());
+                    holds.add(new BalanceHoldService.Hold(highest.getAuthorId(), session.getKey(),
+                            bidIds[session.getValue()], BigDecimal.valueOf(highest.getValue())));
                 }
+                holdService.replaceSessionHolds(holds);
             }
-              // Update the current price and increment the number of bids in the bet session
-            BetSession session = bid.getBetSession();
-            session.setCurrentPrice(bid.getBidValue());
             
-            // Increment the number of bids
-            int currentBids = session.getNumberOfBids();
-            session.setNumberOfBids(currentBids + 1);
-            
-            betSessionService.updateBetSession(session);
+            String checkpointQuery = "INSERT INTO bid_journal_checkpoint (journal_id, last_sequence, updated_at) VALUES (?, ?, ?) " +
+                                    "ON DUPLICATE KEY UPDATE last_sequence = GREATEST(last_sequence, VALUES(last_sequence)), " +
+                                    "updated_at = VALUES(updated_at)";
+            try (PreparedStatement ps = connection.prepareStatement(checkpointQuery)) {
+                ps.setString(1, journalId);
+                ps.setLong(2, checkpoint);
+                ps.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+                ps.executeUpdate();
+            }
+            return lost;
+        });
+    }
+    
+    /**
+     * @param journalId The journal, see {@link BidJournal#journalId}
+     * @return The highest sequence of that journal known to be stored, or 0 if none is
+     * @throws SQLException If a database error occurs
+     */
+    public long getJournalCheckpoint(String journalId) throws SQLException {
+        String query = "SELECT last_sequence FROM bid_journal_checkpoint WHERE journal_id = ?";
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setString(1, journalId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong("last_sequence") : 0;
+            }
         }
     }
     
@@ -72,19 +289,8 @@ public class BidService {
      * @throws SQLException If a database error occurs
      */
     public Bid getBid(int id) throws SQLException, Exception {
-        String query = "SELECT * FROM bid WHERE id = ?";
-        
-        try (PreparedStatement ps = connection.prepareStatement(query)) {
-            ps.setInt(1, id);
-            
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return extractBidFromResultSet(rs);
-                }
-            }
-        }
-        
-        return null;
+        List<Bid> bids = queryBids("SELECT * FROM bid WHERE id = ?", id);
+        return bids.isEmpty() ? null : bids.get(0);
     }
     
     /**
@@ -94,20 +300,7 @@ public class BidService {
      * @throws SQLException If a database error occurs
      */
     public List<Bid> getBidsByBetSession(int betSessionId) throws SQLException, Exception {
-        String query = "SELECT * FROM bid WHERE bet_session_id = ? ORDER BY bid_time DESC";
-        List<Bid> bids = new ArrayList<>();
-        
-        try (PreparedStatement ps = connection.prepareStatement(query)) {
-            ps.setInt(1, betSessionId);
-            
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    bids.add(extractBidFromResultSet(rs));
-                }
-            }
-        }
-        
-        return bids;
+        return queryBids("SELECT * FROM bid WHERE bet_session_id = ? ORDER BY bid_time DESC", betSessionId);
     }
     
     /**
@@ -117,20 +310,7 @@ public class BidService {
      * @throws SQLException If a database error occurs
      */
     public List<Bid> getBidsByUser(int userId) throws SQLException, Exception {
-        String query = "SELECT * FROM bid WHERE author_id = ? ORDER BY bid_time DESC";
-        List<Bid> bids = new ArrayList<>();
-        
-        try (PreparedStatement ps = connection.prepareStatement(query)) {
-            ps.setInt(1, userId);
-            
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    bids.add(extractBidFromResultSet(rs));
-                }
-            }
-        }
-        
-        return bids;
+        return queryBids("SELECT * FROM bid WHERE author_id = ? ORDER BY bid_time DESC", userId);
     }
     
     /**
@@ -140,28 +320,101 @@ public class BidService {
      * @throws SQLException If a database error occurs
      */
     public Bid getHighestBidForBetSession(int betSessionId) throws SQLException, Exception {
-        String query = "SELECT * FROM bid WHERE bet_session_id = ? ORDER BY bid_value DESC LIMIT 1";
+        // Two primary key lookups through the denormalized pointer, instead of a sort over the session's bids
+        List<Bid> bids = queryBids("SELECT b.* FROM bet_session s JOIN bid b ON b.id = s.highest_bid_id WHERE s.id = ?", betSessionId);
+        return bids.isEmpty() ? null : bids.get(0);
+    }
+    
+    /**
+     * Reads every bid through a server-side cursor, without holding them all in memory.
+     * Rows are hydrated in batches, so sessions and authors are still fetched in bulk.
+     * @param handler Receives each hydrated bid, in id order
+     * @return The number of bids read
+     * @throws Exception If a database error occurs or the handler fails
+     */
+    public long stream(ResultStreamer.RowHandler<Bid> handler) throws Exception {
+        List<BidRow> batch = new ArrayList<>(STREAM_BATCH_SIZE);
+        long count = ResultStreamer.stream("SELECT * FROM bid ORDER BY id", this::extractBidFromResultSet, row -> {
+            batch.add(row);
+            if (batch.size() == STREAM_BATCH_SIZE) {
+                flush(batch, handler);
+            }
+        });
+        flush(batch, handler);
+        return count;
+    }
+    
+    private void flush(List<BidRow> batch, ResultStreamer.RowHandler<Bid> handler) throws Exception {
+        for (Bid bid : hydrate(batch)) {
+            handler.handle(bid);
+        }
+        batch.clear();
+    }
+    
+    /**
+     * Runs a bid query with a single int parameter and hydrates the results.
+     * Bet sessions and authors are fetched in bulk once all rows are read, instead of
+     * one lookup per row, and every bid pointing at the same session or user shares the instance.
+     * @param query The SELECT on the bid table
+     * @param param The value bound to the query's only placeholder
+     * @return The hydrated bids, in query order
+     * @throws SQLException If a database error occurs
+     */
+    private List<Bid> queryBids(String query, int param) throws SQLException, Exception {
+        List<BidRow> rows = new ArrayList<>();
         
-        try (PreparedStatement ps = connection.prepareStatement(query)) {
-            ps.setInt(1, betSessionId);
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, param);
             
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return extractBidFromResultSet(rs);
+                while (rs.next()) {
+                    rows.add(extractBidFromResultSet(rs));
                 }
             }
         }
         
-        return null;
+        return hydrate(rows);
+    }
+    
+    private List<Bid> hydrate(List<BidRow> rows) throws SQLException, Exception {
+        List<Bid> bids = new ArrayList<>(rows.size());
+        if (rows.isEmpty()) {
+            return bids;
+        }
+        
+        Set<Integer> betSessionIds = new HashSet<>();
+        Set<Integer> authorIds = new HashSet<>();
+        for (BidRow row : rows) {
+            betSessionIds.add(row.betSessionId);
+            authorIds.add(row.authorId);
+        }
+        
+        // Session authors land in the same map, so bidders we already have are not fetched again
+        Map<Integer, User> authors = new HashMap<>();
+        Map<Integer, BetSession> betSessions = betSessionService.getByIds(betSessionIds, authors);
+        
+        authorIds.removeAll(authors.keySet());
+        if (!authorIds.isEmpty()) {
+            authors.putAll(userService.getByIds(authorIds));
+        }
+        
+        for (BidRow row : rows) {
+            row.bid.setBetSession(betSessions.get(row.betSessionId));
+            row.bid.setAuthor(authors.get(row.authorId));
+            bids.add(row.bid);
+        }
+        
+        return bids;
     }
     
     /**
-     * Extracts a Bid object from a ResultSet
+     * Extracts a Bid from a ResultSet, keeping the foreign keys for bulk hydration
      * @param rs The ResultSet containing bid data
-     * @return A Bid object
+     * @return The bid with its unresolved bet session and author IDs
      * @throws SQLException If a database error occurs
      */
-    private Bid extractBidFromResultSet(ResultSet rs) throws SQLException, Exception {
+    private BidRow extractBidFromResultSet(ResultSet rs) throws SQLException {
         Bid bid = new Bid();
         
         bid.setId(rs.getInt("id"));
@@ -172,14 +425,21 @@ public class BidService {
             bid.setBidTime(bidTimeTimestamp.toLocalDateTime());
         }
         
-        // Load bet session from BetSessionService
-        BetSession betSession = betSessionService.getOne(rs.getInt("bet_session_id"));
-        bid.setBetSession(betSession);
-        
-        // Load author from UserService
-        User author = userService.getOne(rs.getInt("author_id"));
-        bid.setAuthor(author);
+        return new BidRow(bid, rs.getInt("bet_session_id"), rs.getInt("author_id"));
+    }
+    
+    /**
+     * A bid read from the database whose bet session and author are not loaded yet
+     */
+    private static class BidRow {
+        private final Bid bid;
+        private final int betSessionId;
+        private final int authorId;
         
-        return bid;
+        private BidRow(Bid bid, int betSessionId, int authorId) {
+            this.bid = bid;
+            this.betSessionId = betSessionId;
+            this.authorId = authorId;
+        }
     }
 }
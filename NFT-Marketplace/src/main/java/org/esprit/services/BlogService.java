@@ -4,24 +4,30 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Statement;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.esprit.models.Blog;
 import org.esprit.models.User;
+import org.esprit.utils.Cursor;
 import org.esprit.utils.DatabaseConnection;
+import org.esprit.utils.KeysetPaginator;
+import org.esprit.utils.Page;
 import org.esprit.utils.ProfanityFilter;
+import org.esprit.utils.Sort;
 
 public class BlogService implements IService<Blog> {
-    
-    private Connection connection;
-    private UserService userService;
-    
-    public BlogService() {
-        connection = DatabaseConnection.getInstance().getConnection();
-        userService = new UserService();
-    }
-      @Override
+    private static final KeysetPaginator<Blog> PAGINATOR = new KeysetPaginator<Blog>("b.id", Blog::getId)
+        .sortable("date", "b.date", Blog::getDate)
+        .sortable("title", "b.title", Blog::getTitle);
+
+    // Blog columns plus the author projection shown in feeds
+    private static final String FEED_SELECT =
+        "SELECT b.*, u.name AS author_name, u.profile_picture AS author_profile_picture " +
+        "FROM blog b JOIN user u ON u.id = b.user_id ";
+
+    @Override
     public void add(Blog blog) throws Exception {
         // Filter profanity from blog title and content before saving
         String filteredTitle = ProfanityFilter.filterText(blog.getTitle());
@@ -33,7 +39,8 @@ public class BlogService implements IService<Blog> {
                     "translated_content, translation_language, image_filename) " +
                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
                     
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setInt(1, blog.getUser().getId());
             stmt.setString(2, blog.getTitle());
             stmt.setString(3, blog.getTranslatedTitle());
@@ -64,7 +71,8 @@ public class BlogService implements IService<Blog> {
                     "content = ?, date = ?, translated_content = ?, translation_language = ?, " +
                     "image_filename = ? WHERE id = ?";
                     
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, blog.getUser().getId());
             stmt.setString(2, blog.getTitle());
             stmt.setString(3, blog.getTranslatedTitle());
@@ -83,7 +91,8 @@ public class BlogService implements IService<Blog> {
     public void delete(Blog blog) throws Exception {
         String sql = "DELETE FROM blog WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, blog.getId());
             stmt.executeUpdate();
         }
@@ -92,9 +101,10 @@ public class BlogService implements IService<Blog> {
     @Override
     public List<Blog> getAll() throws Exception {
         List<Blog> blogs = new ArrayList<>();
-        String sql = "SELECT * FROM blog ORDER BY date DESC";
+        String sql = FEED_SELECT + "ORDER BY b.date DESC";
         
-        try (Statement stmt = connection.createStatement();
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             
             while (rs.next()) {
@@ -105,15 +115,35 @@ public class BlogService implements IService<Blog> {
         return blogs;
     }
     
+    @Override
+    public Page<Blog> page(Cursor after, int size, Sort sort) throws Exception {
+        List<Blog> blogs = new ArrayList<>();
+        String sql = FEED_SELECT + PAGINATOR.clause(after, sort, false);
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            PAGINATOR.bind(stmt, 1, after, size);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    blogs.add(mapResultSetToBlog(rs));
+                }
+            }
+        }
+        
+        return PAGINATOR.toPage(blogs, size, sort);
+    }
+    
     @Override
     public Blog getOne(int id) throws Exception {
         return getById(id);
     }
     
     public Blog getById(int id) throws Exception {
-        String sql = "SELECT * FROM blog WHERE id = ?";
+        String sql = FEED_SELECT + "WHERE b.id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, id);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -128,9 +158,10 @@ public class BlogService implements IService<Blog> {
     
     public List<Blog> getByUser(User user) throws Exception {
         List<Blog> blogs = new ArrayList<>();
-        String sql = "SELECT * FROM blog WHERE user_id = ? ORDER BY date DESC";
+        String sql = FEED_SELECT + "WHERE b.user_id = ? ORDER BY b.date DESC";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, user.getId());
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -143,13 +174,50 @@ public class BlogService implements IService<Blog> {
         return blogs;
     }
 
+    /**
+     * Retrieves one page of the blog feed, newest first.
+     * Pages are keyed on (date, id) rather than OFFSET, so page N costs the same as page 1.
+     * @param afterDate Date of the last blog on the previous page, or null for the first page
+     * @param afterId ID of the last blog on the previous page, or null for the first page
+     * @param pageSize Maximum number of blogs to return
+     * @return The blogs of the page, each with a lightweight author (id, name, profile picture)
+     * @throws Exception If a database error occurs
+     */
+    public List<Blog> getFeedPage(LocalDate afterDate, Integer afterId, int pageSize) throws Exception {
+        List<Blog> blogs = new ArrayList<>();
+        boolean firstPage = afterDate == null || afterId == null;
+        String sql = FEED_SELECT +
+                    (firstPage ? "" : "WHERE (b.date < ? OR (b.date = ? AND b.id < ?)) ") +
+                    "ORDER BY b.date DESC, b.id DESC LIMIT ?";
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int index = 1;
+            if (!firstPage) {
+                stmt.setDate(index++, java.sql.Date.valueOf(afterDate));
+                stmt.setDate(index++, java.sql.Date.valueOf(afterDate));
+                stmt.setInt(index++, afterId);
+            }
+            stmt.setInt(index, pageSize);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    blogs.add(mapResultSetToBlog(rs));
+                }
+            }
+        }
+        
+        return blogs;
+    }
+
     public List<Blog> search(String searchText) throws Exception {
         List<Blog> blogs = new ArrayList<>();
-        String sql = "SELECT * FROM blog WHERE LOWER(title) LIKE ? OR LOWER(content) LIKE ? " +
-                    "OR EXISTS (SELECT 1 FROM user WHERE id = blog.user_id AND LOWER(name) LIKE ?) " +
-                    "ORDER BY date DESC";
+        String sql = FEED_SELECT + "WHERE LOWER(b.title) LIKE ? OR LOWER(b.content) LIKE ? " +
+                    "OR LOWER(u.name) LIKE ? " +
+                    "ORDER BY b.date DESC";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             String searchPattern = "%" + searchText.toLowerCase() + "%";
             stmt.setString(1, searchPattern);
             stmt.setString(2, searchPattern);
@@ -176,9 +244,11 @@ public class BlogService implements IService<Blog> {
         blog.setImageFilename(rs.getString("image_filename"));
         blog.setTranslationLanguage(rs.getString("translation_language"));
         
-        // Get the user from UserService
-        int userId = rs.getInt("user_id");
-        User user = userService.getById(userId);
+        // Author projection comes from the join; the feed only needs id, name and avatar
+        User user = new User();
+        user.setId(rs.getInt("user_id"));
+        user.setName(rs.getString("author_name"));
+        user.setProfilePicture(rs.getString("author_profile_picture"));
         blog.setUser(user);
         
         return blog;
@@ -9,15 +9,19 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.esprit.models.Category;
+import org.esprit.utils.Cursor;
 import org.esprit.utils.DatabaseConnection;
+import org.esprit.utils.EntityCache;
+import org.esprit.utils.KeysetPaginator;
+import org.esprit.utils.Page;
+import org.esprit.utils.Sort;
+import org.esprit.utils.TransactionManager;
 
 public class CategoryService implements IService<Category> {
-    
-    private Connection connection;
-    
-    public CategoryService() {
-        connection = DatabaseConnection.getInstance().getConnection();
-    }
+    private static final KeysetPaginator<Category> PAGINATOR = new KeysetPaginator<Category>("id", Category::getId)
+        .sortable("name", "name", Category::getName);
+    // Categories by ID, shared by every CategoryService
+    private static final EntityCache<Integer, Category> CACHE = EntityCache.named("category", Category::copy);
     
     @Override
     public void add(Category category) throws Exception {
@@ -27,7 +31,8 @@ public class CategoryService implements IService<Category> {
         String sql = "INSERT INTO category (manager_id, name, type, description, allowed_mime_types) " +
                      "VALUES (?, ?, ?, ?, ?)";
                      
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setInt(1, category.getManagerId());
             stmt.setString(2, category.getName());
             stmt.setString(3, category.getType());
@@ -65,7 +70,8 @@ public class CategoryService implements IService<Category> {
         String sql = "UPDATE category SET manager_id = ?, name = ?, type = ?, description = ?, " +
                      "allowed_mime_types = ? WHERE id = ?";
                      
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, category.getManagerId());
             stmt.setString(2, category.getName());
             stmt.setString(3, category.getType());
@@ -88,16 +94,19 @@ public class CategoryService implements IService<Category> {
             
             stmt.executeUpdate();
         }
+        invalidateCached(category.getId());
     }
     
     @Override
     public void delete(Category category) throws Exception {
         String sql = "DELETE FROM category WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, category.getId());
             stmt.executeUpdate();
         }
+        invalidateCached(category.getId());
     }
     
     @Override
@@ -105,7 +114,8 @@ public class CategoryService implements IService<Category> {
         List<Category> categories = new ArrayList<>();
         String sql = "SELECT * FROM category";
         
-        try (Statement stmt = connection.createStatement();
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             
             while (rs.next()) {
@@ -116,15 +126,54 @@ public class CategoryService implements IService<Category> {
         return categories;
     }
     
+    @Override
+    public Page<Category> page(Cursor after, int size, Sort sort) throws Exception {
+        List<Category> categories = new ArrayList<>();
+        String sql = "SELECT * FROM category" + PAGINATOR.clause(after, sort, false);
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            PAGINATOR.bind(stmt, 1, after, size);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    categories.add(mapResultSetToCategory(rs));
+                }
+            }
+        }
+        
+        return PAGINATOR.toPage(categories, size, sort);
+    }
+    
     @Override
     public Category getOne(int id) throws Exception {
         return getById(id);
     }
     
+    /**
+     * Served from the category cache when possible
+     * @param id The category ID
+     * @return The category, or null if there is none; a copy the caller may change
+     * @throws Exception If a database error occurs
+     */
     public Category getById(int id) throws Exception {
+        return CACHE.get(id, this::loadById);
+    }
+    
+    /**
+     * Drops a category from the cache, now and once the calling thread's transaction commits
+     * @param categoryId The category ID
+     */
+    private static void invalidateCached(int categoryId) {
+        CACHE.invalidate(categoryId);
+        TransactionManager.afterCommit(() -> CACHE.invalidate(categoryId));
+    }
+    
+    private Category loadById(int id) throws Exception {
         String sql = "SELECT * FROM category WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, id);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -141,7 +190,8 @@ public class CategoryService implements IService<Category> {
         List<Category> categories = new ArrayList<>();
         String sql = "SELECT * FROM category WHERE manager_id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, managerId);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -158,7 +208,8 @@ public class CategoryService implements IService<Category> {
         List<Category> categories = new ArrayList<>();
         String sql = "SELECT * FROM category WHERE type = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setString(1, type);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -175,7 +226,8 @@ public class CategoryService implements IService<Category> {
         List<Category> categories = new ArrayList<>();
         String sql = "SELECT * FROM category WHERE name LIKE ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setString(1, "%" + searchTerm + "%");
             
             try (ResultSet rs = stmt.executeQuery()) {
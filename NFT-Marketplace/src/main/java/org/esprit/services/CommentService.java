@@ -7,21 +7,25 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
-import org.esprit.utils.ProfanityFilter;
+import org.esprit.utils.Cursor;
 
 import org.esprit.models.Comment;
 import org.esprit.models.Blog;
 import org.esprit.models.User;
 import org.esprit.utils.DatabaseConnection;
+import org.esprit.utils.KeysetPaginator;
+import org.esprit.utils.Page;
+import org.esprit.utils.ProfanityFilter;
+import org.esprit.utils.Sort;
 
 public class CommentService implements IService<Comment> {
+    private static final KeysetPaginator<Comment> PAGINATOR = new KeysetPaginator<Comment>("id", Comment::getId)
+        .sortable("createdAt", "created_at", Comment::getCreatedAt);
 
-    private Connection connection;
     private UserService userService;
     private BlogService blogService;
 
     public CommentService() {
-        connection = DatabaseConnection.getInstance().getConnection();
         userService = new UserService();
         blogService = new BlogService();
     }    @Override
@@ -32,7 +36,8 @@ public class CommentService implements IService<Comment> {
 
         String sql = "INSERT INTO comment (user_id, blog_id, content, created_at, gif_url) VALUES (?, ?, ?, ?, ?)";
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setInt(1, comment.getUser().getId());
             stmt.setInt(2, comment.getBlog().getId());
             stmt.setString(3, comment.getContent());
@@ -54,7 +59,8 @@ public class CommentService implements IService<Comment> {
     public void update(Comment comment) throws Exception {
         String sql = "UPDATE comment SET content = ? WHERE id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setString(1, comment.getContent());
             stmt.setInt(2, comment.getId());
             stmt.executeUpdate();
@@ -65,7 +71,8 @@ public class CommentService implements IService<Comment> {
     public void delete(Comment comment) throws Exception {
         String sql = "DELETE FROM comment WHERE id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, comment.getId());
             stmt.executeUpdate();
         }
@@ -76,7 +83,8 @@ public class CommentService implements IService<Comment> {
         List<Comment> comments = new ArrayList<>();
         String sql = "SELECT * FROM comment ORDER BY created_at DESC";
 
-        try (Statement stmt = connection.createStatement();
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
 
             while (rs.next()) {
@@ -87,6 +95,25 @@ public class CommentService implements IService<Comment> {
         return comments;
     }
 
+    @Override
+    public Page<Comment> page(Cursor after, int size, Sort sort) throws Exception {
+        List<Comment> comments = new ArrayList<>();
+        String sql = "SELECT * FROM comment" + PAGINATOR.clause(after, sort, false);
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            PAGINATOR.bind(stmt, 1, after, size);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    comments.add(mapResultSetToComment(rs));
+                }
+            }
+        }
+        
+        return PAGINATOR.toPage(comments, size, sort);
+    }
+    
     @Override
     public Comment getOne(int id) throws Exception {
         return getById(id);
@@ -95,7 +122,8 @@ public class CommentService implements IService<Comment> {
     public Comment getById(int id) throws Exception {
         String sql = "SELECT * FROM comment WHERE id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, id);
 
             try (ResultSet rs = stmt.executeQuery()) {
@@ -112,7 +140,8 @@ public class CommentService implements IService<Comment> {
         List<Comment> comments = new ArrayList<>();
         String sql = "SELECT * FROM comment WHERE blog_id = ? ORDER BY created_at DESC";
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, blog.getId());
 
             try (ResultSet rs = stmt.executeQuery()) {
@@ -129,7 +158,8 @@ public class CommentService implements IService<Comment> {
         List<Comment> comments = new ArrayList<>();
         String sql = "SELECT * FROM comment WHERE user_id = ? ORDER BY created_at DESC";
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, user.getId());
 
             try (ResultSet rs = stmt.executeQuery()) {
@@ -0,0 +1,316 @@
+package org.esprit.services;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import org.esprit.models.BetSession;
+import org.esprit.models.Raffle;
+import org.esprit.utils.ConfigManager;
+import org.esprit.utils.DatabaseConnection;
+
+/**
+ * Fires raffle and bet session status transitions at their start/end instants.
+ * Upcoming deadlines are loaded from the database into a DelayQueue, and services
+ * re-arm them when a raffle or session is created or edited, so no read path has to
+ * scan for expired rows. Each transition is a conditional UPDATE, so a stale or
+ * duplicate deadline is harmless. A transition that fails is re-armed with an
+ * exponential backoff rather than waiting for the next reload; a reload that fails
+ * is retried with the same backoff.
+ */
+public class DeadlineScheduler {
+
+    public enum Transition {
+        SESSION_START,
+        SESSION_END,
+        RAFFLE_END
+    }
+
+    private static DeadlineScheduler instance;
+
+    private final DelayQueue<Deadline> queue = new DelayQueue<>();
+    // Latest deadline per (transition, id); anything else taken from the queue is stale
+    private final Map<String, Deadline> armed = new ConcurrentHashMap<>();
+    private final long horizonMillis;
+    private final long retryMillis;
+    private final long maxRetryMillis;
+    private Thread worker;
+    private BetSessionService betSessionService;
+    private RaffleSettlementPool settlementPool;
+
+    private DeadlineScheduler() {
+        long horizonHours = Long.parseLong(ConfigManager.getInstance().getProperty("scheduler.horizon.hours", "24"));
+        horizonMillis = TimeUnit.HOURS.toMillis(horizonHours);
+        retryMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(
+                ConfigManager.getInstance().getProperty("scheduler.retry.seconds", "5")));
+        maxRetryMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(
+                ConfigManager.getInstance().getProperty("scheduler.retry.max.seconds", "300")));
+    }
+
+    public static synchronized DeadlineScheduler getInstance() {
+        if (instance == null) {
+            instance = new DeadlineScheduler();
+        }
+        return instance;
+    }
+
+    /**
+     * Loads the deadlines due within the horizon (including overdue ones, which fire
+     * right away) and starts the worker thread and the raffle and auction settlement pools.
+     * Calling it again has no effect.
+     */
+    public synchronized void start() {
+        if (worker != null) {
+            return;
+        }
+        betSessionService = new BetSessionService();
+        settlementPool = RaffleSettlementPool.getInstance();
+        settlementPool.start();
+        AuctionSettlementPool.getInstance().start();
+
+        worker = new Thread(this::run, "deadline-scheduler");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Arms the start and end transitions of a bet session, replacing earlier ones
+     * @param betSession The session as saved
+     */
+    public void scheduleBetSession(BetSession betSession) {
+        if ("pending".equals(betSession.getStatus()) && betSession.getStartTime() != null) {
+            arm(Transition.SESSION_START, betSession.getId(), toMillis(betSession.getStartTime()));
+        } else {
+            cancel(Transition.SESSION_START, betSession.getId());
+        }
+        if (("pending".equals(betSession.getStatus()) || "active".equals(betSession.getStatus()))
+                && betSession.getEndTime() != null) {
+            arm(Transition.SESSION_END, betSession.getId(), toMillis(betSession.getEndTime()));
+        } else {
+            cancel(Transition.SESSION_END, betSession.getId());
+        }
+    }
+
+    /**
+     * Arms the end transition of a raffle, replacing an earlier one
+     * @param raffle The raffle as saved
+     */
+    public void scheduleRaffle(Raffle raffle) {
+        if ("active".equals(raffle.getStatus()) && raffle.getEndTime() != null) {
+            arm(Transition.RAFFLE_END, raffle.getId(), raffle.getEndTime().getTime());
+        } else {
+            cancel(Transition.RAFFLE_END, raffle.getId());
+        }
+    }
+
+    /**
+     * Ends raffles found past their end time while still active, e.g. by a listing.
+     * They are queued as due now, so the worker ends them and draws their winners.
+     * @param raffleIds The overdue raffle IDs
+     */
+    public void endOverdueRaffles(Collection<Integer> raffleIds) {
+        long now = System.currentTimeMillis();
+        for (Integer raffleId : raffleIds) {
+            Deadline current = armed.get(key(Transition.RAFFLE_END, raffleId));
+            if (current == null || current.dueAtMillis > now) {
+                arm(Transition.RAFFLE_END, raffleId, now);
+            }
+        }
+    }
+
+    public void cancelBetSession(int betSessionId) {
+        cancel(Transition.SESSION_START, betSessionId);
+        cancel(Transition.SESSION_END, betSessionId);
+    }
+
+    public void cancelRaffle(int raffleId) {
+        cancel(Transition.RAFFLE_END, raffleId);
+    }
+
+    /**
+     * @return The number of armed deadlines
+     */
+    public int getArmedCount() {
+        return armed.size();
+    }
+
+    private void arm(Transition transition, int id, long dueAtMillis) {
+        String key = key(transition, id);
+        Deadline current = armed.get(key);
+        if (current != null && current.dueAtMillis == dueAtMillis) {
+            return;
+        }
+        // Deadlines beyond the horizon are picked up by a later reload
+        if (dueAtMillis > System.currentTimeMillis() + horizonMillis) {
+            armed.remove(key);
+            return;
+        }
+        Deadline deadline = new Deadline(transition, id, dueAtMillis, 0);
+        armed.put(key, deadline);
+        queue.put(deadline);
+    }
+
+    private void cancel(Transition transition, int id) {
+        // The queued entry stays but is skipped when it no longer matches
+        armed.remove(key(transition, id));
+    }
+
+    private void run() {
+        long nextReload = 0;
+        int failedReloads = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (System.currentTimeMillis() >= nextReload) {
+                    try {
+                        loadUpcomingDeadlines();
+                        failedReloads = 0;
+                        nextReload = System.currentTimeMillis() + horizonMillis / 2;
+                    } catch (Exception e) {
+                        // e.g. the database is down; armed deadlines still fire in the meantime
+                        nextReload = System.currentTimeMillis() + retryDelay(failedReloads++);
+                        System.err.println("Failed to load deadlines, retrying at " + new Date(nextReload) + ": " + e.getMessage());
+                    }
+                }
+
+                Deadline deadline = queue.poll(Math.max(1, nextReload - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (deadline == null || !armed.remove(deadline.key(), deadline)) {
+                    continue;
+                }
+                fire(deadline);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.err.println("Deadline scheduler error: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void fire(Deadline deadline) {
+        try {
+            switch (deadline.transition) {
+                case SESSION_START:
+                    betSessionService.activateSession(deadline.id);
+                    break;
+                case SESSION_END:
+                    betSessionService.completeSession(deadline.id);
+                    break;
+                case RAFFLE_END:
+                    // Settled concurrently by whichever worker claims it
+                    settlementPool.wake();
+                    break;
+                default:
+                    break;
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to apply " + deadline.transition + " for ID " + deadline.id + ": " + e.getMessage());
+            e.printStackTrace();
+            retry(deadline);
+        }
+    }
+
+    /**
+     * Re-arms a deadline whose transition failed, e.g. on a transient database error
+     */
+    private void retry(Deadline failed) {
+        Deadline deadline = new Deadline(failed.transition, failed.id,
+                System.currentTimeMillis() + retryDelay(failed.attempt), failed.attempt + 1);
+        // Unless the deadline was re-armed or cancelled by an edit in the meantime
+        if (armed.putIfAbsent(deadline.key(), deadline) == null) {
+            queue.put(deadline);
+            System.err.println("Retrying " + deadline + " (attempt " + deadline.attempt + ")");
+        }
+    }
+
+    /**
+     * @param attempt Failed attempts so far
+     * @return The delay before the next attempt, doubling per attempt up to the configured maximum
+     */
+    private long retryDelay(int attempt) {
+        return Math.min(maxRetryMillis, retryMillis << Math.min(attempt, 20));
+    }
+
+    private void loadUpcomingDeadlines() throws Exception {
+        Timestamp until = new Timestamp(System.currentTimeMillis() + horizonMillis);
+
+        try (Connection connection = DatabaseConnection.getInstance().getConnection()) {
+            loadDeadlines(connection, Transition.SESSION_START,
+                    "SELECT id, start_time AS due FROM bet_session WHERE status = 'pending' AND start_time <= ?", until);
+            loadDeadlines(connection, Transition.SESSION_END,
+                    "SELECT id, end_time AS due FROM bet_session WHERE status IN ('pending', 'active') AND end_time <= ?", until);
+            loadDeadlines(connection, Transition.RAFFLE_END,
+                    "SELECT id, end_time AS due FROM raffle WHERE status = 'active' AND end_time <= ?", until);
+        }
+    }
+
+    private void loadDeadlines(Connection connection, Transition transition, String sql, Timestamp until) throws Exception {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setTimestamp(1, until);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    arm(transition, rs.getInt("id"), rs.getTimestamp("due").getTime());
+                }
+            }
+        }
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static String key(Transition transition, int id) {
+        return transition + ":" + id;
+    }
+
+    /**
+     * One transition due at a given instant
+     */
+    private static class Deadline implements Delayed {
+        private final Transition transition;
+        private final int id;
+        private final long dueAtMillis;
+        // Failed attempts before this one
+        private final int attempt;
+
+        private Deadline(Transition transition, int id, long dueAtMillis, int attempt) {
+            this.transition = transition;
+            this.id = id;
+            this.dueAtMillis = dueAtMillis;
+            this.attempt = attempt;
+        }
+
+        private String key() {
+            return DeadlineScheduler.key(transition, id);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAtMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (other instanceof Deadline) {
+                int byTime = Long.compare(dueAtMillis, ((Deadline) other).dueAtMillis);
+                // A session starts before it ends when both are overdue
+                return byTime != 0 ? byTime : transition.compareTo(((Deadline) other).transition);
+            }
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public String toString() {
+            return transition + " #" + id + " at " + new Date(dueAtMillis);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.esprit.services;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.esprit.utils.DatabaseConnection;
+
+/**
+ * In-memory view of each bidder's balance and holds, so a bid can be checked and
+ * reserved without a database round trip. Users are spread over a fixed set of lock
+ * stripes; a reservation locks only its user's stripe, so bidders on different
+ * stripes never wait on each other, and one user bidding in many sessions at once
+ * cannot commit more than they have. An account is loaded from the database the
+ * first time its user bids, while its stripe is locked.
+ * Holds are stored by {@link BalanceHoldService}; this class mirrors them.
+ */
+public class EscrowLedger {
+
+    private static final int STRIPES = 64;
+
+    private static EscrowLedger instance;
+
+    private final Object[] stripes = new Object[STRIPES];
+    // Guarded by the stripe of the key
+    private final Map<Integer, Account> accounts = new HashMap<>();
+    private final BalanceHoldService holdService = new BalanceHoldService();
+
+    private EscrowLedger() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    public static synchronized EscrowLedger getInstance() {
+        if (instance == null) {
+            instance = new EscrowLedger();
+        }
+        return instance;
+    }
+
+    /**
+     * Holds the amount for the user on the session, replacing their earlier hold there
+     * @param userId The bidder
+     * @param sessionId The bet session
+     * @param amount The amount to hold
+     * @return The reservation, to {@link #cancel} if the bid does not go through;
+     *         null if the user's free balance does not cover it
+     * @throws SQLException If the account had to be loaded and could not be
+     */
+    public Reservation reserve(int userId, int sessionId, BigDecimal amount) throws SQLException {
+        synchronized (stripeOf(userId)) {
+            Account account = load(userId);
+            if (account == null) {
+                return null;
+            }
+            BigDecimal previous = account.holds.get(sessionId);
+            BigDecimal available = previous == null ? account.available() : account.available().add(previous);
+            if (available.compareTo(amount) < 0) {
+                return null;
+            }
+            account.holds.put(sessionId, amount);
+            return new Reservation(userId, sessionId, amount, previous);
+        }
+    }
+
+    /**
+     * Undoes a reservation whose bid was rejected or rolled back
+     * @param reservation What {@link #reserve} returned
+     */
+    public void cancel(Reservation reservation) {
+        synchronized (stripeOf(reservation.userId)) {
+            Account account = accounts.get(reservation.userId);
+            if (account == null) {
+                return;
+            }
+            // Only if nothing replaced it in the meantime
+            if (reservation.amount.equals(account.holds.get(reservation.sessionId))) {
+                if (reservation.previous != null) {
+                    account.holds.put(reservation.sessionId, reservation.previous);
+                } else {
+                    account.holds.remove(reservation.sessionId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Frees the user's hold on a session, e.g. once they are outbid
+     */
+    public void release(int userId, int sessionId) {
+        synchronized (stripeOf(userId)) {
+            Account account = accounts.get(userId);
+            if (account != null) {
+                account.holds.remove(sessionId);
+            }
+        }
+    }
+
+    /**
+     * Puts back a hold the database still has, e.g. after a bid that outbid it in
+     * memory turned out to be lost when it was written
+     * @param userId The holder
+     * @param sessionId The bet session
+     * @param amount The amount held in the database
+     */
+    public void restore(int userId, int sessionId, BigDecimal amount) {
+        synchronized (stripeOf(userId)) {
+            Account account = accounts.get(userId);
+            // An account not loaded yet reads its holds from the database
+            if (account != null) {
+                account.holds.put(sessionId, amount);
+            }
+        }
+    }
+
+    /**
+     * Turns the user's hold on a completed session into a spent amount
+     */
+    public void capture(int userId, int sessionId) {
+        synchronized (stripeOf(userId)) {
+            Account account = accounts.get(userId);
+            if (account != null) {
+                BigDecimal held = account.holds.remove(sessionId);
+                if (held != null) {
+                    account.balance = account.balance.subtract(held);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param userId The user ID
+     * @param sessionId A session the user is about to bid in; their hold there does not
+     *        count, since the new bid replaces it
+     * @return The balance minus the user's other holds, or null if the user does not exist
+     * @throws SQLException If the account had to be loaded and could not be
+     */
+    public BigDecimal getAvailable(int userId, int sessionId) throws SQLException {
+        synchronized (stripeOf(userId)) {
+            Account account = load(userId);
+            if (account == null) {
+                return null;
+            }
+            BigDecimal held = account.holds.get(sessionId);
+            return held == null ? account.available() : account.available().add(held);
+        }
+    }
+
+    /**
+     * Re-reads the user's balance on their next bid, after it was changed outside
+     * bidding (a top-up, a sale). Holds are kept, since they may not be stored yet.
+     * @param userId The user ID
+     */
+    public void refreshBalance(int userId) {
+        synchronized (stripeOf(userId)) {
+            Account account = accounts.get(userId);
+            if (account != null) {
+                account.balanceStale = true;
+            }
+        }
+    }
+
+    private Object stripeOf(int userId) {
+        return stripes[Math.floorMod(userId, STRIPES)];
+    }
+
+    private Account load(int userId) throws SQLException {
+        Account account = accounts.get(userId);
+        if (account != null && !account.balanceStale) {
+            return account;
+        }
+
+        BigDecimal balance;
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement("SELECT balance FROM user WHERE id = ?")) {
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                balance = rs.getBigDecimal("balance");
+            }
+        }
+
+        if (account == null) {
+            account = new Account();
+            for (BalanceHoldService.Hold hold : holdService.getActiveHolds(userId)) {
+                account.holds.put(hold.getSessionId(), hold.getAmount());
+            }
+            accounts.put(userId, account);
+        }
+        account.balance = balance;
+        account.balanceStale = false;
+        return account;
+    }
+
+    /**
+     * A user's balance and holds by bet session; only touched under the user's stripe
+     */
+    private static final class Account {
+        private BigDecimal balance = BigDecimal.ZERO;
+        private boolean balanceStale;
+        private final Map<Integer, BigDecimal> holds = new HashMap<>();
+
+        private BigDecimal available() {
+            BigDecimal available = balance;
+            for (BigDecimal held : holds.values()) {
+                available = available.subtract(held);
+            }
+            return available;
+        }
+    }
+
+    /**
+     * A hold taken by {@link #reserve}, with the hold it replaced
+     */
+    public static final class Reservation {
+        private final int userId;
+        private final int sessionId;
+        private final BigDecimal amount;
+        private final BigDecimal previous;
+
+        private Reservation(int userId, int sessionId, BigDecimal amount, BigDecimal previous) {
+            this.userId = userId;
+            this.sessionId = sessionId;
+            this.amount = amount;
+            this.previous = previous;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+    }
+}
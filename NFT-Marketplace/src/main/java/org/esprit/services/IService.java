@@ -2,6 +2,10 @@ package org.esprit.services;
 
 import java.util.List;
 
+import org.esprit.utils.Cursor;
+import org.esprit.utils.Page;
+import org.esprit.utils.Sort;
+
 public interface IService<T> {
 
     void add(T t) throws Exception;
@@ -9,4 +13,13 @@ public interface IService<T> {
     void delete(T t) throws Exception;
     List<T> getAll() throws Exception;
     T getOne(int id) throws Exception;
+
+    /**
+     * Lists entities one page at a time with keyset pagination
+     * @param after The previous page's {@link Page#getNext()}, or null for the first page
+     * @param size The maximum number of entities to return
+     * @param sort The order; null sorts by id ascending
+     * @return The page and the cursor of the next one
+     */
+    Page<T> page(Cursor after, int size, Sort sort) throws Exception;
 }
@@ -0,0 +1,201 @@
+package org.esprit.services;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.esprit.utils.ConfigManager;
+import org.esprit.utils.DatabaseConnection;
+
+/**
+ * Verifies the balance ledger written by {@link LedgerService}: every user's balance
+ * must equal the sum of their entries, and every transfer's legs must sum to zero.
+ * User and transfer IDs are split into ranges checked in parallel, each with one
+ * aggregate query; a single statement reads a consistent snapshot, and a transfer
+ * commits its balance updates and entries together, so the job can run while money
+ * keeps moving.
+ */
+public class LedgerReconciler {
+
+    private final int chunkSize;
+    private final int threads;
+
+    public LedgerReconciler() {
+        ConfigManager config = ConfigManager.getInstance();
+        chunkSize = Integer.parseInt(config.getProperty("ledger.reconcile.chunk.size", "1000"));
+        threads = Integer.parseInt(config.getProperty("ledger.reconcile.threads", "4"));
+    }
+
+    /**
+     * Checks the whole ledger
+     * @return What did not reconcile
+     * @throws Exception If a database error occurs
+     */
+    public Report reconcile() throws Exception {
+        long started = System.currentTimeMillis();
+        long maxUserId;
+        long maxTransferId;
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT (SELECT COALESCE(MAX(id), 0) FROM user), (SELECT COALESCE(MAX(id), 0) FROM ledger_transfer)")) {
+            rs.next();
+            maxUserId = rs.getLong(1);
+            maxTransferId = rs.getLong(2);
+        }
+
+        Report report = new Report();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (long start = 1; start <= maxUserId; start += chunkSize) {
+            long from = start;
+            long to = start + chunkSize - 1;
+            tasks.add(() -> {
+                checkUsers(from, to, report);
+                return null;
+            });
+        }
+        for (long start = 1; start <= maxTransferId; start += chunkSize) {
+            long from = start;
+            long to = start + chunkSize - 1;
+            tasks.add(() -> {
+                checkTransfers(from, to, report);
+                return null;
+            });
+        }
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "ledger-reconcile-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (Future<Void> done : executor.invokeAll(tasks)) {
+                done.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        report.chunks = tasks.size();
+        report.elapsedMillis = System.currentTimeMillis() - started;
+        return report;
+    }
+
+    private void checkUsers(long from, long to, Report report) throws Exception {
+        String query = "SELECT u.id, u.balance, COALESCE(SUM(e.amount), 0) AS ledger_balance " +
+                      "FROM user u LEFT JOIN ledger_entry e ON e.user_id = u.id " +
+                      "WHERE u.id BETWEEN ? AND ? GROUP BY u.id, u.balance HAVING u.balance <> ledger_balance";
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setLong(1, from);
+            ps.setLong(2, to);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    report.addUserMismatch(new UserMismatch(rs.getInt("id"),
+                            rs.getBigDecimal("balance"), rs.getBigDecimal("ledger_balance")));
+                }
+            }
+        }
+    }
+
+    private void checkTransfers(long from, long to, Report report) throws Exception {
+        String query = "SELECT transfer_id FROM ledger_entry WHERE transfer_id BETWEEN ? AND ? " +
+                      "GROUP BY transfer_id HAVING SUM(amount) <> 0";
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setLong(1, from);
+            ps.setLong(2, to);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    report.addUnbalancedTransfer(rs.getLong("transfer_id"));
+                }
+            }
+        }
+    }
+
+    /**
+     * The outcome of one reconciliation run
+     */
+    public static final class Report {
+        private final List<UserMismatch> userMismatches = new ArrayList<>();
+        private final List<Long> unbalancedTransfers = new ArrayList<>();
+        private int chunks;
+        private long elapsedMillis;
+
+        private synchronized void addUserMismatch(UserMismatch mismatch) {
+            userMismatches.add(mismatch);
+        }
+
+        private synchronized void addUnbalancedTransfer(long transferId) {
+            unbalancedTransfers.add(transferId);
+        }
+
+        public synchronized List<UserMismatch> getUserMismatches() {
+            return Collections.unmodifiableList(new ArrayList<>(userMismatches));
+        }
+
+        public synchronized List<Long> getUnbalancedTransfers() {
+            return Collections.unmodifiableList(new ArrayList<>(unbalancedTransfers));
+        }
+
+        public synchronized boolean isBalanced() {
+            return userMismatches.isEmpty() && unbalancedTransfers.isEmpty();
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("balanced=%s userMismatches=%d unbalancedTransfers=%d chunks=%d elapsed=%dms",
+                    isBalanced(), userMismatches.size(), unbalancedTransfers.size(), chunks, elapsedMillis);
+        }
+    }
+
+    /**
+     * A user whose balance differs from the sum of their ledger entries
+     */
+    public static final class UserMismatch {
+        private final int userId;
+        private final BigDecimal balance;
+        private final BigDecimal ledgerBalance;
+
+        private UserMismatch(int userId, BigDecimal balance, BigDecimal ledgerBalance) {
+            this.userId = userId;
+            this.balance = balance;
+            this.ledgerBalance = ledgerBalance;
+        }
+
+        public int getUserId() {
+            return userId;
+        }
+
+        public BigDecimal getBalance() {
+            return balance;
+        }
+
+        public BigDecimal getLedgerBalance() {
+            return ledgerBalance;
+        }
+
+        @Override
+        public String toString() {
+            return "user " + userId + ": balance " + balance + ", ledger " + ledgerBalance;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package org.esprit.services;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.esprit.utils.DatabaseConnection;
+import org.esprit.utils.TransactionManager;
+
+/**
+ * Moves money between balances as double-entry transfers in ledger_transfer and
+ * ledger_entry, which are only ever appended to. The legs of a transfer sum to zero;
+ * money entering or leaving the marketplace is booked against the external account,
+ * a leg without a user. Each leg is one narrow UPDATE user SET balance = balance + ?,
+ * and its entry records the balance it left behind, so a user's balance always
+ * equals the sum of their entries. Checked by {@link LedgerReconciler}.
+ */
+public class LedgerService {
+
+    public static final String OPENING = "opening";
+    public static final String SALE = "sale";
+    public static final String AUCTION_SETTLEMENT = "auction_settlement";
+    public static final String ADJUSTMENT = "adjustment";
+    public static final String RAFFLE_TICKET = "raffle_ticket";
+
+    // A guarded debit only applies if it leaves at least the user's held funds
+    private static final String APPLY_LEG_SQL = "UPDATE user SET balance = balance + ? WHERE id = ? AND (? OR " +
+            "balance + ? >= (SELECT COALESCE(SUM(h.amount), 0) FROM balance_hold h WHERE h.user_id = user.id AND h.status = 'held'))";
+    // Reads the balance the leg just wrote; the row stays locked until commit
+    private static final String INSERT_USER_ENTRY_SQL =
+            "INSERT INTO ledger_entry (transfer_id, user_id, amount, balance_after, created_at) " +
+            "SELECT ?, id, ?, balance, ? FROM user WHERE id = ?";
+    private static final String INSERT_EXTERNAL_ENTRY_SQL =
+            "INSERT INTO ledger_entry (transfer_id, user_id, amount, balance_after, created_at) VALUES (?, NULL, ?, NULL, ?)";
+
+    /**
+     * Posts a transfer; legs that do not sum to zero are balanced against the external account
+     * @param type What the transfer is for, one of the constants of this class
+     * @param referenceId The artwork, session or user the transfer is about, or null
+     * @param legs The balance changes, at most one per user
+     * @return The transfer ID
+     * @throws InsufficientBalanceException If a guarded debit would dip into held funds or below zero
+     * @throws Exception If a database error occurs; nothing is written in either case
+     */
+    public long post(String type, Integer referenceId, Leg... legs) throws Exception {
+        List<Leg> ordered = new ArrayList<>(Arrays.asList(legs));
+        // Same lock order in every transfer, so two transfers cannot deadlock on user rows
+        ordered.sort(Comparator.comparingInt(leg -> leg.userId));
+        BigDecimal external = BigDecimal.ZERO;
+        for (Leg leg : ordered) {
+            external = external.subtract(leg.amount);
+        }
+        BigDecimal externalAmount = external;
+
+        return TransactionManager.inTransaction(connection -> {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            long transferId;
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO ledger_transfer (transfer_type, reference_id, created_at) VALUES (?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                ps.setString(1, type);
+                if (referenceId != null) {
+                    ps.setInt(2, referenceId);
+                } else {
+                    ps.setNull(2, java.sql.Types.INTEGER);
+                }
+                ps.setTimestamp(3, now);
+                ps.executeUpdate();
+                try (ResultSet generatedKeys = ps.getGeneratedKeys()) {
+                    if (!generatedKeys.next()) {
+                        throw new SQLException("Creating ledger transfer failed, no ID obtained.");
+                    }
+                    transferId = generatedKeys.getLong(1);
+                }
+            }
+
+            try (PreparedStatement ps = connection.prepareStatement(APPLY_LEG_SQL)) {
+                for (Leg leg : ordered) {
+                    ps.setBigDecimal(1, leg.amount);
+                    ps.setInt(2, leg.userId);
+                    ps.setBoolean(3, !leg.guarded);
+                    ps.setBigDecimal(4, leg.amount);
+                    ps.addBatch();
+                }
+                int[] counts = ps.executeBatch();
+                for (Leg leg : ordered) {
+                    UserService.invalidateCached(leg.userId);
+                }
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] == 0) {
+                        Leg leg = ordered.get(i);
+                        if (leg.guarded) {
+                            throw new InsufficientBalanceException("Insufficient balance for user " + leg.userId);
+                        }
+                        throw new SQLException("User " + leg.userId + " not found.");
+                    }
+                }
+            }
+
+            try (PreparedStatement ps = connection.prepareStatement(INSERT_USER_ENTRY_SQL)) {
+                for (Leg leg : ordered) {
+                    ps.setLong(1, transferId);
+                    ps.setBigDecimal(2, leg.amount);
+                    ps.setTimestamp(3, now);
+                    ps.setInt(4, leg.userId);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            if (externalAmount.signum() != 0) {
+                try (PreparedStatement ps = connection.prepareStatement(INSERT_EXTERNAL_ENTRY_SQL)) {
+                    ps.setLong(1, transferId);
+                    ps.setBigDecimal(2, externalAmount);
+                    ps.setTimestamp(3, now);
+                    ps.executeUpdate();
+                }
+            }
+
+            TransactionManager.afterCommit(() -> {
+                for (Leg leg : ordered) {
+                    EscrowLedger.getInstance().refreshBalance(leg.userId);
+                }
+            });
+            return transferId;
+        });
+    }
+
+    /**
+     * Brings a user's balance to the given amount, booking the difference against the
+     * external account, e.g. when an administrator edits it
+     * @param userId The user ID
+     * @param target The balance the user should end up with
+     * @return The transfer ID, or 0 if the balance already matched
+     * @throws Exception If the user does not exist or a database error occurs
+     */
+    public long adjustTo(int userId, BigDecimal target) throws Exception {
+        return TransactionManager.inTransaction(connection -> {
+            BigDecimal current;
+            try (PreparedStatement ps = connection.prepareStatement("SELECT balance FROM user WHERE id = ? FOR UPDATE")) {
+                ps.setInt(1, userId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new SQLException("User " + userId + " not found.");
+                    }
+                    current = rs.getBigDecimal("balance");
+                }
+            }
+            BigDecimal delta = target.subtract(current);
+            return delta.signum() == 0 ? 0L : post(ADJUSTMENT, userId, Leg.credit(userId, delta));
+        });
+    }
+
+    /**
+     * @param userId The user ID
+     * @param limit The maximum number of entries
+     * @return The user's most recent entries, newest first
+     * @throws SQLException If a database error occurs
+     */
+    public List<Entry> getEntries(int userId, int limit) throws SQLException {
+        List<Entry> entries = new ArrayList<>();
+        String query = "SELECT e.id, e.transfer_id, t.transfer_type, t.reference_id, e.amount, e.balance_after, e.created_at " +
+                      "FROM ledger_entry e JOIN ledger_transfer t ON t.id = e.transfer_id " +
+                      "WHERE e.user_id = ? ORDER BY e.id DESC LIMIT ?";
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, userId);
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int referenceId = rs.getInt("reference_id");
+                    entries.add(new Entry(rs.getLong("id"), rs.getLong("transfer_id"), rs.getString("transfer_type"),
+                            rs.wasNull() ? null : referenceId, rs.getBigDecimal("amount"),
+                            rs.getBigDecimal("balance_after"), rs.getTimestamp("created_at").toLocalDateTime()));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * One user's side of a transfer
+     */
+    public static final class Leg {
+        private final int userId;
+        private final BigDecimal amount;
+        private final boolean guarded;
+
+        private Leg(int userId, BigDecimal amount, boolean guarded) {
+            this.userId = userId;
+            this.amount = amount;
+            this.guarded = guarded;
+        }
+
+        /**
+         * Adds to a balance; a negative amount is taken without checks
+         */
+        public static Leg credit(int userId, BigDecimal amount) {
+            return new Leg(userId, amount, false);
+        }
+
+        /**
+         * Takes from a balance, only if the user can spend it without touching held funds
+         */
+        public static Leg debit(int userId, BigDecimal amount) {
+            return new Leg(userId, amount.negate(), true);
+        }
+
+        /**
+         * Takes funds that were held for this purpose, so no balance check applies
+         */
+        public static Leg debitHeld(int userId, BigDecimal amount) {
+            return new Leg(userId, amount.negate(), false);
+        }
+    }
+
+    /**
+     * A posted leg as read back from the ledger
+     */
+    public static final class Entry {
+        private final long id;
+        private final long transferId;
+        private final String type;
+        private final Integer referenceId;
+        private final BigDecimal amount;
+        private final BigDecimal balanceAfter;
+        private final LocalDateTime createdAt;
+
+        private Entry(long id, long transferId, String type, Integer referenceId, BigDecimal amount,
+                      BigDecimal balanceAfter, LocalDateTime createdAt) {
+            this.id = id;
+            this.transferId = transferId;
+            this.type = type;
+            this.referenceId = referenceId;
+            this.amount = amount;
+            this.balanceAfter = balanceAfter;
+            this.createdAt = createdAt;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getTransferId() {
+            return transferId;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public Integer getReferenceId() {
+            return referenceId;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        public BigDecimal getBalanceAfter() {
+            return balanceAfter;
+        }
+
+        public LocalDateTime getCreatedAt() {
+            return createdAt;
+        }
+    }
+
+    /**
+     * A guarded debit the user could not cover
+     */
+    public static class InsufficientBalanceException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public InsufficientBalanceException(String message) {
+            super(message);
+        }
+    }
+}
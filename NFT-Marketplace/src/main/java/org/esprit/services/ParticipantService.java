@@ -1,65 +1,104 @@
 package org.esprit.services;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import org.esprit.models.Participant;
 import org.esprit.models.Raffle;
 import org.esprit.models.User;
+import org.esprit.utils.ConfigManager;
+import org.esprit.utils.Cursor;
 import org.esprit.utils.DatabaseConnection;
+import org.esprit.utils.EventBus;
+import org.esprit.utils.KeysetPaginator;
+import org.esprit.utils.Page;
+import org.esprit.utils.Sort;
+import org.esprit.utils.SqlUtils;
+import org.esprit.utils.TransactionManager;
 
 public class ParticipantService implements IService<Participant> {
-    private Connection connection;
+    private static final KeysetPaginator<Participant> PAGINATOR = new KeysetPaginator<Participant>("p.id", Participant::getId)
+        .sortable("joinedAt", "p.joined_at", Participant::getJoinedAt);
+
     private UserService userService;
+    private LedgerService ledgerService;
+    private final BigDecimal ticketPrice;
 
     public ParticipantService() {
-        connection = DatabaseConnection.getInstance().getConnection();
         userService = new UserService();
+        ledgerService = new LedgerService();
+        ticketPrice = new BigDecimal(ConfigManager.getInstance().getProperty("raffle.ticket.price", "10"));
     }
 
     @Override
     public void add(Participant participant) throws Exception {
-        String query = "INSERT INTO participant (raffle_id, user_id, name, joined_at) VALUES (?, ?, ?, ?)";
-        PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
-        
-        ps.setInt(1, participant.getRaffle().getId());
-        ps.setInt(2, participant.getUser().getId());
-        ps.setString(3, participant.getName());
-        ps.setTimestamp(4, Timestamp.valueOf(participant.getJoinedAt()));
-        
-        ps.executeUpdate();
-        
-        ResultSet rs = ps.getGeneratedKeys();
-        if (rs.next()) {
-            participant.setId(rs.getInt(1));
-        }
+        String query = "INSERT INTO participant (raffle_id, user_id, name, joined_at, weight) VALUES (?, ?, ?, ?, ?)";
+        TransactionManager.inTransaction(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+                ps.setInt(1, participant.getRaffle().getId());
+                ps.setInt(2, participant.getUser().getId());
+                ps.setString(3, participant.getName());
+                ps.setTimestamp(4, Timestamp.valueOf(participant.getJoinedAt()));
+                ps.setInt(5, participant.getWeight());
+                
+                ps.executeUpdate();
+                
+                ResultSet rs = ps.getGeneratedKeys();
+                if (rs.next()) {
+                    participant.setId(rs.getInt(1));
+                }
+            }
+            touchRaffle(connection, participant.getRaffle().getId());
+            return null;
+        });
+        EventBus.getInstance().publish(
+                new RaffleEvents.ParticipantJoined(participant.getRaffle().getId(), participant.getUser().getId()));
     }
 
     @Override
     public void update(Participant participant) throws Exception {
-        String query = "UPDATE participant SET raffle_id=?, user_id=?, name=?, joined_at=? WHERE id=?";
-        PreparedStatement ps = connection.prepareStatement(query);
-        
-        ps.setInt(1, participant.getRaffle().getId());
-        ps.setInt(2, participant.getUser().getId());
-        ps.setString(3, participant.getName());
-        ps.setTimestamp(4, Timestamp.valueOf(participant.getJoinedAt()));
-        ps.setInt(5, participant.getId());
-        
-        ps.executeUpdate();
+        String query = "UPDATE participant SET raffle_id=?, user_id=?, name=?, joined_at=?, weight=? WHERE id=?";
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, participant.getRaffle().getId());
+            ps.setInt(2, participant.getUser().getId());
+            ps.setString(3, participant.getName());
+            ps.setTimestamp(4, Timestamp.valueOf(participant.getJoinedAt()));
+            ps.setInt(5, participant.getWeight());
+            ps.setInt(6, participant.getId());
+            
+            ps.executeUpdate();
+        }
     }
 
     @Override
     public void delete(Participant participant) throws Exception {
+        String touchQuery = "UPDATE raffle SET updated_at = CURRENT_TIMESTAMP(3) " +
+                           "WHERE id = (SELECT raffle_id FROM participant WHERE id = ?)";
         String query = "DELETE FROM participant WHERE id=?";
-        PreparedStatement ps = connection.prepareStatement(query);
-        ps.setInt(1, participant.getId());
-        ps.executeUpdate();
+        TransactionManager.inTransaction(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(touchQuery)) {
+                ps.setInt(1, participant.getId());
+                ps.executeUpdate();
+            }
+            try (PreparedStatement ps = connection.prepareStatement(query)) {
+                ps.setInt(1, participant.getId());
+                ps.executeUpdate();
+            }
+            return null;
+        });
     }
 
     @Override
@@ -67,27 +106,50 @@ public class ParticipantService implements IService<Participant> {
         List<Participant> participants = new ArrayList<>();
         String query = "SELECT p.*, u.name as user_name, u.email as user_email FROM participant p " +
                       "JOIN user u ON p.user_id = u.id";
-        Statement st = connection.createStatement();
-        ResultSet rs = st.executeQuery(query);
-        
-        while (rs.next()) {
-            participants.add(extractParticipantFromResultSet(rs, false));
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery(query)) {
+            while (rs.next()) {
+                participants.add(extractParticipantFromResultSet(rs, false));
+            }
         }
         
         return participants;
     }
 
+    @Override
+    public Page<Participant> page(Cursor after, int size, Sort sort) throws Exception {
+        List<Participant> participants = new ArrayList<>();
+        String sql = "SELECT p.*, u.name as user_name, u.email as user_email FROM participant p " +
+                     "JOIN user u ON p.user_id = u.id" + PAGINATOR.clause(after, sort, false);
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            PAGINATOR.bind(stmt, 1, after, size);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    participants.add(extractParticipantFromResultSet(rs, false));
+                }
+            }
+        }
+        
+        return PAGINATOR.toPage(participants, size, sort);
+    }
+    
     @Override
     public Participant getOne(int id) throws Exception {
         String query = "SELECT p.*, u.name as user_name, u.email as user_email FROM participant p " +
                       "JOIN user u ON p.user_id = u.id " +
                       "WHERE p.id=?";
-        PreparedStatement ps = connection.prepareStatement(query);
-        ps.setInt(1, id);
-        ResultSet rs = ps.executeQuery();
-        
-        if (rs.next()) {
-            return extractParticipantFromResultSet(rs, false);
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, id);
+            ResultSet rs = ps.executeQuery();
+            
+            if (rs.next()) {
+                return extractParticipantFromResultSet(rs, false);
+            }
         }
         return null;
     }
@@ -97,29 +159,226 @@ public class ParticipantService implements IService<Participant> {
         String query = "SELECT p.*, u.name as user_name, u.email as user_email FROM participant p " +
                       "JOIN user u ON p.user_id = u.id " +
                       "WHERE p.raffle_id=?";
-        PreparedStatement ps = connection.prepareStatement(query);
-        ps.setInt(1, raffle.getId());
-        ResultSet rs = ps.executeQuery();
-        
-        while (rs.next()) {
-            participants.add(extractParticipantFromResultSet(rs, false));
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, raffle.getId());
+            ResultSet rs = ps.executeQuery();
+            
+            while (rs.next()) {
+                participants.add(extractParticipantFromResultSet(rs, false));
+            }
         }
         
         return participants;
     }
 
+    /**
+     * Counts the participants of a raffle without loading them
+     * @param raffleId The raffle ID
+     * @return The number of participants
+     * @throws Exception If a database error occurs
+     */
+    public int countByRaffle(int raffleId) throws Exception {
+        String query = "SELECT COUNT(*) FROM participant WHERE raffle_id = ?";
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, raffleId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Sells extra tickets to a participant of an active raffle, paid to the raffle's
+     * creator as one ledger transfer. The raffle row stays locked until commit, so the
+     * draw cannot claim the raffle between the check and the purchase.
+     * @param raffleId The raffle ID
+     * @param userId The buyer, who must already participate
+     * @param tickets The number of tickets to buy
+     * @return false if the user does not participate in the raffle
+     * @throws LedgerService.InsufficientBalanceException If the buyer cannot cover the price
+     * @throws Exception If the raffle is not active or a database error occurs; nothing is written
+     */
+    public boolean buyTickets(int raffleId, int userId, int tickets) throws Exception {
+        BigDecimal cost = getTicketPrice().multiply(BigDecimal.valueOf(tickets));
+        return TransactionManager.inTransaction(connection -> {
+            int creatorId;
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "SELECT creator_id FROM raffle WHERE id = ? AND status = 'active' FOR UPDATE")) {
+                ps.setInt(1, raffleId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new Exception("This raffle is no longer active");
+                    }
+                    creatorId = rs.getInt("creator_id");
+                }
+            }
+            if (!addTickets(raffleId, userId, tickets)) {
+                return false;
+            }
+            if (cost.signum() > 0) {
+                ledgerService.post(LedgerService.RAFFLE_TICKET, raffleId,
+                        LedgerService.Leg.debit(userId, cost),
+                        LedgerService.Leg.credit(creatorId, cost));
+            }
+            return true;
+        });
+    }
+
+    /**
+     * @return The price of one extra raffle ticket, from raffle.ticket.price
+     */
+    public BigDecimal getTicketPrice() {
+        return ticketPrice;
+    }
+
+    /**
+     * Adds tickets to an existing participation
+     * @param raffleId The raffle ID
+     * @param userId The participating user's ID
+     * @param tickets The number of tickets to add
+     * @return true if the user was a participant
+     * @throws Exception If a database error occurs
+     */
+    public boolean addTickets(int raffleId, int userId, int tickets) throws Exception {
+        if (tickets < 1) {
+            throw new IllegalArgumentException("At least one ticket must be added");
+        }
+        String query = "UPDATE participant SET weight = weight + ? WHERE raffle_id = ? AND user_id = ?";
+        return TransactionManager.inTransaction(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(query)) {
+                ps.setInt(1, tickets);
+                ps.setInt(2, raffleId);
+                ps.setInt(3, userId);
+                if (ps.executeUpdate() == 0) {
+                    return false;
+                }
+            }
+            touchRaffle(connection, raffleId);
+            return true;
+        });
+    }
+
+    /**
+     * Sums the tickets held in a raffle
+     * @param raffleId The raffle ID
+     * @return The total weight of all participants
+     * @throws Exception If a database error occurs
+     */
+    public long sumTicketsByRaffle(int raffleId) throws Exception {
+        String query = "SELECT COALESCE(SUM(weight), 0) FROM participant WHERE raffle_id = ?";
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, raffleId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Loads only the participant IDs and ticket counts of a raffle, in join order,
+     * into primitive arrays so millions of entries stay compact
+     * @param raffleId The raffle ID
+     * @param expectedCount The participant count, used to size the arrays
+     * @return The ticket weights
+     * @throws Exception If a database error occurs
+     */
+    public TicketWeights getTicketWeights(int raffleId, int expectedCount) throws Exception {
+        int[] participantIds = new int[expectedCount];
+        int[] weights = new int[expectedCount];
+        int size = 0;
+        
+        String query = "SELECT id, weight FROM participant WHERE raffle_id = ? ORDER BY id";
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, raffleId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (size == participantIds.length) {
+                        participantIds = Arrays.copyOf(participantIds, Math.max(16, size * 2));
+                        weights = Arrays.copyOf(weights, participantIds.length);
+                    }
+                    participantIds[size] = rs.getInt("id");
+                    weights[size] = rs.getInt("weight");
+                    size++;
+                }
+            }
+        }
+        
+        return new TicketWeights(Arrays.copyOf(participantIds, size), Arrays.copyOf(weights, size));
+    }
+
+    /**
+     * Fetches a single participant by its position in join order, walking only the
+     * (raffle_id, id) index up to that position
+     * @param raffleId The raffle ID
+     * @param position Zero-based position, below {@link #countByRaffle}
+     * @return The participant, or null if the position is out of range
+     * @throws Exception If a database error occurs
+     */
+    public Participant getByRaffleAt(int raffleId, int position) throws Exception {
+        String query = "SELECT p.*, u.name as user_name, u.email as user_email " +
+                      "FROM (SELECT id FROM participant WHERE raffle_id = ? ORDER BY id LIMIT 1 OFFSET ?) pick " +
+                      "JOIN participant p ON p.id = pick.id " +
+                      "JOIN user u ON p.user_id = u.id";
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, raffleId);
+            ps.setInt(2, position);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? extractParticipantFromResultSet(rs, false) : null;
+            }
+        }
+    }
+
+    /**
+     * Loads the participants of several raffles with one query per {@link SqlUtils#MAX_IN_LIST_SIZE} raffles
+     * @param raffleIds The raffle IDs; duplicates are ignored
+     * @return The participants grouped by raffle ID, in join order; raffles without participants are absent
+     * @throws Exception If a database error occurs
+     */
+    public Map<Integer, List<Participant>> getByRaffleIds(Collection<Integer> raffleIds) throws Exception {
+        Map<Integer, List<Participant>> participantsByRaffle = new HashMap<>();
+        for (List<Integer> chunk : SqlUtils.chunks(new LinkedHashSet<>(raffleIds))) {
+            String query = "SELECT p.*, u.name as user_name, u.email as user_email FROM participant p " +
+                          "JOIN user u ON p.user_id = u.id " +
+                          "WHERE p.raffle_id IN (" + SqlUtils.placeholders(chunk.size()) + ") " +
+                          "ORDER BY p.raffle_id, p.id";
+            try (Connection connection = DatabaseConnection.getInstance().getConnection();
+                 PreparedStatement ps = connection.prepareStatement(query)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    ps.setInt(i + 1, chunk.get(i));
+                }
+                
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Participant participant = extractParticipantFromResultSet(rs, false);
+                        participantsByRaffle.computeIfAbsent(participant.getRaffle().getId(), id -> new ArrayList<>())
+                                .add(participant);
+                    }
+                }
+            }
+        }
+        
+        return participantsByRaffle;
+    }
+
     public List<Participant> getByUser(User user) throws Exception {
         List<Participant> participants = new ArrayList<>();
         String query = "SELECT p.*, r.title as raffle_title, u.name as user_name, u.email as user_email FROM participant p " +
                       "JOIN raffle r ON p.raffle_id = r.id " +
                       "JOIN user u ON p.user_id = u.id " +
                       "WHERE p.user_id=?";
-        PreparedStatement ps = connection.prepareStatement(query);
-        ps.setInt(1, user.getId());
-        ResultSet rs = ps.executeQuery();
-        
-        while (rs.next()) {
-            participants.add(extractParticipantFromResultSet(rs, true));
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, user.getId());
+            ResultSet rs = ps.executeQuery();
+            
+            while (rs.next()) {
+                participants.add(extractParticipantFromResultSet(rs, true));
+            }
         }
         
         return participants;
@@ -145,6 +404,7 @@ public class ParticipantService implements IService<Participant> {
         participant.setUser(user);
         
         participant.setName(rs.getString("name"));
+        participant.setWeight(rs.getInt("weight"));
         
         Timestamp joinedAt = rs.getTimestamp("joined_at");
         if (joinedAt != null) {
@@ -153,4 +413,35 @@ public class ParticipantService implements IService<Participant> {
         
         return participant;
     }
-}
\ No newline at end of file
+
+    /**
+     * Bumps the raffle's updated_at so {@link RaffleChangeFeed} sees participant changes
+     */
+    private void touchRaffle(Connection connection, int raffleId) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("UPDATE raffle SET updated_at = CURRENT_TIMESTAMP(3) WHERE id = ?")) {
+            ps.setInt(1, raffleId);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Participant IDs and their ticket counts, index-aligned
+     */
+    public static class TicketWeights {
+        private final int[] participantIds;
+        private final int[] weights;
+
+        private TicketWeights(int[] participantIds, int[] weights) {
+            this.participantIds = participantIds;
+            this.weights = weights;
+        }
+
+        public int[] getParticipantIds() {
+            return participantIds;
+        }
+
+        public int[] getWeights() {
+            return weights;
+        }
+    }
+}
@@ -1,16 +1,24 @@
 package org.esprit.services;
 
 import org.esprit.models.User;
+import org.esprit.utils.ConfigManager;
 import org.esprit.utils.EmailService;
+import org.esprit.utils.TransactionManager;
 
 import java.security.SecureRandom;
 import java.time.LocalDateTime;
 import java.util.Base64;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service for handling password reset functionality.
  */
 public class PasswordResetService {
+    // Shared by all instances; clears expired tokens in the background
+    private static ScheduledExecutorService purgeExecutor;
+    
     private UserService userService;
     
     /**
@@ -18,6 +26,35 @@ public class PasswordResetService {
      */
     public PasswordResetService() {
         this.userService = new UserService();
+        startExpiredTokenPurge();
+    }
+    
+    /**
+     * Starts the background sweep of expired reset tokens, once per JVM.
+     */
+    private static synchronized void startExpiredTokenPurge() {
+        if (purgeExecutor != null) {
+            return;
+        }
+        long intervalMinutes = Long.parseLong(
+                ConfigManager.getInstance().getProperty("password.reset.purge.interval.minutes", "15"));
+        
+        purgeExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "password-reset-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        UserService purgeUserService = new UserService();
+        purgeExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                int purged = purgeUserService.purgeExpiredResetTokens();
+                if (purged > 0) {
+                    System.out.println("Purged " + purged + " expired password reset token(s)");
+                }
+            } catch (Exception e) {
+                System.err.println("Error purging expired reset tokens: " + e.getMessage());
+            }
+        }, 0, intervalMinutes, TimeUnit.MINUTES);
     }
     
     /**
@@ -40,10 +77,8 @@ public class PasswordResetService {
             // Set the token expiration time (1 hour from now)
             LocalDateTime expiresAt = LocalDateTime.now().plusHours(1);
             
-            // Update the user with the reset token and expiration time
-            user.setPasswordResetToken(resetToken);
-            user.setPasswordResetTokenExpiresAt(expiresAt);
-            userService.update(user);
+            // Store only the token's hash, so a database leak does not expose live reset links
+            userService.setResetToken(user.getId(), resetToken, expiresAt);
             
             // Send the password reset email
             return EmailService.sendPasswordResetEmail(
@@ -70,17 +105,8 @@ public class PasswordResetService {
                 return null;
             }
             
-            // Find all users
-            for (User user : userService.getAll()) {
-                // Check if the token matches and is not expired
-                if (token.equals(user.getPasswordResetToken()) && 
-                    user.getPasswordResetTokenExpiresAt() != null &&
-                    user.getPasswordResetTokenExpiresAt().isAfter(LocalDateTime.now())) {
-                    return user;
-                }
-            }
-            
-            return null;
+            // Indexed lookup on the token hash; expired tokens do not match
+            return userService.findByResetToken(token);
         } catch (Exception e) {
             System.err.println("Error validating reset token: " + e.getMessage());
             e.printStackTrace();
@@ -103,15 +129,16 @@ public class PasswordResetService {
                 return false;
             }
             
-            // Update the user's password
+            // Save the password and invalidate the token together, touching only those columns
+            TransactionManager.inTransaction(connection -> {
+                userService.updatePassword(user.getId(), newPassword);
+                userService.setResetToken(user.getId(), null, null);
+                return null;
+            });
             user.setPassword(newPassword);
-            
-            // Clear the reset token
             user.setPasswordResetToken(null);
             user.setPasswordResetTokenExpiresAt(null);
-            
-            // Save the updated user
-            userService.update(user);
+            user.markClean();
             return true;
         } catch (Exception e) {
             System.err.println("Error completing password reset: " + e.getMessage());
@@ -0,0 +1,118 @@
+package org.esprit.services;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.esprit.utils.ConfigManager;
+import org.esprit.utils.DatabaseConnection;
+import org.esprit.utils.EventBus;
+
+/**
+ * Brings raffle changes made by other processes onto the local {@link EventBus}.
+ * One background thread per process reads the raffles whose updated_at moved past a
+ * watermark and publishes {@link RaffleEvents.RaffleChanged} for each, so open views
+ * refresh only when something actually changed instead of each polling on its own.
+ */
+public class RaffleChangeFeed {
+
+    private static final int BATCH_SIZE = 500;
+
+    private static RaffleChangeFeed instance;
+
+    private final long pollMillis;
+    // Re-read window behind the watermark, for transactions that commit after a later one
+    private final long overlapMillis;
+    // Last updated_at published per raffle inside the overlap window, to skip re-reads
+    private final Map<Integer, Timestamp> published = new HashMap<>();
+    private ScheduledExecutorService executor;
+    private Timestamp watermark;
+
+    private RaffleChangeFeed() {
+        ConfigManager config = ConfigManager.getInstance();
+        pollMillis = Long.parseLong(config.getProperty("raffle.changefeed.poll.ms", "2000"));
+        overlapMillis = Long.parseLong(config.getProperty("raffle.changefeed.overlap.ms", "5000"));
+    }
+
+    public static synchronized RaffleChangeFeed getInstance() {
+        if (instance == null) {
+            instance = new RaffleChangeFeed();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts polling from the current state of the table. Calling it again has no effect.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "raffle-change-feed");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::poll, 0, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll() {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection()) {
+            if (watermark == null) {
+                // Use the database clock so client clock skew cannot hide changes
+                try (Statement stmt = connection.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(updated_at), CURRENT_TIMESTAMP(3)) FROM raffle")) {
+                    rs.next();
+                    watermark = rs.getTimestamp(1);
+                }
+                return;
+            }
+
+            Timestamp from = new Timestamp(watermark.getTime() - overlapMillis);
+            Timestamp afterTime = null;
+            int afterId = 0;
+            int read;
+            do {
+                read = 0;
+                String sql = "SELECT id, updated_at FROM raffle WHERE "
+                        + (afterTime == null ? "updated_at >= ?" : "(updated_at > ? OR (updated_at = ? AND id > ?))")
+                        + " ORDER BY updated_at, id LIMIT " + BATCH_SIZE;
+                try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                    if (afterTime == null) {
+                        ps.setTimestamp(1, from);
+                    } else {
+                        ps.setTimestamp(1, afterTime);
+                        ps.setTimestamp(2, afterTime);
+                        ps.setInt(3, afterId);
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            read++;
+                            afterId = rs.getInt("id");
+                            afterTime = rs.getTimestamp("updated_at");
+                            if (!afterTime.equals(published.get(afterId))) {
+                                published.put(afterId, afterTime);
+                                EventBus.getInstance().publish(new RaffleEvents.RaffleChanged(afterId));
+                            }
+                            if (afterTime.after(watermark)) {
+                                watermark = afterTime;
+                            }
+                        }
+                    }
+                }
+            } while (read == BATCH_SIZE);
+
+            Timestamp horizon = new Timestamp(watermark.getTime() - overlapMillis);
+            published.values().removeIf(updatedAt -> updatedAt.before(horizon));
+        } catch (Exception e) {
+            System.err.println("Raffle change feed poll failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.esprit.services;
+
+/**
+ * Domain events about raffles, published on {@link org.esprit.utils.EventBus}
+ */
+public final class RaffleEvents {
+
+    private RaffleEvents() {
+        // Holder for the event types
+    }
+
+    /**
+     * Anything that happened to a raffle; subscribe to this to hear about all of them
+     */
+    public interface RaffleEvent {
+        int getRaffleId();
+    }
+
+    /**
+     * A user joined a raffle
+     */
+    public static final class ParticipantJoined implements RaffleEvent {
+        private final int raffleId;
+        private final int userId;
+
+        public ParticipantJoined(int raffleId, int userId) {
+            this.raffleId = raffleId;
+            this.userId = userId;
+        }
+
+        @Override
+        public int getRaffleId() {
+            return raffleId;
+        }
+
+        public int getUserId() {
+            return userId;
+        }
+    }
+
+    /**
+     * A raffle's end time passed and it was settled, with or without a winner
+     */
+    public static final class RaffleEnded implements RaffleEvent {
+        private final int raffleId;
+
+        public RaffleEnded(int raffleId) {
+            this.raffleId = raffleId;
+        }
+
+        @Override
+        public int getRaffleId() {
+            return raffleId;
+        }
+    }
+
+    /**
+     * A raffle's winner was drawn and the artwork transferred
+     */
+    public static final class WinnerSelected implements RaffleEvent {
+        private final int raffleId;
+        private final int winnerId;
+
+        public WinnerSelected(int raffleId, int winnerId) {
+            this.raffleId = raffleId;
+            this.winnerId = winnerId;
+        }
+
+        @Override
+        public int getRaffleId() {
+            return raffleId;
+        }
+
+        public int getWinnerId() {
+            return winnerId;
+        }
+    }
+
+    /**
+     * A raffle row changed, as seen by {@link RaffleChangeFeed}; the change may come
+     * from another process, so its kind is unknown
+     */
+    public static final class RaffleChanged implements RaffleEvent {
+        private final int raffleId;
+
+        public RaffleChanged(int raffleId) {
+            this.raffleId = raffleId;
+        }
+
+        @Override
+        public int getRaffleId() {
+            return raffleId;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.esprit.services;
 
+import java.security.SecureRandom;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -19,15 +20,25 @@ import org.esprit.models.Artwork;
 import org.esprit.models.Participant;
 import org.esprit.models.Raffle;
 import org.esprit.models.User;
+import org.esprit.utils.AliasTable;
+import org.esprit.utils.Cursor;
 import org.esprit.utils.DatabaseConnection;
+import org.esprit.utils.EventBus;
+import org.esprit.utils.KeysetPaginator;
+import org.esprit.utils.Page;
+import org.esprit.utils.Sort;
+import org.esprit.utils.TransactionManager;
 
 public class RaffleService implements IService<Raffle> {
-    private Connection connection;
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+    private static final KeysetPaginator<Raffle> PAGINATOR = new KeysetPaginator<Raffle>("r.id", Raffle::getId)
+        .sortable("createdAt", "r.created_at", Raffle::getCreatedAt)
+        .sortable("endTime", "r.end_time", Raffle::getEndTime)
+        .sortable("title", "r.title", Raffle::getTitle);
     private ArtworkService artworkService;
     private ParticipantService participantService;
 
     public RaffleService() {
-        connection = DatabaseConnection.getInstance().getConnection();
         artworkService = new ArtworkService();
     }
 
@@ -41,134 +52,174 @@ public class RaffleService implements IService<Raffle> {
     @Override
     public void add(Raffle raffle) throws Exception {
         String query = "INSERT INTO raffle (title, raffle_description, start_time, end_time, status, creator_id, created_at, creator_name, artwork_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
-        PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
-        
-        ps.setString(1, raffle.getTitle());
-        ps.setString(2, raffle.getRaffleDescription());
-        ps.setTimestamp(3, new Timestamp(raffle.getStartTime().getTime()));
-        ps.setTimestamp(4, new Timestamp(raffle.getEndTime().getTime()));
-        ps.setString(5, raffle.getStatus());
-        ps.setInt(6, raffle.getCreator().getId());
-        ps.setTimestamp(7, new Timestamp(raffle.getCreatedAt().getTime()));
-        ps.setString(8, raffle.getCreatorName());
-        ps.setInt(9, raffle.getArtworkId());
-        
-        ps.executeUpdate();
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+            ps.setString(1, raffle.getTitle());
+            ps.setString(2, raffle.getRaffleDescription());
+            ps.setTimestamp(3, new Timestamp(raffle.getStartTime().getTime()));
+            ps.setTimestamp(4, new Timestamp(raffle.getEndTime().getTime()));
+            ps.setString(5, raffle.getStatus());
+            ps.setInt(6, raffle.getCreator().getId());
+            ps.setTimestamp(7, new Timestamp(raffle.getCreatedAt().getTime()));
+            ps.setString(8, raffle.getCreatorName());
+            ps.setInt(9, raffle.getArtworkId());
+            
+            ps.executeUpdate();
+            
+            ResultSet rs = ps.getGeneratedKeys();
+            if (rs.next()) {
+                raffle.setId(rs.getInt(1));
+            }
+        }
         
-        ResultSet rs = ps.getGeneratedKeys();
-        if (rs.next()) {
-            raffle.setId(rs.getInt(1));
-        }    }
+        DeadlineScheduler.getInstance().scheduleRaffle(raffle);
+    }
     
     public void update(Raffle raffle) throws SQLException {
-        // First check if this raffle needs to be ended
-        if (raffle.getStatus().equals("active") && raffle.getEndTime().before(new Date())) {
+        String query = "UPDATE raffle SET title=?, raffle_description=?, end_time=?, status=?, winner_id=?, artwork_id=? WHERE id=?";
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setString(1, raffle.getTitle());
+            ps.setString(2, raffle.getRaffleDescription());
+            ps.setTimestamp(3, new Timestamp(raffle.getEndTime().getTime()));
+            ps.setString(4, raffle.getStatus());
+            if (raffle.getWinnerId() != null) {
+                ps.setInt(5, raffle.getWinnerId());
+            } else {
+                ps.setNull(5, Types.INTEGER);
+            }
+            ps.setInt(6, raffle.getArtworkId());
+            ps.setInt(7, raffle.getId());
+            
+            ps.executeUpdate();
+        }
+        
+        // An end time edited into the past ends the raffle now; otherwise re-arm its deadline
+        if ("active".equals(raffle.getStatus()) && raffle.getEndTime().before(new Date())) {
             System.out.println("Raffle has expired during update: " + raffle.getId() + " - " + raffle.getTitle());
             try {
-                // Set status to ended before calling selectWinner
-                raffle.setStatus("ended");
-                selectWinner(raffle);
-                return; // Winner has been selected and raffle updated, no need to continue
+                endRaffle(raffle.getId());
             } catch (Exception e) {
                 System.err.println("Error selecting winner during update: " + e.getMessage());
                 e.printStackTrace();
-                // Continue with normal update if selectWinner fails
             }
-        }
-
-        // Normal update for raffle that doesn't need to be
-        String query = "UPDATE raffle SET title=?, raffle_description=?, end_time=?, status=?, winner_id=?, artwork_id=? WHERE id=?";
-        PreparedStatement ps = connection.prepareStatement(query);
-        ps.setString(1, raffle.getTitle());
-        ps.setString(2, raffle.getRaffleDescription());
-        ps.setTimestamp(3, new Timestamp(raffle.getEndTime().getTime()));
-        ps.setString(4, raffle.getStatus());
-        if (raffle.getWinnerId() != null) {
-            ps.setInt(5, raffle.getWinnerId());
         } else {
-            ps.setNull(5, Types.INTEGER);
+            DeadlineScheduler.getInstance().scheduleRaffle(raffle);
         }
-        ps.setInt(6, raffle.getArtworkId());
-        ps.setInt(7, raffle.getId());
-        
-        ps.executeUpdate();
     }
 
     public void delete(Raffle raffle) throws SQLException {
-        connection.setAutoCommit(false);
-        try {
-            // First delete all participants
-            List<Participant> participants = getParticipantService().getByRaffle(raffle);
-            for (Participant participant : participants) {
-                getParticipantService().delete(participant);
-            }
-
-            // Then delete the raffle
-            String query = "DELETE FROM raffle WHERE id=?";
-            PreparedStatement ps = connection.prepareStatement(query);
-            ps.setInt(1, raffle.getId());
-            ps.executeUpdate();
-            
-            connection.commit();
-        } catch (Exception e) {
-            connection.rollback();
-            throw new SQLException("Error deleting raffle: " + e.getMessage());
-        } finally {
-            connection.setAutoCommit(true);
-        }
+        // Participants and raffle must go in the same transaction, which deleteRaffle handles
+        deleteRaffle(raffle.getId());
     }
 
     @Override
     public List<Raffle> getAll() throws SQLException {
-        // Update expired raffles before getting the list
-        updateExpiredRaffles();
-        
         List<Raffle> raffles = new ArrayList<>();
         String query = "SELECT r.* FROM raffle r ORDER BY created_at DESC";
-        Statement st = connection.createStatement();
-        ResultSet rs = st.executeQuery(query);
-        
-        while (rs.next()) {
-            Raffle raffle = extractRaffleFromResultSet(rs);
-            // Load participants for each raffle
-            try {
-                List<Participant> participants = getParticipantService().getByRaffle(raffle);
-                for (Participant p : participants) {
-                    raffle.addParticipant(p.getUser());
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery(query)) {
+            while (rs.next()) {
+                raffles.add(extractRaffleFromResultSet(rs));
             }
-            raffles.add(raffle);
         }
         
+        // Correct statuses and load participants once the listing connection is back in the pool
+        correctOverdueStatuses(raffles);
+        loadParticipants(raffles);
+        
         return raffles;
     }
 
     @Override
-    public Raffle getOne(int id) throws SQLException {
-        // Check expired raffles first
-        updateExpiredRaffles();
-        
-        String query = "SELECT r.* FROM raffle r WHERE r.id=?";
-        PreparedStatement ps = connection.prepareStatement(query);
-        ps.setInt(1, id);
-        ResultSet rs = ps.executeQuery();
+    public Page<Raffle> page(Cursor after, int size, Sort sort) throws SQLException {
+        List<Raffle> raffles = new ArrayList<>();
+        String query = "SELECT r.* FROM raffle r" + PAGINATOR.clause(after, sort, false);
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            PAGINATOR.bind(ps, 1, after, size);
+            
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    raffles.add(extractRaffleFromResultSet(rs));
+                }
+            }
+        }
         
-        if (rs.next()) {
-            Raffle raffle = extractRaffleFromResultSet(rs);
-            // Load participants
-            try {
-                List<Participant> participants = getParticipantService().getByRaffle(raffle);
-                for (Participant p : participants) {
+        Page<Raffle> page = PAGINATOR.toPage(raffles, size, sort);
+        correctOverdueStatuses(page.getItems());
+        loadParticipants(page.getItems());
+        return page;
+    }
+
+    /**
+     * Shows raffles that are still active past their end time as ended, and hands them
+     * in one batch to the deadline scheduler, which ends them and draws the winners.
+     * Listings stay read-only.
+     * @param raffles The raffles just read
+     */
+    private void correctOverdueStatuses(List<Raffle> raffles) {
+        Date now = new Date();
+        List<Integer> overdueIds = new ArrayList<>();
+        for (Raffle raffle : raffles) {
+            if ("active".equals(raffle.getStatus()) && raffle.getEndTime() != null && raffle.getEndTime().before(now)) {
+                raffle.setLoadingFromDatabase(true);
+                raffle.setStatus("ended");
+                raffle.setLoadingFromDatabase(false);
+                overdueIds.add(raffle.getId());
+            }
+        }
+        if (!overdueIds.isEmpty()) {
+            System.out.println("Handing " + overdueIds.size() + " overdue raffle(s) to the deadline scheduler");
+            DeadlineScheduler.getInstance().endOverdueRaffles(overdueIds);
+        }
+    }
+
+    /**
+     * Loads the participants of all the given raffles with one grouped query
+     * @param raffles The raffles to fill
+     */
+    private void loadParticipants(List<Raffle> raffles) {
+        if (raffles.isEmpty()) {
+            return;
+        }
+        try {
+            List<Integer> raffleIds = new ArrayList<>(raffles.size());
+            for (Raffle raffle : raffles) {
+                raffleIds.add(raffle.getId());
+            }
+            
+            Map<Integer, List<Participant>> participantsByRaffle = getParticipantService().getByRaffleIds(raffleIds);
+            for (Raffle raffle : raffles) {
+                for (Participant p : participantsByRaffle.getOrDefault(raffle.getId(), List.of())) {
                     raffle.addParticipant(p.getUser());
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
             }
-            return raffle;
+        } catch (Exception e) {
+            e.printStackTrace();
         }
-        return null;
+    }
+
+    @Override
+    public Raffle getOne(int id) throws SQLException {
+        String query = "SELECT r.* FROM raffle r WHERE r.id=?";
+        Raffle raffle = null;
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setInt(1, id);
+            ResultSet rs = ps.executeQuery();
+            
+            if (rs.next()) {
+                raffle = extractRaffleFromResultSet(rs);
+            }
+        }
+        
+        if (raffle != null) {
+            correctOverdueStatuses(List.of(raffle));
+            loadParticipants(List.of(raffle));
+        }
+        return raffle;
     }
 
     private Raffle extractRaffleFromResultSet(ResultSet rs) throws SQLException {
@@ -181,34 +232,7 @@ public class RaffleService implements IService<Raffle> {
         raffle.setRaffleDescription(rs.getString("raffle_description"));
         raffle.setStartTime(rs.getTimestamp("start_time"));
         raffle.setEndTime(rs.getTimestamp("end_time"));
-        
-        // Get the status from the result set
-        String status = rs.getString("status");
-        
-        // Check if this is an active raffle with an end time in the past
-        // If so, we'll automatically update it to "ended" status
-        Date now = new Date();
-        if ("active".equals(status) && rs.getTimestamp("end_time").before(now)) {
-            System.out.println("Auto-correcting expired raffle status for ID: " + rs.getInt("id"));
-            status = "ended";
-            
-            // Also update the database immediately to fix the status
-            try {
-                String updateStatusSql = "UPDATE raffle SET status = 'ended' WHERE id = ?";
-                PreparedStatement updateStmt = connection.prepareStatement(updateStatusSql);
-                updateStmt.setInt(1, rs.getInt("id"));
-                updateStmt.executeUpdate();
-                updateStmt.close();
-                System.out.println("Updated raffle ID: " + rs.getInt("id") + " status to 'ended' in database");
-            } catch (SQLException e) {
-                System.err.println("Failed to update expired raffle status in database: " + e.getMessage());
-                // Continue with the corrected status in memory even if DB update fails
-            }
-        }
-        
-        // Set the possibly corrected status
-        raffle.setStatus(status);
-        
+        raffle.setStatus(rs.getString("status"));
         raffle.setCreatedAt(rs.getTimestamp("created_at"));
         raffle.setCreatorName(rs.getString("creator_name"));
         raffle.setArtworkId(rs.getInt("artwork_id"));
@@ -224,184 +248,246 @@ public class RaffleService implements IService<Raffle> {
             raffle.setWinnerId(winnerId);
         }
         
+        long drawSeed = rs.getLong("draw_seed");
+        if (!rs.wasNull()) {
+            raffle.setDrawSeed(drawSeed);
+        }
+        
         // Reset loading flag after all properties are set
         raffle.setLoadingFromDatabase(false);
         
         return raffle;
     }
 
-    public void updateExpiredRaffles() throws SQLException {
-        // Get all expired active raffles that need winners
-        String getExpiredRafflesQuery = "SELECT * FROM raffle WHERE status='active' AND end_time <= NOW()";
-        PreparedStatement ps = connection.prepareStatement(getExpiredRafflesQuery);
-        ResultSet rs = ps.executeQuery();
-
-        while (rs.next()) {
-            Raffle raffle = extractRaffleFromResultSet(rs);
-            try {
-                System.out.println("Found expired raffle: " + raffle.getTitle() + " (ID: " + raffle.getId() + ")");
-                
-                // Instead of handling winner selection here, use the selectWinner method
-                // which properly handles the artwork transfer
-                raffle.setStatus("ended");
-                selectWinner(raffle);
-                
-            } catch (Exception e) {
-                System.err.println("Error processing expired raffle " + raffle.getId() + ": " + e.getMessage());
-                e.printStackTrace();
-                // Continue with next raffle even if one fails
+    /**
+     * Ends a raffle whose end time has passed and draws its winner, in one transaction.
+     * The status change is claimed with a conditional UPDATE, so concurrent callers
+     * cannot draw twice.
+     * @param raffleId The raffle ID
+     * @return true if this call ended the raffle
+     * @throws Exception If a database error occurs or the winner cannot be settled
+     */
+    public boolean endRaffle(int raffleId) throws Exception {
+        return TransactionManager.inTransaction(connection -> {
+            String claimSql = "UPDATE raffle SET status = 'ended' WHERE id = ? AND status = 'active' AND end_time <= ?";
+            try (PreparedStatement ps = connection.prepareStatement(claimSql)) {
+                ps.setInt(1, raffleId);
+                ps.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+                if (ps.executeUpdate() == 0) {
+                    return false;
+                }
             }
-        }
+            
+            Raffle raffle = null;
+            try (PreparedStatement ps = connection.prepareStatement("SELECT r.* FROM raffle r WHERE r.id = ?")) {
+                ps.setInt(1, raffleId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        raffle = extractRaffleFromResultSet(rs);
+                    }
+                }
+            }
+            
+            System.out.println("Ending expired raffle: " + raffle.getTitle() + " (ID: " + raffle.getId() + ")");
+            selectWinner(raffle);
+            return true;
+        });
     }
 
+    /**
+     * Moves the artwork to the winner. Joins the caller's transaction when there is one,
+     * so the transfer commits or rolls back together with the raffle settlement.
+     */
     private boolean transferArtworkOwnership(Artwork artwork, User winner) throws Exception {
         if (winner == null || artwork == null) {
             System.err.println("Cannot transfer ownership: winner or artwork is null");
             return false;
         }
         
-        // Begin transaction
-        connection.setAutoCommit(false);
-        
         try {
-            // Store original owner ID for logging
-            int originalOwnerId = artwork.getOwnerId();
-            
-            System.out.println("Transferring artwork ownership - Artwork ID: " + artwork.getId() + 
-                ", Current owner ID: " + originalOwnerId + 
-                ", New owner (winner) ID: " + winner.getId());
-            
-            // Update artwork ownership in database
-            String updateArtworkSql = "UPDATE artwork SET owner_id = ?, updated_at = ? WHERE id = ?";
-            try (PreparedStatement stmt = connection.prepareStatement(updateArtworkSql)) {
-                stmt.setInt(1, winner.getId());
-                stmt.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
-                stmt.setInt(3, artwork.getId());
+            return TransactionManager.inTransaction(connection -> {
+                // Store original owner ID for logging
+                int originalOwnerId = artwork.getOwnerId();
                 
-                int rowsAffected = stmt.executeUpdate();
-                if (rowsAffected == 0) {
-                    throw new SQLException("Failed to update artwork ownership");
-                }
+                System.out.println("Transferring artwork ownership - Artwork ID: " + artwork.getId() + 
+                    ", Current owner ID: " + originalOwnerId + 
+                    ", New owner (winner) ID: " + winner.getId());
                 
-                System.out.println("Database update successful. " + rowsAffected + " row(s) affected.");
-            }
-            
-            // Verify the update by querying the database
-            String verifySql = "SELECT owner_id FROM artwork WHERE id = ?";
-            try (PreparedStatement stmt = connection.prepareStatement(verifySql)) {
-                stmt.setInt(1, artwork.getId());
-                ResultSet rs = stmt.executeQuery();
+                // Update artwork ownership in database
+                String updateArtworkSql = "UPDATE artwork SET owner_id = ?, updated_at = ? WHERE id = ?";
+                try (PreparedStatement stmt = connection.prepareStatement(updateArtworkSql)) {
+                    stmt.setInt(1, winner.getId());
+                    stmt.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now()));
+                    stmt.setInt(3, artwork.getId());
+                    
+                    int rowsAffected = stmt.executeUpdate();
+                    if (rowsAffected == 0) {
+                        throw new SQLException("Failed to update artwork ownership");
+                    }
+                    
+                    System.out.println("Database update successful. " + rowsAffected + " row(s) affected.");
+                }
+                ArtworkService.invalidateCached(artwork.getId());
                 
-                if (rs.next()) {
-                    int updatedOwnerId = rs.getInt("owner_id");
-                    if (updatedOwnerId != winner.getId()) {
-                        System.err.println("ERROR: Database verification failed. Expected owner_id: " + 
-                            winner.getId() + ", Actual owner_id: " + updatedOwnerId);
-                    } else {
-                        System.out.println("Database verification successful. owner_id is now: " + updatedOwnerId);
+                // Verify the update by querying the database
+                String verifySql = "SELECT owner_id FROM artwork WHERE id = ?";
+                try (PreparedStatement stmt = connection.prepareStatement(verifySql)) {
+                    stmt.setInt(1, artwork.getId());
+                    ResultSet rs = stmt.executeQuery();
+                    
+                    if (rs.next()) {
+                        int updatedOwnerId = rs.getInt("owner_id");
+                        if (updatedOwnerId != winner.getId()) {
+                            System.err.println("ERROR: Database verification failed. Expected owner_id: " + 
+                                winner.getId() + ", Actual owner_id: " + updatedOwnerId);
+                        } else {
+                            System.out.println("Database verification successful. owner_id is now: " + updatedOwnerId);
+                        }
                     }
                 }
-            }
-            
-            // Update the artwork object
-            artwork.setOwnerId(winner.getId());
-            artwork.setUpdatedAt(LocalDateTime.now());
-            
-            // Log the ownership transfer
-            System.out.println(String.format(
-                "Artwork ownership transferred - Artwork ID: %d, Title: %s, From User ID: %d, To Winner ID: %d, Winner Name: %s",
-                artwork.getId(), 
-                artwork.getTitle(),
-                originalOwnerId,
-                winner.getId(),
-                winner.getName()
-            ));
-            
-            // Commit the transaction
-            connection.commit();
-            return true;
-            
+                
+                // Update the artwork object
+                artwork.setOwnerId(winner.getId());
+                artwork.setUpdatedAt(LocalDateTime.now());
+                
+                // Log the ownership transfer
+                System.out.println(String.format(
+                    "Artwork ownership transferred - Artwork ID: %d, Title: %s, From User ID: %d, To Winner ID: %d, Winner Name: %s",
+                    artwork.getId(), 
+                    artwork.getTitle(),
+                    originalOwnerId,
+                    winner.getId(),
+                    winner.getName()
+                ));
+                
+                return true;
+            });
         } catch (Exception e) {
             System.err.println("Error transferring artwork ownership: " + e.getMessage());
             e.printStackTrace();
-            connection.rollback();
             throw e;
-        } finally {
-            connection.setAutoCommit(true);
         }
     }
 
+    /**
+     * Draws the winner of a raffle and transfers the artwork, in one transaction.
+     * When everyone holds one ticket, only the participant count and the drawn row are read.
+     * With multiple tickets, the ids and weights are loaded into primitive arrays for an
+     * alias-table draw. Either way the result is derived from a SecureRandom seed stored
+     * on the raffle, so the draw can be replayed.
+     */
     private void selectWinner(Raffle raffle) throws Exception {
-        // Begin transaction
-        connection.setAutoCommit(false);
         System.out.println("Selecting winner for raffle: " + raffle.getTitle() + " (ID: " + raffle.getId() + ")");
         
         try {
-            // Load participants first
-            List<Participant> participants = getParticipantService().getByRaffle(raffle);
-            if (participants.isEmpty()) {
-                // If no participants, just mark as ended without a winner
-                System.out.println("No participants in raffle, ending without a winner");
+            TransactionManager.inTransaction(connection -> {
+                long seed = SECURE_RANDOM.nextLong();
+                raffle.setDrawSeed(seed);
                 
-                // Make sure the raffle is updated as ended
-                String updateRaffleSql = "UPDATE raffle SET status = 'ended' WHERE id = ?";
-                try (PreparedStatement stmt = connection.prepareStatement(updateRaffleSql)) {
-                    stmt.setInt(1, raffle.getId());
-                    stmt.executeUpdate();
+                int participantCount = getParticipantService().countByRaffle(raffle.getId());
+                if (participantCount == 0) {
+                    // If no participants, just mark as ended without a winner
+                    System.out.println("No participants in raffle, ending without a winner");
+                    
+                    // Make sure the raffle is updated as ended
+                    String updateRaffleSql = "UPDATE raffle SET status = 'ended', draw_seed = ? WHERE id = ?";
+                    try (PreparedStatement stmt = connection.prepareStatement(updateRaffleSql)) {
+                        stmt.setLong(1, seed);
+                        stmt.setInt(2, raffle.getId());
+                        stmt.executeUpdate();
+                    }
+                    EventBus.getInstance().publish(new RaffleEvents.RaffleEnded(raffle.getId()));
+                    return null;
                 }
-                
-                connection.commit();
-                return;
-            }
 
-            System.out.println("Number of participants: " + participants.size());
-            
-            // Select random winner
-            Random random = new Random();
-            Participant winnerParticipant = participants.get(random.nextInt(participants.size()));
-            User winner = winnerParticipant.getUser();
-            
-            System.out.println("Selected winner: " + winner.getName() + " (ID: " + winner.getId() + ")");
-
-            // Get the artwork
-            Artwork artwork = artworkService.getOne(raffle.getArtworkId());
-            if (artwork == null) {
-                throw new Exception("Artwork not found");
-            }
-            
-            System.out.println("Artwork being transferred: " + artwork.getTitle() + " (ID: " + artwork.getId() + ")");
-            System.out.println("Current owner ID: " + artwork.getOwnerId());
+                System.out.println("Number of participants: " + participantCount);
+                
+                Participant winnerParticipant;
+                long ticketCount = getParticipantService().sumTicketsByRaffle(raffle.getId());
+                if (ticketCount == participantCount) {
+                    // One ticket each: pick a position from the seed and fetch only that participant
+                    int position = winningPosition(seed, participantCount);
+                    winnerParticipant = getParticipantService().getByRaffleAt(raffle.getId(), position);
+                    if (winnerParticipant == null) {
+                        throw new Exception("Drawn participant not found at position " + position);
+                    }
+                } else {
+                    // Weighted: odds proportional to tickets held
+                    System.out.println("Number of tickets: " + ticketCount);
+                    ParticipantService.TicketWeights tickets =
+                            getParticipantService().getTicketWeights(raffle.getId(), participantCount);
+                    int index = weightedWinningIndex(seed, tickets.getWeights());
+                    int participantId = tickets.getParticipantIds()[index];
+                    winnerParticipant = getParticipantService().getOne(participantId);
+                    if (winnerParticipant == null) {
+                        throw new Exception("Drawn participant not found: " + participantId);
+                    }
+                }
+                User winner = winnerParticipant.getUser();
+                
+                System.out.println("Selected winner: " + winner.getName() + " (ID: " + winner.getId() + ")");
 
-            // Transfer ownership to winner using our method
-            boolean transferred = transferArtworkOwnership(artwork, winner);
-            if (!transferred) {
-                throw new Exception("Failed to transfer artwork ownership to winner");
-            }
+                // Get the artwork
+                Artwork artwork = artworkService.getOne(raffle.getArtworkId());
+                if (artwork == null) {
+                    throw new Exception("Artwork not found");
+                }
+                
+                System.out.println("Artwork being transferred: " + artwork.getTitle() + " (ID: " + artwork.getId() + ")");
+                System.out.println("Current owner ID: " + artwork.getOwnerId());
 
-            // Update raffle with winner
-            raffle.setWinnerId(winner.getId());
-            
-            // Make sure the database is updated with winner and status
-            String updateRaffleSql = "UPDATE raffle SET status = 'ended', winner_id = ? WHERE id = ?";
-            try (PreparedStatement stmt = connection.prepareStatement(updateRaffleSql)) {
-                stmt.setInt(1, winner.getId());
-                stmt.setInt(2, raffle.getId());
-                stmt.executeUpdate();
-            }
-            
-            System.out.println("Raffle ended successfully. Artwork ownership transferred to: " + winner.getName());
+                // Transfer ownership to winner using our method
+                boolean transferred = transferArtworkOwnership(artwork, winner);
+                if (!transferred) {
+                    throw new Exception("Failed to transfer artwork ownership to winner");
+                }
 
-            connection.commit();
+                // Update raffle with winner
+                raffle.setWinnerId(winner.getId());
+                
+                // Make sure the database is updated with winner, seed and status
+                String updateRaffleSql = "UPDATE raffle SET status = 'ended', winner_id = ?, draw_seed = ? WHERE id = ?";
+                try (PreparedStatement stmt = connection.prepareStatement(updateRaffleSql)) {
+                    stmt.setInt(1, winner.getId());
+                    stmt.setLong(2, seed);
+                    stmt.setInt(3, raffle.getId());
+                    stmt.executeUpdate();
+                }
+                
+                System.out.println("Raffle ended successfully. Artwork ownership transferred to: " + winner.getName());
+                EventBus.getInstance().publish(new RaffleEvents.RaffleEnded(raffle.getId()));
+                EventBus.getInstance().publish(new RaffleEvents.WinnerSelected(raffle.getId(), winner.getId()));
+                return null;
+            });
         } catch (Exception e) {
             System.err.println("Error selecting winner: " + e.getMessage());
             e.printStackTrace();
-            connection.rollback();
             throw e;
-        } finally {
-            connection.setAutoCommit(true);
         }
     }
 
+    /**
+     * Maps a draw seed to a participant position. java.util.Random is specified
+     * bit for bit, so anyone with the seed and the count can check the result.
+     * @param seed The seed recorded on the raffle
+     * @param participantCount The number of participants at draw time
+     * @return A position in [0, participantCount)
+     */
+    static int winningPosition(long seed, int participantCount) {
+        return new Random(seed).nextInt(participantCount);
+    }
+
+    /**
+     * Maps a draw seed to a participant index, weighted by ticket count, with an
+     * alias table: O(n) to build from the weights in join order, O(1) to draw.
+     * @param seed The seed recorded on the raffle
+     * @param weights The ticket counts in join order
+     * @return An index into weights
+     */
+    static int weightedWinningIndex(long seed, int[] weights) {
+        return new AliasTable(weights).sample(new Random(seed));
+    }
+
     public List<Raffle> getAllRaffles() {
         List<Raffle> raffles = new ArrayList<>();
         String query = "SELECT r.*, a.title as artwork_title, u.id as user_id, u.name as user_name FROM raffle r " +
@@ -409,7 +495,8 @@ public class RaffleService implements IService<Raffle> {
                       "LEFT JOIN user u ON r.creator_id = u.id " +
                       "ORDER BY r.created_at DESC";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
                 Raffle raffle = new Raffle();
@@ -443,6 +530,7 @@ public class RaffleService implements IService<Raffle> {
         } catch (SQLException e) {
             e.printStackTrace();
         }
+        correctOverdueStatuses(raffles);
         return raffles;
     }
 
@@ -451,7 +539,8 @@ public class RaffleService implements IService<Raffle> {
                       "LEFT JOIN artwork a ON r.artwork_id = a.id " +
                       "WHERE r.id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setInt(1, raffleId);
             ResultSet rs = stmt.executeQuery();
             
@@ -473,6 +562,7 @@ public class RaffleService implements IService<Raffle> {
                 // Reset loading flag after all properties are set
                 raffle.setLoadingFromDatabase(false);
                 
+                correctOverdueStatuses(List.of(raffle));
                 return raffle;
             }
         } catch (SQLException e) {
@@ -482,29 +572,27 @@ public class RaffleService implements IService<Raffle> {
     }
 
     public void deleteRaffle(int raffleId) throws SQLException {
-        connection.setAutoCommit(false);
         try {
-            // First delete all participants
-            String deleteParticipants = "DELETE FROM participant WHERE raffle_id = ?";
-            try (PreparedStatement stmt = connection.prepareStatement(deleteParticipants)) {
-                stmt.setInt(1, raffleId);
-                stmt.executeUpdate();
-            }
+            TransactionManager.inTransaction(connection -> {
+                // First delete all participants
+                String deleteParticipants = "DELETE FROM participant WHERE raffle_id = ?";
+                try (PreparedStatement stmt = connection.prepareStatement(deleteParticipants)) {
+                    stmt.setInt(1, raffleId);
+                    stmt.executeUpdate();
+                }
 
-            // Then delete the raffle
-            String deleteRaffle = "DELETE FROM raffle WHERE id = ?";
-            try (PreparedStatement stmt = connection.prepareStatement(deleteRaffle)) {
-                stmt.setInt(1, raffleId);
-                stmt.executeUpdate();
-            }
-            
-            connection.commit();
+                // Then delete the raffle
+                String deleteRaffle = "DELETE FROM raffle WHERE id = ?";
+                try (PreparedStatement stmt = connection.prepareStatement(deleteRaffle)) {
+                    stmt.setInt(1, raffleId);
+                    stmt.executeUpdate();
+                }
+                return null;
+            });
         } catch (Exception e) {
-            connection.rollback();
             throw new SQLException("Error deleting raffle: " + e.getMessage());
-        } finally {
-            connection.setAutoCommit(true);
         }
+        DeadlineScheduler.getInstance().cancelRaffle(raffleId);
     }
 
     /**
@@ -521,7 +609,8 @@ public class RaffleService implements IService<Raffle> {
                       "ORDER BY win_count DESC " +
                       "LIMIT 10";
 
-        try (Statement stmt = connection.createStatement();
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(query)) {
             
             while (rs.next()) {
@@ -548,7 +637,8 @@ public class RaffleService implements IService<Raffle> {
                       "GROUP BY DAYNAME(created_at), DAYOFWEEK(created_at) " +
                       "ORDER BY DAYOFWEEK(created_at)";
 
-        try (Statement stmt = connection.createStatement();
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(query)) {
             
             while (rs.next()) {
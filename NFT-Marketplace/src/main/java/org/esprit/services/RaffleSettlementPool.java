@@ -0,0 +1,213 @@
+package org.esprit.services;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.esprit.utils.ConfigManager;
+import org.esprit.utils.SqlUtils;
+import org.esprit.utils.TransactionManager;
+
+/**
+ * Settles expired raffles on a pool of worker threads.
+ * Each worker claims one overdue raffle with SELECT ... FOR UPDATE SKIP LOCKED and
+ * settles it in the same transaction, so workers never wait on each other's rows and
+ * a failed settlement rolls back without touching the others. Workers are woken by
+ * {@link DeadlineScheduler} when a raffle end is due, and also poll as a safety net.
+ */
+public class RaffleSettlementPool {
+
+    private static final String CLAIM_SQL =
+            "SELECT id, end_time FROM raffle WHERE status = 'active' AND end_time <= ?";
+    private static final String CLAIM_ORDER = " ORDER BY end_time LIMIT 1 FOR UPDATE SKIP LOCKED";
+
+    private static RaffleSettlementPool instance;
+
+    private final int workerCount;
+    private final long pollMillis;
+    private final long retryDelayMillis;
+    private final Semaphore wakeups = new Semaphore(0);
+    // Raffles whose settlement failed, with the time they may be claimed again
+    private final Map<Integer, Long> retryAt = new ConcurrentHashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+
+    private final LongAdder settled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalLagMillis = new LongAdder();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+    private final AtomicLong lastLagMillis = new AtomicLong();
+    private long startedAtMillis;
+
+    private RaffleSettlementPool() {
+        ConfigManager config = ConfigManager.getInstance();
+        workerCount = Integer.parseInt(config.getProperty("raffle.settlement.workers", "4"));
+        pollMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(config.getProperty("raffle.settlement.poll.seconds", "30")));
+        retryDelayMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(config.getProperty("raffle.settlement.retry.seconds", "60")));
+    }
+
+    public static synchronized RaffleSettlementPool getInstance() {
+        if (instance == null) {
+            instance = new RaffleSettlementPool();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts the worker threads. Calling it again has no effect.
+     */
+    public synchronized void start() {
+        if (!workers.isEmpty()) {
+            return;
+        }
+        startedAtMillis = System.currentTimeMillis();
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::run, "raffle-settlement-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Wakes every worker to claim raffles that have become due
+     */
+    public void wake() {
+        wakeups.release(workerCount);
+    }
+
+    private void run() {
+        // Services keep per-instance helpers, so each worker gets its own
+        RaffleService raffleService = new RaffleService();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                // Drain everything claimable, then sleep until woken or the next poll
+                while (settleNext(raffleService)) {
+                    // keep claiming
+                }
+                wakeups.tryAcquire(pollMillis, TimeUnit.MILLISECONDS);
+                wakeups.drainPermits();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.err.println("Raffle settlement worker error: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Claims and settles one overdue raffle in its own transaction
+     * @return true if a raffle was claimed, whether or not its settlement succeeded
+     */
+    private boolean settleNext(RaffleService raffleService) {
+        long now = System.currentTimeMillis();
+        retryAt.values().removeIf(until -> until <= now);
+        List<Integer> excluded = new ArrayList<>(retryAt.keySet());
+
+        int[] claimedId = { 0 };
+        try {
+            return TransactionManager.inTransaction(TransactionManager.Propagation.REQUIRES_NEW, connection -> {
+                String sql = CLAIM_SQL
+                        + (excluded.isEmpty() ? "" : " AND id NOT IN (" + SqlUtils.placeholders(excluded.size()) + ")")
+                        + CLAIM_ORDER;
+                long lagMillis;
+                try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                    ps.setTimestamp(1, new Timestamp(now));
+                    for (int i = 0; i < excluded.size(); i++) {
+                        ps.setInt(i + 2, excluded.get(i));
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) {
+                            return false;
+                        }
+                        claimedId[0] = rs.getInt("id");
+                        lagMillis = now - rs.getTimestamp("end_time").getTime();
+                    }
+                }
+
+                // Joins this transaction, so the row lock is held until the settlement commits
+                if (raffleService.endRaffle(claimedId[0])) {
+                    recordSettled(lagMillis);
+                }
+                return true;
+            });
+        } catch (Exception e) {
+            if (claimedId[0] == 0) {
+                // Nothing was claimed; back off until the next wakeup or poll
+                System.err.println("Failed to claim an expired raffle: " + e.getMessage());
+                return false;
+            }
+            failed.increment();
+            retryAt.put(claimedId[0], System.currentTimeMillis() + retryDelayMillis);
+            System.err.println("Failed to settle raffle " + claimedId[0] + ", retrying later: " + e.getMessage());
+            return true;
+        }
+    }
+
+    private void recordSettled(long lagMillis) {
+        settled.increment();
+        totalLagMillis.add(lagMillis);
+        lastLagMillis.set(lagMillis);
+        maxLagMillis.accumulateAndGet(lagMillis, Math::max);
+    }
+
+    /**
+     * @return The number of raffles settled since the pool started
+     */
+    public long getSettledCount() {
+        return settled.sum();
+    }
+
+    /**
+     * @return The number of settlement attempts that rolled back
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * @return Raffles settled per second since the pool started
+     */
+    public double getThroughputPerSecond() {
+        long elapsed = System.currentTimeMillis() - startedAtMillis;
+        return startedAtMillis == 0 || elapsed <= 0 ? 0 : settled.sum() * 1000.0 / elapsed;
+    }
+
+    /**
+     * @return Average time between a raffle's end time and its settlement, in milliseconds
+     */
+    public double getAverageLagMillis() {
+        long count = settled.sum();
+        return count == 0 ? 0 : (double) totalLagMillis.sum() / count;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    public long getLastLagMillis() {
+        return lastLagMillis.get();
+    }
+
+    /**
+     * @return The number of raffles waiting out a retry delay after a failed settlement
+     */
+    public int getRetryPendingCount() {
+        return retryAt.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("settled=%d failed=%d throughput=%.2f/s lag(avg=%.0fms, max=%dms, last=%dms) retryPending=%d",
+                getSettledCount(), getFailedCount(), getThroughputPerSecond(),
+                getAverageLagMillis(), getMaxLagMillis(), getLastLagMillis(), getRetryPendingCount());
+    }
+}
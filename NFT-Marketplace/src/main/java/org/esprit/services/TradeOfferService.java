@@ -13,15 +13,20 @@ import java.util.List;
 import org.esprit.models.Artwork;
 import org.esprit.models.TradeOffer;
 import org.esprit.models.User;
+import org.esprit.utils.Cursor;
 import org.esprit.utils.DatabaseConnection;
+import org.esprit.utils.KeysetPaginator;
+import org.esprit.utils.Page;
+import org.esprit.utils.Sort;
 
 public class TradeOfferService implements IService<TradeOffer> {
-    private final Connection connection;
+    private static final KeysetPaginator<TradeOffer> PAGINATOR = new KeysetPaginator<TradeOffer>("id", TradeOffer::getId)
+        .sortable("creationDate", "creation_date", TradeOffer::getCreationDate);
+
     private final UserService userService;
     private final ArtworkService artworkService;
 
     public TradeOfferService() {
-        connection = DatabaseConnection.getInstance().getConnection();
         userService = new UserService();
         artworkService = new ArtworkService();
     }
@@ -31,7 +36,8 @@ public class TradeOfferService implements IService<TradeOffer> {
         String sql = "INSERT INTO trade_offer (sender, receiver_name, offered_item, received_item, description, creation_date, status) " +
                      "VALUES (?, ?, ?, ?, ?, ?, ?)";
                      
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setInt(1, tradeOffer.getSender().getId());
             stmt.setInt(2, tradeOffer.getReceiverName().getId());
             stmt.setInt(3, tradeOffer.getOfferedItem().getId());
@@ -55,7 +61,8 @@ public class TradeOfferService implements IService<TradeOffer> {
         String sql = "UPDATE trade_offer SET sender = ?, receiver_name = ?, offered_item = ?, " +
                      "received_item = ?, description = ?, status = ? WHERE id = ?";
                      
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, tradeOffer.getSender().getId());
             stmt.setInt(2, tradeOffer.getReceiverName().getId());
             stmt.setInt(3, tradeOffer.getOfferedItem().getId());
@@ -72,12 +79,11 @@ public class TradeOfferService implements IService<TradeOffer> {
     public void delete(TradeOffer tradeOffer) throws Exception {
         String sql = "DELETE FROM trade_offer WHERE id = ?";
         
-        try {
-            PreparedStatement stmt = connection.prepareStatement(sql);
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, tradeOffer.getId());
             int rowsAffected = stmt.executeUpdate();
-            stmt.close();
-            
+
             if (rowsAffected == 0) {
                 throw new Exception("No trade offer found with ID: " + tradeOffer.getId());
             }
@@ -91,7 +97,8 @@ public class TradeOfferService implements IService<TradeOffer> {
         List<TradeOffer> tradeOffers = new ArrayList<>();
         String sql = "SELECT * FROM trade_offer";
         
-        try (Statement stmt = connection.createStatement();
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             
             while (rs.next()) {
@@ -102,11 +109,31 @@ public class TradeOfferService implements IService<TradeOffer> {
         return tradeOffers;
     }
 
+    @Override
+    public Page<TradeOffer> page(Cursor after, int size, Sort sort) throws Exception {
+        List<TradeOffer> tradeOffers = new ArrayList<>();
+        String sql = "SELECT * FROM trade_offer" + PAGINATOR.clause(after, sort, false);
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            PAGINATOR.bind(stmt, 1, after, size);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    tradeOffers.add(mapResultSetToTradeOffer(rs));
+                }
+            }
+        }
+        
+        return PAGINATOR.toPage(tradeOffers, size, sort);
+    }
+    
     @Override
     public TradeOffer getOne(int id) throws Exception {
         String sql = "SELECT * FROM trade_offer WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, id);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -133,7 +160,8 @@ public class TradeOfferService implements IService<TradeOffer> {
                       "JOIN artwork o ON t.offered_item = o.id " +
                       "JOIN artwork rc ON t.received_item = rc.id";
 
-        try (Statement stmt = connection.createStatement();
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(query)) {
 
             while (rs.next()) {
@@ -187,7 +215,8 @@ public class TradeOfferService implements IService<TradeOffer> {
     public void updateTradeStatus(int tradeId, String newStatus) throws SQLException {
         String query = "UPDATE trade_offer SET status = ? WHERE id = ?";
         
-        try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(query)) {
             pstmt.setString(1, newStatus);
             pstmt.setInt(2, tradeId);
             pstmt.executeUpdate();
@@ -209,7 +238,8 @@ public class TradeOfferService implements IService<TradeOffer> {
                       "JOIN artwork rc ON t.received_item = rc.id " +
                       "WHERE t.sender = ? OR t.receiver_name = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setInt(1, userId);
             stmt.setInt(2, userId);
             
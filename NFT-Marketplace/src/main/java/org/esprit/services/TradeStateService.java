@@ -7,19 +7,18 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class TradeStateService {
-    private final Connection connection;
     private final UserService userService;
     private final ArtworkService artworkService;
 
     public TradeStateService() {
-        connection = DatabaseConnection.getInstance().getConnection();
         userService = new UserService();
         artworkService = new ArtworkService();
     }    public void add(TradeState tradeState) throws SQLException {
         String query = "INSERT INTO trade_state (trade_offer_id, received_item, offered_item, sender_id, receiver_id, description) " +
                       "VALUES (?, ?, ?, ?, ?, ?)";
         
-        try (PreparedStatement stmt = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setInt(1, tradeState.getTradeOffer().getId());
             stmt.setInt(2, tradeState.getReceivedItem().getId());
             stmt.setInt(3, tradeState.getOfferedItem().getId());
@@ -42,7 +41,8 @@ public class TradeStateService {
                       "JOIN trade_offer t ON ts.trade_offer_id = t.id " +
                       "WHERE t.status = 'pending'";
 
-        try (Statement stmt = connection.createStatement();
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(query)) {
             while (rs.next()) {
                 try {
@@ -75,7 +75,8 @@ public class TradeStateService {
         return tradeState;
     }    public void updateTradeOfferStatus(int tradeOfferId, String status) throws SQLException {
         String query = "UPDATE trade_offer SET status = ? WHERE id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, status);
             stmt.setInt(2, tradeOfferId);
             stmt.executeUpdate();
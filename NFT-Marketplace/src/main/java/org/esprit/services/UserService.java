@@ -1,5 +1,6 @@
 package org.esprit.services;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -8,18 +9,35 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.esprit.models.User;
+import org.esprit.utils.Cursor;
 import org.esprit.utils.DatabaseConnection;
+import org.esprit.utils.EntityCache;
+import org.esprit.utils.KeysetPaginator;
+import org.esprit.utils.Page;
+import org.esprit.utils.PasswordHasher;
+import org.esprit.utils.ResultStreamer;
+import org.esprit.utils.Sort;
+import org.esprit.utils.SqlUtils;
+import org.esprit.utils.TransactionManager;
 
 public class UserService implements IService<User> {
+    private static final KeysetPaginator<User> PAGINATOR = new KeysetPaginator<User>("id", User::getId)
+        .sortable("createdAt", "created_at", User::getCreatedAt)
+        .sortable("name", "name", User::getName)
+        .sortable("email", "email", User::getEmail)
+        .sortable("balance", "balance", User::getBalance);
+    // Users by ID, shared by every UserService
+    private static final EntityCache<Integer, User> CACHE = EntityCache.named("user", User::copy);
     
-    private final Connection connection;
-    
-    public UserService() {
-        connection = DatabaseConnection.getInstance().getConnection();
-    }
+    private final LedgerService ledgerService = new LedgerService();
     
     @Override
     public void add(User user) throws Exception {
@@ -27,90 +45,88 @@ public class UserService implements IService<User> {
                      "wallet_address, github_username, password_reset_token, password_reset_token_expires_at) " +
                      "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
                      
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setString(1, user.getEmail());
+        // The row and its opening balance are written together
+        TransactionManager.inTransaction(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                stmt.setString(1, user.getEmail());
             
-            // Convert roles list to JSON array format
-            String rolesJson = null;
-            if (user.getRoles() != null && !user.getRoles().isEmpty()) {
-                StringBuilder jsonBuilder = new StringBuilder("[");
-                for (int i = 0; i < user.getRoles().size(); i++) {
-                    if (i > 0) jsonBuilder.append(",");
-                    jsonBuilder.append("\"").append(user.getRoles().get(i)).append("\"");
-                }
-                jsonBuilder.append("]");
-                rolesJson = jsonBuilder.toString();
-            }
-            stmt.setString(2, rolesJson);
+                stmt.setString(2, toRolesJson(user.getRoles()));
             
-            stmt.setBigDecimal(3, user.getBalance());
-            stmt.setString(4, user.getPassword());
-            stmt.setTimestamp(5, user.getCreatedAt() != null ? 
-                             Timestamp.valueOf(user.getCreatedAt()) : Timestamp.valueOf(LocalDateTime.now()));
-            stmt.setString(6, user.getName());
-            stmt.setString(7, user.getProfilePicture());
-            stmt.setString(8, user.getWalletAddress());
-            stmt.setString(9, user.getGithubUsername());
-            stmt.setString(10, user.getPasswordResetToken());
-            stmt.setTimestamp(11, user.getPasswordResetTokenExpiresAt() != null ? 
-                             Timestamp.valueOf(user.getPasswordResetTokenExpiresAt()) : null);
+                // Starts empty; the initial balance is booked on the ledger below
+                stmt.setBigDecimal(3, BigDecimal.ZERO);
+                stmt.setString(4, user.getPassword());
+                stmt.setTimestamp(5, user.getCreatedAt() != null ? 
+                                 Timestamp.valueOf(user.getCreatedAt()) : Timestamp.valueOf(LocalDateTime.now()));
+                stmt.setString(6, user.getName());
+                stmt.setString(7, user.getProfilePicture());
+                stmt.setString(8, user.getWalletAddress());
+                stmt.setString(9, user.getGithubUsername());
+                stmt.setString(10, user.getPasswordResetToken());
+                stmt.setTimestamp(11, user.getPasswordResetTokenExpiresAt() != null ? 
+                                 Timestamp.valueOf(user.getPasswordResetTokenExpiresAt()) : null);
             
-            stmt.executeUpdate();
+                stmt.executeUpdate();
             
-            // Set the generated ID back to the user object
-            try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    user.setId(generatedKeys.getInt(1));
+                // Set the generated ID back to the user object
+                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                    if (generatedKeys.next()) {
+                        user.setId(generatedKeys.getInt(1));
+                    }
                 }
             }
-        }
+            if (user.getBalance() != null && user.getBalance().signum() != 0) {
+                ledgerService.post(LedgerService.OPENING, user.getId(), LedgerService.Leg.credit(user.getId(), user.getBalance()));
+            }
+            return null;
+        });
+        user.markClean();
     }
     
+    /**
+     * Writes the columns changed since the user was loaded or last saved, and nothing
+     * else, so concurrent changes to other columns survive and the row lock is short
+     * @param user The user, tracking its own changes
+     * @throws Exception If a database error occurs
+     */
     @Override
     public void update(User user) throws Exception {
-        String sql = "UPDATE user SET email = ?, roles = ?, balance = ?, password = ?, " +
-                     "name = ?, profile_picture = ?, wallet_address = ?, github_username = ?, " +
-                     "password_reset_token = ?, password_reset_token_expires_at = ? WHERE id = ?";
-                     
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, user.getEmail());
-            
-            // Convert roles list to JSON array format
-            String rolesJson = null;
-            if (user.getRoles() != null && !user.getRoles().isEmpty()) {
-                StringBuilder jsonBuilder = new StringBuilder("[");
-                for (int i = 0; i < user.getRoles().size(); i++) {
-                    if (i > 0) jsonBuilder.append(",");
-                    jsonBuilder.append("\"").append(user.getRoles().get(i)).append("\"");
-                }
-                jsonBuilder.append("]");
-                rolesJson = jsonBuilder.toString();
+        Set<User.Field> dirty = user.getDirtyFields();
+        if (dirty.isEmpty()) {
+            return;
+        }
+        
+        StringBuilder sql = new StringBuilder("UPDATE user SET ");
+        for (User.Field field : dirty) {
+            if (sql.charAt(sql.length() - 1) == '?') {
+                sql.append(", ");
             }
-            stmt.setString(2, rolesJson);
-            
-            stmt.setBigDecimal(3, user.getBalance());
-            stmt.setString(4, user.getPassword());
-            stmt.setString(5, user.getName());
-            stmt.setString(6, user.getProfilePicture());
-            stmt.setString(7, user.getWalletAddress());
-            stmt.setString(8, user.getGithubUsername());
-            stmt.setString(9, user.getPasswordResetToken());
-            stmt.setTimestamp(10, user.getPasswordResetTokenExpiresAt() != null ? 
-                             Timestamp.valueOf(user.getPasswordResetTokenExpiresAt()) : null);
-            stmt.setInt(11, user.getId());
-            
+            sql.append(field.getColumn()).append(" = ?");
+        }
+        sql.append(" WHERE id = ?");
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (User.Field field : dirty) {
+                bindField(stmt, index++, field, user);
+            }
+            stmt.setInt(index, user.getId());
             stmt.executeUpdate();
         }
+        invalidateCached(user.getId());
+        user.markClean();
     }
     
     @Override
     public void delete(User user) throws Exception {
         String sql = "DELETE FROM user WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, user.getId());
             stmt.executeUpdate();
         }
+        invalidateCached(user.getId());
     }
     
     @Override
@@ -118,7 +134,8 @@ public class UserService implements IService<User> {
         List<User> users = new ArrayList<>();
         String sql = "SELECT * FROM user";
         
-        try (Statement stmt = connection.createStatement();
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             
             while (rs.next()) {
@@ -129,15 +146,77 @@ public class UserService implements IService<User> {
         return users;
     }
 
+    @Override
+    public Page<User> page(Cursor after, int size, Sort sort) throws Exception {
+        List<User> users = new ArrayList<>();
+        String sql = "SELECT * FROM user" + PAGINATOR.clause(after, sort, false);
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            PAGINATOR.bind(stmt, 1, after, size);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    users.add(mapResultSetToUser(rs));
+                }
+            }
+        }
+        
+        return PAGINATOR.toPage(users, size, sort);
+    }
+    
+    /**
+     * Reads every user through a server-side cursor, without holding them all in memory
+     * @param handler Receives each user as it is read
+     * @return The number of users read
+     * @throws Exception If a database error occurs or the handler fails
+     */
+    public long stream(ResultStreamer.RowHandler<User> handler) throws Exception {
+        return ResultStreamer.stream("SELECT * FROM user", this::mapResultSetToUser, handler);
+    }
+    
     @Override
     public User getOne(int id) throws Exception {
         return getById(id);
     }
     
+    /**
+     * Served from the user cache when possible
+     * @param id The user ID
+     * @return The user, or null if there is none; a copy the caller may change
+     * @throws Exception If a database error occurs
+     */
     public User getById(int id) throws Exception {
+        return CACHE.get(id, this::loadById);
+    }
+    
+    /**
+     * Loads several users, querying only those not in the user cache, with one query
+     * per {@link SqlUtils#MAX_IN_LIST_SIZE} ids
+     * @param ids The user IDs to load; duplicates are ignored
+     * @return The users found, keyed by ID
+     * @throws Exception If a database error occurs
+     */
+    public Map<Integer, User> getByIds(Collection<Integer> ids) throws Exception {
+        return CACHE.getAll(new LinkedHashSet<>(ids), this::loadByIds);
+    }
+    
+    /**
+     * Drops a user from the cache, now and once the calling thread's transaction
+     * commits, so a read racing the change cannot cache the old row. Called by every
+     * write to the user table, including balance changes posted by {@link LedgerService}.
+     * @param userId The user's ID
+     */
+    static void invalidateCached(int userId) {
+        CACHE.invalidate(userId);
+        TransactionManager.afterCommit(() -> CACHE.invalidate(userId));
+    }
+    
+    private User loadById(int id) throws Exception {
         String sql = "SELECT * FROM user WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, id);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -150,10 +229,34 @@ public class UserService implements IService<User> {
         return null;
     }
     
+    private Map<Integer, User> loadByIds(Collection<Integer> ids) throws Exception {
+        Map<Integer, User> users = new HashMap<>();
+        for (List<Integer> chunk : SqlUtils.chunks(ids)) {
+            String sql = "SELECT * FROM user WHERE id IN (" + SqlUtils.placeholders(chunk.size()) + ")";
+            
+            try (Connection connection = DatabaseConnection.getInstance().getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    stmt.setInt(i + 1, chunk.get(i));
+                }
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        User user = mapResultSetToUser(rs);
+                        users.put(user.getId(), user);
+                    }
+                }
+            }
+        }
+        
+        return users;
+    }
+    
     public User getByEmail(String email) throws Exception {
         String sql = "SELECT * FROM user WHERE email = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setString(1, email);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -169,7 +272,8 @@ public class UserService implements IService<User> {
     public User findByUsername(String username) throws Exception {  
         String sql = "SELECT * FROM user WHERE name = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setString(1, username);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -182,6 +286,210 @@ public class UserService implements IService<User> {
         return null;
     }
     
+    /**
+     * Finds the user linked to a GitHub account
+     * @param githubUsername The GitHub login
+     * @return The user, or null if no account is linked to that login
+     * @throws Exception If a database error occurs
+     */
+    public User findByGithubUsername(String githubUsername) throws Exception {
+        String sql = "SELECT * FROM user WHERE github_username = ?";
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, githubUsername);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return mapResultSetToUser(rs);
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Finds the user owning an unexpired password reset token with one indexed lookup
+     * @param token The plain token from the reset link
+     * @return The user, or null if the token is unknown or expired
+     * @throws Exception If a database error occurs
+     */
+    public User findByResetToken(String token) throws Exception {
+        String sql = "SELECT * FROM user WHERE password_reset_token_hash = ? " +
+                     "AND password_reset_token_expires_at > NOW()";
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, PasswordHasher.hashToken(token));
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return mapResultSetToUser(rs);
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Stores a password reset token for a user. Only the token's hash is saved.
+     * @param userId The user's ID
+     * @param token The plain token sent to the user
+     * @param expiresAt When the token stops being valid
+     * @throws Exception If a database error occurs
+     */
+    public void setResetToken(int userId, String token, LocalDateTime expiresAt) throws Exception {
+        String sql = "UPDATE user SET password_reset_token = NULL, password_reset_token_hash = ?, " +
+                     "password_reset_token_expires_at = ? WHERE id = ?";
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, token != null ? PasswordHasher.hashToken(token) : null);
+            stmt.setTimestamp(2, expiresAt != null ? Timestamp.valueOf(expiresAt) : null);
+            stmt.setInt(3, userId);
+            stmt.executeUpdate();
+        }
+        invalidateCached(userId);
+    }
+    
+    /**
+     * Replaces a user's password hash without touching the rest of the row
+     * @param userId The user's ID
+     * @param passwordHash The new password, already hashed
+     * @throws Exception If a database error occurs
+     */
+    public void updatePassword(int userId, String passwordHash) throws Exception {
+        updateColumn(userId, "password", passwordHash);
+    }
+    
+    /**
+     * Replaces a user's profile picture without touching the rest of the row
+     * @param userId The user's ID
+     * @param profilePicture The picture's path or URL
+     * @throws Exception If a database error occurs
+     */
+    public void updateProfilePicture(int userId, String profilePicture) throws Exception {
+        updateColumn(userId, "profile_picture", profilePicture);
+    }
+    
+    /**
+     * Records that a user has just logged in
+     * @param userId The user's ID
+     * @throws Exception If a database error occurs
+     */
+    public void touchLastLogin(int userId) throws Exception {
+        String sql = "UPDATE user SET last_login = ? WHERE id = ?";
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
+            stmt.setInt(2, userId);
+            stmt.executeUpdate();
+        }
+        invalidateCached(userId);
+    }
+    
+    /**
+     * Adds to or takes from a user's balance as one ledger transfer against the
+     * external account; a negative delta only applies if the user can spend it
+     * @param userId The user's ID
+     * @param delta The signed amount
+     * @throws LedgerService.InsufficientBalanceException If a debit is not covered
+     * @throws Exception If a database error occurs
+     */
+    public void updateBalanceDelta(int userId, BigDecimal delta) throws Exception {
+        if (delta.signum() == 0) {
+            return;
+        }
+        ledgerService.post(LedgerService.ADJUSTMENT, userId, delta.signum() > 0
+                ? LedgerService.Leg.credit(userId, delta)
+                : LedgerService.Leg.debit(userId, delta.negate()));
+    }
+    
+    /**
+     * Clears the password reset tokens that have expired
+     * @return The number of users whose token was cleared
+     * @throws Exception If a database error occurs
+     */
+    public int purgeExpiredResetTokens() throws Exception {
+        String sql = "UPDATE user SET password_reset_token = NULL, password_reset_token_hash = NULL, " +
+                     "password_reset_token_expires_at = NULL WHERE password_reset_token_expires_at <= NOW()";
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int purged = stmt.executeUpdate();
+            if (purged > 0) {
+                CACHE.invalidateAll();
+            }
+            return purged;
+        }
+    }
+    
+    private void updateColumn(int userId, String column, String value) throws Exception {
+        String sql = "UPDATE user SET " + column + " = ? WHERE id = ?";
+        
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, value);
+            stmt.setInt(2, userId);
+            stmt.executeUpdate();
+        }
+        invalidateCached(userId);
+    }
+    
+    private void bindField(PreparedStatement stmt, int index, User.Field field, User user) throws SQLException {
+        switch (field) {
+            case EMAIL:
+                stmt.setString(index, user.getEmail());
+                break;
+            case ROLES:
+                stmt.setString(index, toRolesJson(user.getRoles()));
+                break;
+            case PASSWORD:
+                stmt.setString(index, user.getPassword());
+                break;
+            case NAME:
+                stmt.setString(index, user.getName());
+                break;
+            case PROFILE_PICTURE:
+                stmt.setString(index, user.getProfilePicture());
+                break;
+            case WALLET_ADDRESS:
+                stmt.setString(index, user.getWalletAddress());
+                break;
+            case GITHUB_USERNAME:
+                stmt.setString(index, user.getGithubUsername());
+                break;
+            case PASSWORD_RESET_TOKEN:
+                stmt.setString(index, user.getPasswordResetToken());
+                break;
+            case PASSWORD_RESET_TOKEN_EXPIRES_AT:
+                stmt.setTimestamp(index, user.getPasswordResetTokenExpiresAt() != null ?
+                                  Timestamp.valueOf(user.getPasswordResetTokenExpiresAt()) : null);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown user field " + field);
+        }
+    }
+    
+    /**
+     * Converts a roles list to the JSON array stored in the roles column
+     */
+    private static String toRolesJson(List<String> roles) {
+        if (roles == null || roles.isEmpty()) {
+            return null;
+        }
+        StringBuilder jsonBuilder = new StringBuilder("[");
+        for (int i = 0; i < roles.size(); i++) {
+            if (i > 0) jsonBuilder.append(",");
+            jsonBuilder.append("\"").append(roles.get(i)).append("\"");
+        }
+        jsonBuilder.append("]");
+        return jsonBuilder.toString();
+    }
+    
     private User mapResultSetToUser(ResultSet rs) throws SQLException {
         User user = new User();
         user.setId(rs.getInt("id"));
@@ -229,6 +537,13 @@ public class UserService implements IService<User> {
             user.setPasswordResetTokenExpiresAt(resetTokenExpiry.toLocalDateTime());
         }
         
+        Timestamp lastLogin = rs.getTimestamp("last_login");
+        if (lastLogin != null) {
+            user.setLastLogin(lastLogin.toLocalDateTime());
+        }
+        
+        // Freshly read, so nothing is pending
+        user.markClean();
         return user;
     }
 }
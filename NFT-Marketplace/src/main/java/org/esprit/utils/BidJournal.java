@@ -0,0 +1,312 @@
+package org.esprit.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of accepted bids, so bids acknowledged before they reach MySQL
+ * survive a crash. Records have a fixed size and are written into memory-mapped
+ * segment files; a full segment is forced to disk and a new one is started. A
+ * background thread forces the current segment every few milliseconds, which bounds
+ * what an OS crash can lose; a process crash loses nothing since mapped pages live
+ * in the page cache.
+ *
+ * Record layout, big-endian: sequence (8), session id (4), author id (4),
+ * value (8), time in epoch millis (8), CRC32 of the preceding 32 bytes (4).
+ * Unwritten space is zeros, which never carries a valid CRC, so replay stops at the
+ * first record that does not check out.
+ */
+public class BidJournal implements AutoCloseable {
+
+    public static final int RECORD_SIZE = 36;
+    private static final int PAYLOAD_SIZE = RECORD_SIZE - 4;
+    private static final String SEGMENT_PREFIX = "bids-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String ID_FILE = "journal.id";
+
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final ScheduledExecutorService syncer;
+    // Closed segments this run, by index, with the highest sequence each holds
+    private final TreeMap<Long, Long> closedSegments = new TreeMap<>();
+    private final CRC32 crc = new CRC32();
+    private final byte[] payload = new byte[PAYLOAD_SIZE];
+    private final ByteBuffer payloadBuffer = ByteBuffer.wrap(payload);
+
+    private long segmentIndex;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long segmentMaxSequence;
+    private boolean dirty;
+
+    /**
+     * Opens the journal and starts a fresh segment after any existing ones; call
+     * {@link #replay} first to read what earlier runs left behind
+     * @param directory Where segment files live; created if missing
+     * @param segmentBytes Segment size, rounded down to whole records
+     * @param syncMillis How often the current segment is forced to disk; 0 disables the background sync
+     * @throws IOException If the directory or first segment cannot be created
+     */
+    public BidJournal(Path directory, long segmentBytes, long syncMillis) throws IOException {
+        this.directory = directory;
+        this.recordsPerSegment = (int) Math.min(Integer.MAX_VALUE / RECORD_SIZE, segmentBytes / RECORD_SIZE);
+        if (recordsPerSegment < 1) {
+            throw new IllegalArgumentException("Segment must hold at least one record");
+        }
+        Files.createDirectories(directory);
+
+        List<Long> existing = segmentIndexes(directory);
+        segmentIndex = existing.isEmpty() ? 0 : existing.get(existing.size() - 1);
+        openNextSegment();
+
+        if (syncMillis > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "bid-journal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::syncQuietly, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * Appends one record, rolling to a new segment when the current one is full
+     * @param entry The accepted bid
+     * @throws IOException If a new segment cannot be created
+     */
+    public synchronized void append(Entry entry) throws IOException {
+        if (buffer.remaining() < RECORD_SIZE) {
+            rollSegment();
+        }
+
+        payloadBuffer.clear();
+        payloadBuffer.putLong(entry.sequence)
+                .putInt(entry.sessionId)
+                .putInt(entry.authorId)
+                .putDouble(entry.value)
+                .putLong(entry.timeMillis);
+        crc.reset();
+        crc.update(payload, 0, PAYLOAD_SIZE);
+
+        buffer.put(payload).putInt((int) crc.getValue());
+        segmentMaxSequence = Math.max(segmentMaxSequence, entry.sequence);
+        dirty = true;
+    }
+
+    /**
+     * Forces everything appended so far to disk
+     */
+    public synchronized void sync() {
+        if (dirty) {
+            buffer.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Deletes closed segments whose records are all at or below the checkpoint
+     * @param checkpoint The highest sequence known to be stored in the database
+     * @return The number of segments deleted
+     * @throws IOException If a segment cannot be deleted
+     */
+    public synchronized int truncate(long checkpoint) throws IOException {
+        int deleted = 0;
+        while (!closedSegments.isEmpty() && closedSegments.firstEntry().getValue() <= checkpoint) {
+            Files.deleteIfExists(segmentPath(directory, closedSegments.pollFirstEntry().getKey()));
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes segments left by earlier runs, once they have been replayed
+     * @param index Segments with a lower index are deleted
+     * @throws IOException If a segment cannot be deleted
+     */
+    public synchronized void deleteSegmentsBefore(long index) throws IOException {
+        for (Long existing : segmentIndexes(directory)) {
+            if (existing < index) {
+                Files.deleteIfExists(segmentPath(directory, existing));
+            }
+        }
+    }
+
+    /**
+     * @return The index of the segment being written; earlier indexes are older segments
+     */
+    public synchronized long getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    /**
+     * Returns the ID of the journal kept in a directory, creating one the first time.
+     * Sequences are only unique within one journal, so whatever records how far a
+     * journal was stored must be keyed by this ID.
+     * @param directory The journal directory; created if missing
+     * @return The journal's ID
+     * @throws IOException If the ID file cannot be read or written
+     */
+    public static String journalId(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(ID_FILE);
+        if (Files.exists(file)) {
+            String id = new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+            if (!id.isEmpty()) {
+                return id;
+            }
+        }
+        String id = UUID.randomUUID().toString();
+        // Written aside and moved in, so a crash never leaves a partial ID behind
+        Path temporary = directory.resolve(ID_FILE + ".tmp");
+        Files.write(temporary, id.getBytes(StandardCharsets.US_ASCII));
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return id;
+    }
+
+    /**
+     * Reads every valid record of the segments in a directory, oldest first
+     * @param directory The journal directory
+     * @param afterSequence Only records with a higher sequence are passed on
+     * @param handler Receives each record
+     * @return The highest sequence found, or afterSequence if none is higher
+     * @throws IOException If a segment cannot be read
+     */
+    public static long replay(Path directory, long afterSequence, Consumer<Entry> handler) throws IOException {
+        long highest = afterSequence;
+        if (!Files.isDirectory(directory)) {
+            return highest;
+        }
+        CRC32 crc = new CRC32();
+        byte[] payload = new byte[PAYLOAD_SIZE];
+        for (Long index : segmentIndexes(directory)) {
+            try (FileChannel channel = FileChannel.open(segmentPath(directory, index), StandardOpenOption.READ)) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (segment.remaining() >= RECORD_SIZE) {
+                    segment.get(payload);
+                    int storedCrc = segment.getInt();
+                    crc.reset();
+                    crc.update(payload, 0, PAYLOAD_SIZE);
+                    if ((int) crc.getValue() != storedCrc) {
+                        // End of written data, or a record torn by the crash
+                        break;
+                    }
+                    ByteBuffer record = ByteBuffer.wrap(payload);
+                    Entry entry = new Entry(record.getLong(), record.getInt(), record.getInt(), record.getDouble(), record.getLong());
+                    if (entry.sequence > afterSequence) {
+                        handler.accept(entry);
+                        highest = Math.max(highest, entry.sequence);
+                    }
+                }
+            }
+        }
+        return highest;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        sync();
+        channel.close();
+    }
+
+    private void rollSegment() throws IOException {
+        buffer.force();
+        dirty = false;
+        channel.close();
+        closedSegments.put(segmentIndex, segmentMaxSequence);
+        openNextSegment();
+    }
+
+    private void openNextSegment() throws IOException {
+        segmentIndex++;
+        segmentMaxSequence = 0;
+        channel = FileChannel.open(segmentPath(directory, segmentIndex),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Mapping extends the file; the new space reads as zeros
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) recordsPerSegment * RECORD_SIZE);
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (Exception e) {
+            System.err.println("Bid journal sync failed: " + e.getMessage());
+        }
+    }
+
+    private static Path segmentPath(Path directory, long index) {
+        return directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static List<Long> segmentIndexes(Path directory) throws IOException {
+        List<Long> indexes = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                indexes.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        indexes.sort(null);
+        return indexes;
+    }
+
+    /**
+     * One journaled bid
+     */
+    public static final class Entry {
+        private final long sequence;
+        private final int sessionId;
+        private final int authorId;
+        private final double value;
+        private final long timeMillis;
+
+        public Entry(long sequence, int sessionId, int authorId, double value, long timeMillis) {
+            this.sequence = sequence;
+            this.sessionId = sessionId;
+            this.authorId = authorId;
+            this.value = value;
+            this.timeMillis = timeMillis;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public int getSessionId() {
+            return sessionId;
+        }
+
+        public int getAuthorId() {
+            return authorId;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+    }
+}
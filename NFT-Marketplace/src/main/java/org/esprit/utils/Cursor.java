@@ -0,0 +1,35 @@
+package org.esprit.utils;
+
+/**
+ * Position after which the next page starts: the sort value and id of the last row
+ * already returned. Cursors are only valid for the sort they were produced with.
+ */
+public class Cursor {
+
+    private final Sort sort;
+    private final Object value;
+    private final int id;
+
+    public Cursor(Sort sort, Object value, int id) {
+        this.sort = sort;
+        this.value = value;
+        this.id = id;
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return "Cursor{" + sort + ", value=" + value + ", id=" + id + "}";
+    }
+}
@@ -1,7 +1,6 @@
 package org.esprit.utils;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 //Singleton Design Pattern
@@ -10,51 +9,52 @@ public class DatabaseConnection {
     private final String URL = "jdbc:mysql://localhost:3306/sou9_nft";
     private final String USER = "root";
     private final String PASS = "";
-    private Connection connection;
+    private final ConnectionPool pool;
     private static DatabaseConnection instance;
 
     private DatabaseConnection(){
         try {
             // Load the JDBC driver explicitly
             Class.forName("com.mysql.cj.jdbc.Driver");
-            
-            // Establish connection with timeout and additional parameters
-            connection = DriverManager.getConnection(
-                URL + "?connectTimeout=5000&useSSL=false&allowPublicKeyRetrieval=true", 
-                USER, 
-                PASS
-            );
-            System.out.println("Database connection established successfully!");
         } catch (ClassNotFoundException e) {
             System.err.println("MySQL JDBC Driver not found: " + e.getMessage());
             e.printStackTrace();
-        } catch (SQLException e) {
-            System.err.println("Database connection error: " + e.getMessage());
-            e.printStackTrace();
-        } catch (Exception e) {
-            System.err.println("Unexpected error establishing connection: " + e.getMessage());
-            e.printStackTrace();
         }
+
+        ConfigManager config = ConfigManager.getInstance();
+        pool = new ConnectionPool(
+            URL + "?connectTimeout=5000&useSSL=false&allowPublicKeyRetrieval=true",
+            USER,
+            PASS,
+            Integer.parseInt(config.getProperty("db.pool.max.size", "10")),
+            Long.parseLong(config.getProperty("db.pool.borrow.timeout.ms", "10000")),
+            Long.parseLong(config.getProperty("db.pool.idle.timeout.ms", "300000")),
+            Long.parseLong(config.getProperty("db.pool.max.lifetime.ms", "1800000"))
+        );
     }
 
-    public static DatabaseConnection getInstance(){
+    public static synchronized DatabaseConnection getInstance(){
         if(instance == null)
             instance = new DatabaseConnection();
         return instance;
     }
 
-    public Connection getConnection() {
-        try {
-            // Check if connection is closed or invalid, and reconnect if needed
-            if (connection == null || connection.isClosed()) {
-                System.out.println("Connection was null or closed, attempting to reconnect...");
-                instance = new DatabaseConnection();
-                connection = instance.connection;
-            }
-        } catch (SQLException e) {
-            System.err.println("Error checking connection status: " + e.getMessage());
-            e.printStackTrace();
+    /**
+     * Borrows a connection from the pool. Callers must close it (try-with-resources)
+     * so it goes back to the pool. Inside {@link TransactionManager#inTransaction}
+     * this returns the calling thread's transaction connection instead.
+     * @return A validated pooled connection
+     * @throws SQLException If no connection could be obtained
+     */
+    public Connection getConnection() throws SQLException {
+        Connection transactional = TransactionManager.currentConnection();
+        if (transactional != null) {
+            return transactional;
         }
-        return connection;
+        return pool.borrow();
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
     }
-}
\ No newline at end of file
+}
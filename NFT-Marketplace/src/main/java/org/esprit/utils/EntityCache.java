@@ -0,0 +1,460 @@
+package org.esprit.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * In-process cache for entities looked up by ID, with W-TinyLFU admission.
+ * New entries land in a small LRU window; entries leaving the window only enter the
+ * main segmented LRU if a frequency sketch says they are used more often than the
+ * entry they would evict. One-off lookups, such as a scan over every user, therefore
+ * cannot flush the entries that are read again and again. Entries also expire a fixed
+ * time after they were loaded, which bounds how stale a change made by another
+ * process can get; changes made here should call {@link #invalidate}.
+ *
+ * Mutable entities are cached through a copier: the cache keeps its own copy and hands
+ * each caller a fresh one, so a caller can change what it got without the change
+ * showing up for anyone else before it is saved. Every cache is registered under its
+ * name so its statistics can be read from one place.
+ */
+public class EntityCache<K, V> {
+
+    private static final Map<String, EntityCache<?, ?>> REGISTRY = new LinkedHashMap<>();
+
+    private final String name;
+    private final int maximumSize;
+    private final long ttlMillis;
+    private final int windowMax;
+    private final int protectedMax;
+    private final FrequencySketch sketch;
+    private final UnaryOperator<V> copier;
+
+    private final Map<K, Node<V>> nodes = new HashMap<>();
+    // Access-ordered, least recently used first
+    private final LinkedHashMap<K, Node<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<V>> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    // Bumped by every invalidation, so a load that raced with one is not stored
+    private long invalidationEpoch;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    /**
+     * Creates a cache for immutable values, which are handed out as stored
+     * @param name The name the cache is registered and reported under
+     * @param maximumSize The most entries kept
+     * @param ttl How long an entry is served after it was loaded
+     * @param unit The unit of ttl
+     */
+    public EntityCache(String name, int maximumSize, long ttl, TimeUnit unit) {
+        this(name, maximumSize, ttl, unit, UnaryOperator.identity());
+    }
+
+    /**
+     * @param name The name the cache is registered and reported under
+     * @param maximumSize The most entries kept
+     * @param ttl How long an entry is served after it was loaded
+     * @param unit The unit of ttl
+     * @param copier Copies a value on its way into and out of the cache
+     */
+    public EntityCache(String name, int maximumSize, long ttl, TimeUnit unit, UnaryOperator<V> copier) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1");
+        }
+        this.name = name;
+        this.maximumSize = maximumSize;
+        this.ttlMillis = unit.toMillis(ttl);
+        this.copier = copier;
+        // 1% window, and 80% of the main segment for entries read more than once
+        this.windowMax = Math.max(1, maximumSize / 100);
+        this.protectedMax = (int) ((maximumSize - windowMax) * 0.8);
+        this.sketch = new FrequencySketch(maximumSize);
+        synchronized (REGISTRY) {
+            REGISTRY.put(name, this);
+        }
+    }
+
+    /**
+     * Creates a cache sized from config.properties: cache.&lt;name&gt;.size and
+     * cache.&lt;name&gt;.ttl.seconds, falling back to cache.size and cache.ttl.seconds
+     * @param name The cache name, e.g. "user"
+     * @param copier Copies an entity, e.g. User::copy
+     */
+    public static <K, V> EntityCache<K, V> named(String name, UnaryOperator<V> copier) {
+        ConfigManager config = ConfigManager.getInstance();
+        int size = Integer.parseInt(config.getProperty("cache." + name + ".size",
+                config.getProperty("cache.size", "1000")));
+        long ttlSeconds = Long.parseLong(config.getProperty("cache." + name + ".ttl.seconds",
+                config.getProperty("cache.ttl.seconds", "300")));
+        return new EntityCache<>(name, size, ttlSeconds, TimeUnit.SECONDS, copier);
+    }
+
+    /**
+     * @return Every cache created in this process, in creation order
+     */
+    public static List<EntityCache<?, ?>> all() {
+        synchronized (REGISTRY) {
+            return new ArrayList<>(REGISTRY.values());
+        }
+    }
+
+    /**
+     * @param key The entity ID
+     * @return A copy of the cached value, or null if absent or expired
+     */
+    public synchronized V getIfPresent(K key) {
+        sketch.increment(key);
+        Node<V> node = nodes.get(key);
+        if (node == null) {
+            misses++;
+            return null;
+        }
+        if (System.currentTimeMillis() - node.loadedAt > ttlMillis) {
+            remove(key, node);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        onHit(key, node);
+        return copier.apply(node.value);
+    }
+
+    /**
+     * Returns the cached value, loading and caching it on a miss. The loader runs
+     * outside the cache's lock, so a slow query does not block other lookups.
+     * @param key The entity ID
+     * @param loader Reads the entity from the database
+     * @return The value, or null if the loader found nothing (which is not cached)
+     * @throws Exception If the loader fails
+     */
+    public V get(K key, Loader<K, V> loader) throws Exception {
+        long epoch;
+        synchronized (this) {
+            V cached = getIfPresent(key);
+            if (cached != null) {
+                return cached;
+            }
+            epoch = invalidationEpoch;
+        }
+        V loaded = loader.load(key);
+        if (loaded != null) {
+            putIfNotInvalidated(key, loaded, epoch);
+        }
+        return loaded;
+    }
+
+    /**
+     * Returns the cached values of the keys, loading the missing ones with one call
+     * @param keys The entity IDs
+     * @param loader Reads the missing entities, keyed by ID
+     * @return The values found, keyed by ID
+     * @throws Exception If the loader fails
+     */
+    public Map<K, V> getAll(Collection<K> keys, BulkLoader<K, V> loader) throws Exception {
+        Map<K, V> result = new HashMap<>();
+        List<K> missing = new ArrayList<>();
+        long epoch;
+        synchronized (this) {
+            for (K key : keys) {
+                if (result.containsKey(key)) {
+                    continue;
+                }
+                V cached = getIfPresent(key);
+                if (cached != null) {
+                    result.put(key, cached);
+                } else {
+                    missing.add(key);
+                }
+            }
+            epoch = invalidationEpoch;
+        }
+        if (!missing.isEmpty()) {
+            Map<K, V> loaded = loader.loadAll(missing);
+            for (Map.Entry<K, V> entry : loaded.entrySet()) {
+                putIfNotInvalidated(entry.getKey(), entry.getValue(), epoch);
+            }
+            result.putAll(loaded);
+        }
+        return result;
+    }
+
+    /**
+     * Caches a copy of a value, replacing any cached one; the caller keeps its own
+     */
+    public synchronized void put(K key, V value) {
+        value = copier.apply(value);
+        Node<V> node = nodes.get(key);
+        if (node != null) {
+            node.value = value;
+            node.loadedAt = System.currentTimeMillis();
+            onHit(key, node);
+            return;
+        }
+        node = new Node<>(value, System.currentTimeMillis());
+        node.segment = Segment.WINDOW;
+        nodes.put(key, node);
+        window.put(key, node);
+        if (window.size() > windowMax) {
+            // The window's least recently used entry competes for a place in the main segment
+            K candidate = eldest(window);
+            Node<V> candidateNode = window.remove(candidate);
+            candidateNode.segment = Segment.PROBATION;
+            probation.put(candidate, candidateNode);
+            if (nodes.size() > maximumSize) {
+                evictFromMain(candidate);
+            }
+        }
+    }
+
+    /**
+     * Drops a key, e.g. after the entity was updated or deleted
+     */
+    public synchronized void invalidate(K key) {
+        invalidationEpoch++;
+        Node<V> node = nodes.get(key);
+        if (node != null) {
+            remove(key, node);
+        }
+    }
+
+    /**
+     * Drops every entry, e.g. after a bulk update
+     */
+    public synchronized void invalidateAll() {
+        invalidationEpoch++;
+        nodes.clear();
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return Entries dropped to stay within the maximum size
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return Entries dropped because they outlived the time to live
+     */
+    public synchronized long getExpirationCount() {
+        return expirations;
+    }
+
+    public synchronized double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: size=%d/%d hits=%d misses=%d hitRate=%.1f%% evictions=%d expirations=%d",
+                name, nodes.size(), maximumSize, hits, misses, getHitRate() * 100, evictions, expirations);
+    }
+
+    private synchronized void putIfNotInvalidated(K key, V value, long epoch) {
+        if (epoch == invalidationEpoch) {
+            put(key, value);
+        }
+    }
+
+    private void onHit(K key, Node<V> node) {
+        switch (node.segment) {
+            case WINDOW:
+                window.get(key);
+                break;
+            case PROBATION:
+                // Read again while on probation: promote, demoting the protected LRU if full
+                probation.remove(key);
+                node.segment = Segment.PROTECTED;
+                protectedSegment.put(key, node);
+                if (protectedSegment.size() > protectedMax) {
+                    K demoted = eldest(protectedSegment);
+                    Node<V> demotedNode = protectedSegment.remove(demoted);
+                    demotedNode.segment = Segment.PROBATION;
+                    probation.put(demoted, demotedNode);
+                }
+                break;
+            case PROTECTED:
+                protectedSegment.get(key);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Evicts either the candidate just admitted to probation or probation's least
+     * recently used entry, whichever the sketch says is used less often
+     */
+    private void evictFromMain(K candidate) {
+        K victim = eldest(probation);
+        if (victim == null || victim.equals(candidate)) {
+            victim = probation.size() > 1 ? secondEldest(probation) : eldest(protectedSegment);
+        }
+        K evicted;
+        if (victim == null) {
+            evicted = candidate;
+        } else {
+            // Ties go to the resident entry, so a scan cannot displace it
+            evicted = sketch.frequency(candidate) > sketch.frequency(victim) ? victim : candidate;
+        }
+        remove(evicted, nodes.get(evicted));
+        evictions++;
+    }
+
+    private void remove(K key, Node<V> node) {
+        nodes.remove(key);
+        switch (node.segment) {
+            case WINDOW:
+                window.remove(key);
+                break;
+            case PROBATION:
+                probation.remove(key);
+                break;
+            case PROTECTED:
+                protectedSegment.remove(key);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static <K> K eldest(LinkedHashMap<K, ?> segment) {
+        Iterator<K> keys = segment.keySet().iterator();
+        return keys.hasNext() ? keys.next() : null;
+    }
+
+    private static <K> K secondEldest(LinkedHashMap<K, ?> segment) {
+        Iterator<K> keys = segment.keySet().iterator();
+        keys.next();
+        return keys.next();
+    }
+
+    private enum Segment {
+        WINDOW, PROBATION, PROTECTED
+    }
+
+    private static final class Node<V> {
+        private V value;
+        private long loadedAt;
+        private Segment segment;
+
+        private Node(V value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters estimating how often each key was requested.
+     * All counters are halved once the sample reaches ten times the cache size, so
+     * the estimate follows recent popularity rather than all-time totals.
+     */
+    private static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int[] SEEDS = { 0x97cb3127, 0xb0a3a6f5, 0x85ebca6b, 0xc2b2ae35 };
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(int maximumSize) {
+            int width = Integer.highestOneBit(Math.max(16, maximumSize * 2) - 1) << 1;
+            counters = new byte[DEPTH][width];
+            mask = width - 1;
+            sampleSize = 10 * maximumSize;
+        }
+
+        private void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int row = 0; row < DEPTH; row++) {
+                int index = index(hash, row);
+                if (counters[row][index] < 15) {
+                    counters[row][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int frequency = 15;
+            for (int row = 0; row < DEPTH; row++) {
+                frequency = Math.min(frequency, counters[row][index(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private void reset() {
+            for (byte[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+
+        private int index(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private static int spread(int hash) {
+            hash ^= hash >>> 17;
+            hash *= 0xed5ad4bb;
+            hash ^= hash >>> 11;
+            hash *= 0xac4c1b51;
+            return hash ^ (hash >>> 15);
+        }
+    }
+
+    /**
+     * Loads one entity on a miss
+     */
+    @FunctionalInterface
+    public interface Loader<K, V> {
+        V load(K key) throws Exception;
+    }
+
+    /**
+     * Loads several entities on a miss, keyed by ID
+     */
+    @FunctionalInterface
+    public interface BulkLoader<K, V> {
+        Map<K, V> loadAll(Collection<K> keys) throws Exception;
+    }
+}
@@ -0,0 +1,81 @@
+package org.esprit.utils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-process publish/subscribe for domain events.
+ * Subscribers are called synchronously on the publishing thread, so UI subscribers
+ * must hop to the FX thread themselves. Events published inside a transaction are
+ * delivered once it commits, and dropped if it rolls back.
+ */
+public class EventBus {
+
+    private static EventBus instance;
+
+    private final List<Subscriber<?>> subscribers = new CopyOnWriteArrayList<>();
+
+    private EventBus() {
+    }
+
+    public static synchronized EventBus getInstance() {
+        if (instance == null) {
+            instance = new EventBus();
+        }
+        return instance;
+    }
+
+    /**
+     * Registers a handler for an event type and its subtypes
+     * @param type The event type
+     * @param handler Called with each matching event
+     * @return A handle that removes the subscription when cancelled
+     */
+    public <T> Subscription subscribe(Class<T> type, Consumer<? super T> handler) {
+        Subscriber<T> subscriber = new Subscriber<>(type, handler);
+        subscribers.add(subscriber);
+        return () -> subscribers.remove(subscriber);
+    }
+
+    /**
+     * Delivers an event to every matching subscriber, after the current transaction commits
+     * @param event The event
+     */
+    public void publish(Object event) {
+        TransactionManager.afterCommit(() -> deliver(event));
+    }
+
+    private void deliver(Object event) {
+        for (Subscriber<?> subscriber : subscribers) {
+            try {
+                subscriber.accept(event);
+            } catch (Exception e) {
+                // One faulty subscriber must not starve the others
+                System.err.println("Event subscriber failed on " + event.getClass().getSimpleName() + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface Subscription {
+        void cancel();
+    }
+
+    private static class Subscriber<T> {
+        private final Class<T> type;
+        private final Consumer<? super T> handler;
+
+        private Subscriber(Class<T> type, Consumer<? super T> handler) {
+            this.type = type;
+            this.handler = handler;
+        }
+
+        private void accept(Object event) {
+            if (type.isInstance(event)) {
+                handler.accept(type.cast(event));
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.esprit.utils;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Builds and binds seek (keyset) pagination clauses for one table.
+ * Instead of OFFSET, each page continues from the (sort value, id) of the previous
+ * page's last row, so with an index on (column, id) every page costs the same.
+ * Only whitelisted NOT NULL columns can be sorted on.
+ * @param <T> The entity type
+ */
+public class KeysetPaginator<T> {
+
+    /**
+     * Largest page a caller may request
+     */
+    public static final int MAX_PAGE_SIZE = 500;
+
+    /**
+     * Order used when the caller passes no sort
+     */
+    public static final Sort DEFAULT_SORT = Sort.asc("id");
+
+    private final String idColumn;
+    private final Function<T, Integer> idOf;
+    private final Map<String, SortKey<T>> sortKeys = new LinkedHashMap<>();
+
+    /**
+     * @param idColumn The qualified primary key column, e.g. "a.id"
+     * @param idOf Reads the primary key of an entity
+     */
+    public KeysetPaginator(String idColumn, Function<T, Integer> idOf) {
+        this.idColumn = idColumn;
+        this.idOf = idOf;
+        sortKeys.put("id", new SortKey<>(idColumn, entity -> idOf.apply(entity)));
+    }
+
+    /**
+     * Allows sorting on a column
+     * @param property The name callers use in {@link Sort}
+     * @param column The qualified column; it must be NOT NULL
+     * @param valueOf Reads the column's value from an entity, to build the next cursor
+     * @return this, for chaining
+     */
+    public KeysetPaginator<T> sortable(String property, String column, Function<T, Object> valueOf) {
+        sortKeys.put(property, new SortKey<>(column, valueOf));
+        return this;
+    }
+
+    /**
+     * Builds the seek condition, ORDER BY and LIMIT to append to a SELECT
+     * @param after The cursor of the previous page, or null for the first page
+     * @param sort The requested sort, or null for {@link #DEFAULT_SORT}
+     * @param hasWhere Whether the SELECT already has a WHERE clause
+     * @return The SQL suffix; bind it with {@link #bind}
+     */
+    public String clause(Cursor after, Sort sort, boolean hasWhere) {
+        sort = sort != null ? sort : DEFAULT_SORT;
+        SortKey<T> key = keyFor(sort);
+        checkCursor(after, sort);
+        String order = sort.getDirection() == Sort.Direction.ASC ? "ASC" : "DESC";
+        String comparison = sort.getDirection() == Sort.Direction.ASC ? ">" : "<";
+
+        StringBuilder sql = new StringBuilder();
+        if (after != null) {
+            sql.append(hasWhere ? " AND " : " WHERE ");
+            if (isIdKey(key)) {
+                sql.append(idColumn).append(' ').append(comparison).append(" ?");
+            } else {
+                sql.append('(').append(key.column).append(' ').append(comparison).append(" ? OR (")
+                   .append(key.column).append(" = ? AND ").append(idColumn).append(' ')
+                   .append(comparison).append(" ?))");
+            }
+        }
+        sql.append(" ORDER BY ");
+        if (!isIdKey(key)) {
+            sql.append(key.column).append(' ').append(order).append(", ");
+        }
+        sql.append(idColumn).append(' ').append(order).append(" LIMIT ?");
+        return sql.toString();
+    }
+
+    /**
+     * Binds the parameters of {@link #clause}
+     * @param stmt The statement
+     * @param index The index of the first parameter of the clause
+     * @param after The cursor passed to {@link #clause}
+     * @param size The requested page size
+     * @throws SQLException If a parameter cannot be bound
+     */
+    public void bind(PreparedStatement stmt, int index, Cursor after, int size) throws SQLException {
+        checkSize(size);
+        if (after != null) {
+            if (isIdKey(keyFor(after.getSort()))) {
+                stmt.setInt(index++, after.getId());
+            } else {
+                Object value = toJdbc(after.getValue());
+                stmt.setObject(index++, value);
+                stmt.setObject(index++, value);
+                stmt.setInt(index++, after.getId());
+            }
+        }
+        // One extra row tells whether another page follows
+        stmt.setInt(index, size + 1);
+    }
+
+    /**
+     * Trims the over-fetched rows to a page and builds the cursor of the next one
+     * @param rows The rows read with {@link #clause}, in query order
+     * @param size The requested page size
+     * @param sort The requested sort, or null for {@link #DEFAULT_SORT}
+     * @return The page
+     */
+    public Page<T> toPage(List<T> rows, int size, Sort sort) {
+        sort = sort != null ? sort : DEFAULT_SORT;
+        if (rows.size() <= size) {
+            return new Page<>(rows, null);
+        }
+        List<T> items = new ArrayList<>(rows.subList(0, size));
+        T last = items.get(items.size() - 1);
+        return new Page<>(items, new Cursor(sort, keyFor(sort).valueOf.apply(last), idOf.apply(last)));
+    }
+
+    private SortKey<T> keyFor(Sort sort) {
+        SortKey<T> key = sortKeys.get(sort.getProperty());
+        if (key == null) {
+            throw new IllegalArgumentException("Cannot sort on '" + sort.getProperty() + "', expected one of " + sortKeys.keySet());
+        }
+        return key;
+    }
+
+    private boolean isIdKey(SortKey<T> key) {
+        return key.column.equals(idColumn);
+    }
+
+    private void checkCursor(Cursor after, Sort sort) {
+        if (after != null && (!after.getSort().getProperty().equals(sort.getProperty())
+                || after.getSort().getDirection() != sort.getDirection())) {
+            throw new IllegalArgumentException("Cursor was created for " + after.getSort() + ", not " + sort);
+        }
+    }
+
+    private void checkSize(int size) {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+    }
+
+    private static Object toJdbc(Object value) {
+        if (value instanceof LocalDateTime) {
+            return Timestamp.valueOf((LocalDateTime) value);
+        }
+        if (value instanceof LocalDate) {
+            return java.sql.Date.valueOf((LocalDate) value);
+        }
+        if (value instanceof java.util.Date && !(value instanceof java.sql.Timestamp) && !(value instanceof java.sql.Date)) {
+            return new Timestamp(((java.util.Date) value).getTime());
+        }
+        return value;
+    }
+
+    private static class SortKey<T> {
+        private final String column;
+        private final Function<T, Object> valueOf;
+
+        private SortKey(String column, Function<T, Object> valueOf) {
+            this.column = column;
+            this.valueOf = valueOf;
+        }
+    }
+}
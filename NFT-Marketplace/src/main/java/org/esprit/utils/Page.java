@@ -0,0 +1,39 @@
+package org.esprit.utils;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated listing
+ * @param <T> The entity type
+ */
+public class Page<T> {
+
+    private final List<T> items;
+    private final Cursor next;
+
+    public Page(List<T> items, Cursor next) {
+        this.items = Collections.unmodifiableList(items);
+        this.next = next;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return The cursor to pass to get the following page, or null on the last page
+     */
+    public Cursor getNext() {
+        return next;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public String toString() {
+        return "Page{size=" + items.size() + ", hasNext=" + hasNext() + "}";
+    }
+}
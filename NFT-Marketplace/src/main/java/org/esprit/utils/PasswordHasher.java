@@ -1,5 +1,9 @@
 package org.esprit.utils;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import org.mindrot.jbcrypt.BCrypt;
 
 /**
@@ -54,4 +58,27 @@ public class PasswordHasher {
         return hashedPassword == null || 
                !(hashedPassword.startsWith("$2a$") || hashedPassword.startsWith("$2y$") || hashedPassword.startsWith("$2b$"));
     }
-}
\ No newline at end of file
+
+    /**
+     * Hash a single-use token (e.g. a password reset token) for storage and lookup.
+     * Tokens are long random values, so a fast unsalted digest is enough and keeps
+     * the stored value usable as an index key.
+     * 
+     * @param token the plain token
+     * @return the lowercase hex SHA-256 of the token, as MySQL's SHA2(token, 256) returns it
+     */
+    public static String hashToken(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(token.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to provide SHA-256
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
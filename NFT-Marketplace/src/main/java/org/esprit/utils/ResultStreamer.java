@@ -0,0 +1,57 @@
+package org.esprit.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/**
+ * Reads large result sets row by row through a MySQL server-side cursor.
+ * With a fetch size of Integer.MIN_VALUE the driver streams rows instead of buffering
+ * the whole result, so heap use stays constant however many rows are read.
+ * While a stream is open its connection cannot run other statements, so handlers that
+ * need the database must get their own connection (outside a transaction, the pool does that).
+ */
+public class ResultStreamer {
+
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(ResultSet rs) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface RowHandler<T> {
+        void handle(T row) throws Exception;
+    }
+
+    private ResultStreamer() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Runs a query and hands every mapped row to the handler as it arrives
+     * @param sql The SELECT to run; it must not have parameters
+     * @param mapper Maps the current row; it must not move the cursor
+     * @param handler Receives each row; throwing stops the stream
+     * @return The number of rows read
+     * @throws Exception If the query, the mapper or the handler fails
+     */
+    public static <T> long stream(String sql, RowMapper<T> mapper, RowHandler<T> handler) throws Exception {
+        if (TransactionManager.isActive()) {
+            throw new IllegalStateException("Cannot stream on a transaction's connection");
+        }
+
+        long count = 0;
+        try (Connection connection = DatabaseConnection.getInstance().getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(Integer.MIN_VALUE);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    handler.handle(mapper.map(rs));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
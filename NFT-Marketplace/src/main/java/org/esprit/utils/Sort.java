@@ -0,0 +1,45 @@
+package org.esprit.utils;
+
+/**
+ * Ordering of a paged listing: one sortable property plus a direction.
+ * Rows with equal values are always ordered by id in the same direction.
+ */
+public class Sort {
+
+    public enum Direction {
+        ASC,
+        DESC
+    }
+
+    private final String property;
+    private final Direction direction;
+
+    private Sort(String property, Direction direction) {
+        if (property == null || property.isEmpty()) {
+            throw new IllegalArgumentException("Sort property cannot be empty");
+        }
+        this.property = property;
+        this.direction = direction;
+    }
+
+    public static Sort asc(String property) {
+        return new Sort(property, Direction.ASC);
+    }
+
+    public static Sort desc(String property) {
+        return new Sort(property, Direction.DESC);
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    @Override
+    public String toString() {
+        return property + " " + direction;
+    }
+}
@@ -0,0 +1,55 @@
+package org.esprit.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Utility class for building SQL statements
+ */
+public class SqlUtils {
+
+    /**
+     * Largest number of ids sent in a single IN (...) list
+     */
+    public static final int MAX_IN_LIST_SIZE = 1000;
+
+    private SqlUtils() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Builds the placeholder list for an IN clause
+     * @param count Number of parameters
+     * @return A string like "?, ?, ?"
+     */
+    public static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append('?');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Splits ids into chunks no larger than {@link #MAX_IN_LIST_SIZE}
+     * @param ids The ids to split
+     * @return The chunks, in iteration order of the input
+     */
+    public static List<List<Integer>> chunks(Collection<Integer> ids) {
+        List<List<Integer>> chunks = new ArrayList<>();
+        List<Integer> current = new ArrayList<>();
+        for (Integer id : ids) {
+            current.add(id);
+            if (current.size() == MAX_IN_LIST_SIZE) {
+                chunks.add(current);
+                current = new ArrayList<>();
+            }
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current);
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,217 @@
+package org.esprit.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thread-confined transactions on top of the connection pool.
+ * While a transaction is open, {@link DatabaseConnection#getConnection()} called from the
+ * same thread returns the transaction's connection, so services invoked inside the
+ * callback take part in the transaction without passing the connection around.
+ */
+public class TransactionManager {
+
+    /**
+     * How a transaction scope behaves when another one is already open on the thread
+     */
+    public enum Propagation {
+        /** Join the open transaction, or start a new one if there is none */
+        REQUIRED,
+        /** Always start an independent transaction on a separate connection */
+        REQUIRES_NEW,
+        /** Run inside a savepoint of the open transaction, or start a new one if there is none */
+        NESTED
+    }
+
+    @FunctionalInterface
+    public interface TransactionCallback<T> {
+        T execute(Connection connection) throws Exception;
+    }
+
+    private static final ThreadLocal<TransactionContext> CURRENT = new ThreadLocal<>();
+
+    private TransactionManager() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Runs the callback in a transaction, joining one already open on this thread
+     * @param work The work to run; the connection it receives must not be committed or closed by it
+     * @return Whatever the callback returns
+     * @throws Exception The callback's exception, after the transaction was rolled back
+     */
+    public static <T> T inTransaction(TransactionCallback<T> work) throws Exception {
+        return inTransaction(Propagation.REQUIRED, work);
+    }
+
+    /**
+     * Runs the callback in a transaction with the given propagation
+     * @param propagation How to behave if a transaction is already open on this thread
+     * @param work The work to run; the connection it receives must not be committed or closed by it
+     * @return Whatever the callback returns
+     * @throws Exception The callback's exception, after the transaction (or savepoint) was rolled back
+     */
+    public static <T> T inTransaction(Propagation propagation, TransactionCallback<T> work) throws Exception {
+        TransactionContext current = CURRENT.get();
+
+        if (current != null && propagation == Propagation.REQUIRED) {
+            try {
+                return work.execute(current.view);
+            } catch (Exception e) {
+                // The outer scope may swallow this, but it must not commit the partial work
+                current.rollbackOnly = true;
+                throw e;
+            }
+        }
+
+        if (current != null && propagation == Propagation.NESTED) {
+            Savepoint savepoint = current.connection.setSavepoint();
+            int hooksBefore = current.afterCommit.size();
+            boolean rollbackOnlyBefore = current.rollbackOnly;
+            try {
+                T result = work.execute(current.view);
+                current.connection.releaseSavepoint(savepoint);
+                return result;
+            } catch (Exception e) {
+                current.connection.rollback(savepoint);
+                // Work undone by the savepoint must not announce itself
+                current.afterCommit.subList(hooksBefore, current.afterCommit.size()).clear();
+                // Nor doom the outer transaction through a REQUIRED scope that failed inside it
+                current.rollbackOnly = rollbackOnlyBefore;
+                throw e;
+            }
+        }
+
+        return runInNewTransaction(current, work);
+    }
+
+    /**
+     * Runs the action once the calling thread's transaction commits, or right away if
+     * none is open. Actions registered in a transaction that rolls back never run.
+     * @param action The action, typically publishing what the transaction changed
+     */
+    public static void afterCommit(Runnable action) {
+        TransactionContext current = CURRENT.get();
+        if (current == null) {
+            action.run();
+        } else {
+            current.afterCommit.add(action);
+        }
+    }
+
+    /**
+     * @return true if the calling thread has an open transaction
+     */
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * @return A non-closable view of this thread's transaction connection, or null if none is open
+     */
+    static Connection currentConnection() {
+        TransactionContext current = CURRENT.get();
+        return current == null ? null : current.view;
+    }
+
+    private static <T> T runInNewTransaction(TransactionContext suspended, TransactionCallback<T> work) throws Exception {
+        Connection connection = DatabaseConnection.getInstance().getPool().borrow();
+        TransactionContext context = new TransactionContext(connection);
+        try {
+            connection.setAutoCommit(false);
+            CURRENT.set(context);
+
+            T result;
+            try {
+                result = work.execute(context.view);
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            }
+
+            if (context.rollbackOnly) {
+                connection.rollback();
+                throw new SQLException("Transaction rolled back because an inner scope failed");
+            }
+            connection.commit();
+            runAfterCommit(context, suspended);
+            return result;
+        } finally {
+            if (suspended != null) {
+                CURRENT.set(suspended);
+            } else {
+                CURRENT.remove();
+            }
+            try {
+                connection.setAutoCommit(true);
+            } finally {
+                connection.close();
+            }
+        }
+    }
+
+    private static void runAfterCommit(TransactionContext committed, TransactionContext suspended) {
+        // Hooks run outside the committed transaction, in the scope that was suspended for it
+        if (suspended != null) {
+            CURRENT.set(suspended);
+        } else {
+            CURRENT.remove();
+        }
+        for (Runnable action : committed.afterCommit) {
+            try {
+                action.run();
+            } catch (Exception e) {
+                System.err.println("After-commit action failed: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * The connection bound to a thread, plus the view handed to callers
+     */
+    private static class TransactionContext {
+        private final Connection connection;
+        private final Connection view;
+        private boolean rollbackOnly;
+        private final List<Runnable> afterCommit = new ArrayList<>();
+
+        private TransactionContext(Connection connection) {
+            this.connection = connection;
+            this.view = (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            // Released by the scope that opened the transaction
+                            return null;
+                        case "commit":
+                        case "setAutoCommit":
+                            throw new SQLException("Transaction is managed by TransactionManager");
+                        case "rollback":
+                            if (args == null) {
+                                throw new SQLException("Transaction is managed by TransactionManager");
+                            }
+                            break;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            break;
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        }
+    }
+}
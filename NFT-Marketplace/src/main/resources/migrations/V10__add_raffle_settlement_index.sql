@@ -0,0 +1 @@
+CREATE INDEX IDX_RAFFLE_STATUS_END_TIME ON raffle (status, end_time);
@@ -0,0 +1,2 @@
+ALTER TABLE raffle ADD COLUMN updated_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3);
+CREATE INDEX IDX_RAFFLE_UPDATED_AT_ID ON raffle (updated_at, id);
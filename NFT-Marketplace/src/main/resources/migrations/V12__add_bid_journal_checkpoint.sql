@@ -0,0 +1,5 @@
+CREATE TABLE bid_journal_checkpoint (
+  id TINYINT NOT NULL,
+  last_sequence BIGINT NOT NULL,
+  PRIMARY KEY (id)
+) ENGINE=InnoDB;
@@ -0,0 +1,16 @@
+ALTER TABLE bet_session
+  ADD COLUMN highest_bid_id INT DEFAULT NULL,
+  ADD COLUMN highest_bid_value DECIMAL(10,2) DEFAULT NULL,
+  ADD COLUMN highest_bidder_id INT DEFAULT NULL;
+
+UPDATE bet_session s
+  JOIN (
+    SELECT id, bet_session_id, bid_value, author_id,
+           ROW_NUMBER() OVER (PARTITION BY bet_session_id ORDER BY bid_value DESC, id DESC) AS bid_rank
+    FROM bid
+  ) b ON b.bet_session_id = s.id AND b.bid_rank = 1
+SET s.highest_bid_id = b.id,
+    s.highest_bid_value = b.bid_value,
+    s.highest_bidder_id = b.author_id;
+
+CREATE INDEX IDX_BID_BET_SESSION_ID_BID_VALUE ON bid (bet_session_id, bid_value);
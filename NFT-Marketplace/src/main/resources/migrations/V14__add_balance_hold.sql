@@ -0,0 +1,28 @@
+CREATE TABLE balance_hold (
+  id INT AUTO_INCREMENT PRIMARY KEY,
+  user_id INT NOT NULL,
+  bet_session_id INT NOT NULL,
+  bid_id INT DEFAULT NULL,
+  amount DECIMAL(20,3) NOT NULL,
+  status VARCHAR(16) NOT NULL DEFAULT 'held',
+  created_at DATETIME(3) NOT NULL,
+  released_at DATETIME(3) DEFAULT NULL,
+  INDEX IDX_BALANCE_HOLD_BET_SESSION_ID_STATUS (bet_session_id, status),
+  INDEX IDX_BALANCE_HOLD_USER_ID_STATUS (user_id, status)
+) ENGINE=InnoDB;
+
+-- Open sessions were debited bid by bid; refund those debits and hold each session's
+-- highest bid instead, so settlement charges the winner once
+UPDATE user u
+  JOIN (
+    SELECT b.author_id, SUM(b.bid_value) AS debited
+    FROM bid b JOIN bet_session s ON s.id = b.bet_session_id
+    WHERE s.status IN ('pending', 'active')
+    GROUP BY b.author_id
+  ) d ON d.author_id = u.id
+SET u.balance = u.balance + d.debited;
+
+INSERT INTO balance_hold (user_id, bet_session_id, bid_id, amount, status, created_at)
+  SELECT highest_bidder_id, id, highest_bid_id, highest_bid_value, 'held', NOW(3)
+  FROM bet_session
+  WHERE status IN ('pending', 'active') AND highest_bidder_id IS NOT NULL;
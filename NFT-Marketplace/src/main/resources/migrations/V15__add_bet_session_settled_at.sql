@@ -0,0 +1,7 @@
+ALTER TABLE bet_session
+  ADD COLUMN settled_at DATETIME(3) DEFAULT NULL;
+
+-- Sessions completed before settlement existed were paid bid by bid; leave them as they are
+UPDATE bet_session SET settled_at = end_time WHERE status = 'completed';
+
+CREATE INDEX IDX_BET_SESSION_STATUS_SETTLED_AT_END_TIME ON bet_session (status, settled_at, end_time);
@@ -0,0 +1,32 @@
+CREATE TABLE ledger_transfer (
+  id BIGINT AUTO_INCREMENT PRIMARY KEY,
+  transfer_type VARCHAR(32) NOT NULL,
+  reference_id INT DEFAULT NULL,
+  created_at DATETIME(3) NOT NULL
+) ENGINE=InnoDB;
+
+CREATE TABLE ledger_entry (
+  id BIGINT AUTO_INCREMENT PRIMARY KEY,
+  transfer_id BIGINT NOT NULL,
+  user_id INT DEFAULT NULL,
+  amount DECIMAL(20,3) NOT NULL,
+  balance_after DECIMAL(20,3) DEFAULT NULL,
+  created_at DATETIME(3) NOT NULL,
+  INDEX IDX_LEDGER_ENTRY_USER_ID_ID (user_id, id),
+  INDEX IDX_LEDGER_ENTRY_TRANSFER_ID (transfer_id),
+  CONSTRAINT FK_LEDGER_ENTRY_TRANSFER_ID FOREIGN KEY (transfer_id) REFERENCES ledger_transfer (id)
+) ENGINE=InnoDB;
+
+-- Open every existing balance against the external account (user_id NULL)
+INSERT INTO ledger_transfer (transfer_type, reference_id, created_at)
+  SELECT 'opening', id, NOW(3) FROM user;
+
+INSERT INTO ledger_entry (transfer_id, user_id, amount, balance_after, created_at)
+  SELECT t.id, u.id, u.balance, u.balance, t.created_at
+  FROM ledger_transfer t JOIN user u ON u.id = t.reference_id
+  WHERE t.transfer_type = 'opening';
+
+INSERT INTO ledger_entry (transfer_id, user_id, amount, balance_after, created_at)
+  SELECT t.id, NULL, -u.balance, NULL, t.created_at
+  FROM ledger_transfer t JOIN user u ON u.id = t.reference_id
+  WHERE t.transfer_type = 'opening';
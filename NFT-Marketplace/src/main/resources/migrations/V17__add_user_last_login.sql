@@ -0,0 +1,2 @@
+ALTER TABLE user
+  ADD COLUMN last_login DATETIME DEFAULT NULL;
@@ -0,0 +1,11 @@
+-- Journal sequences are per process, so each journal keeps its own checkpoint.
+-- The old global row is dropped; replaying bids it covered is harmless, since a
+-- stored bid never beats the session price it set.
+DROP TABLE bid_journal_checkpoint;
+
+CREATE TABLE bid_journal_checkpoint (
+  journal_id VARCHAR(36) NOT NULL,
+  last_sequence BIGINT NOT NULL,
+  updated_at DATETIME(3) NOT NULL,
+  PRIMARY KEY (journal_id)
+) ENGINE=InnoDB;
@@ -0,0 +1,6 @@
+CREATE INDEX IDX_ARTWORK_TITLE_ID ON artwork (title, id);
+CREATE INDEX IDX_USER_BALANCE_ID ON user (balance, id);
+CREATE INDEX IDX_BET_SESSION_CURRENT_PRICE_ID ON bet_session (current_price, id);
+CREATE INDEX IDX_RAFFLE_TITLE_ID ON raffle (title, id);
+CREATE INDEX IDX_BLOG_TITLE_ID ON blog (title, id);
+CREATE INDEX IDX_PARTICIPANT_JOINED_AT_ID ON participant (joined_at, id);
@@ -0,0 +1 @@
+CREATE INDEX IDX_BLOG_DATE_ID ON blog (date, id);
@@ -0,0 +1,10 @@
+CREATE INDEX IDX_ARTWORK_CREATED_AT_ID ON artwork (created_at, id);
+CREATE INDEX IDX_ARTWORK_PRICE_ID ON artwork (price, id);
+CREATE INDEX IDX_USER_CREATED_AT_ID ON user (created_at, id);
+CREATE INDEX IDX_USER_NAME_ID ON user (name, id);
+CREATE INDEX IDX_BET_SESSION_CREATED_AT_ID ON bet_session (created_at, id);
+CREATE INDEX IDX_BET_SESSION_END_TIME_ID ON bet_session (end_time, id);
+CREATE INDEX IDX_RAFFLE_CREATED_AT_ID ON raffle (created_at, id);
+CREATE INDEX IDX_RAFFLE_END_TIME_ID ON raffle (end_time, id);
+CREATE INDEX IDX_COMMENT_CREATED_AT_ID ON comment (created_at, id);
+CREATE INDEX IDX_TRADE_OFFER_CREATION_DATE_ID ON trade_offer (creation_date, id);
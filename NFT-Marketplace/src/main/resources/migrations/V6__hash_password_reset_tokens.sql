@@ -0,0 +1,5 @@
+ALTER TABLE user ADD COLUMN password_reset_token_hash CHAR(64) DEFAULT NULL;
+UPDATE user SET password_reset_token_hash = SHA2(password_reset_token, 256), password_reset_token = NULL
+    WHERE password_reset_token IS NOT NULL;
+CREATE UNIQUE INDEX UNIQ_USER_RESET_TOKEN_HASH ON user (password_reset_token_hash);
+CREATE INDEX IDX_USER_RESET_TOKEN_EXPIRES_AT ON user (password_reset_token_expires_at);
@@ -0,0 +1,2 @@
+UPDATE user SET github_username = NULL WHERE github_username = '';
+CREATE UNIQUE INDEX UNIQ_USER_GITHUB_USERNAME ON user (github_username);
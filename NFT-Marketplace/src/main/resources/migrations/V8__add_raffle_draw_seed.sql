@@ -0,0 +1,2 @@
+ALTER TABLE raffle ADD COLUMN draw_seed BIGINT DEFAULT NULL;
+CREATE INDEX IDX_PARTICIPANT_RAFFLE_ID_ID ON participant (raffle_id, id);
@@ -0,0 +1 @@
+ALTER TABLE participant ADD COLUMN weight INT NOT NULL DEFAULT 1;